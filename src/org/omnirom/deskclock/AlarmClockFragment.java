@@ -21,7 +21,6 @@ import android.animation.ObjectAnimator;
 import android.app.DialogFragment;
 import android.app.Fragment;
 import android.app.LoaderManager;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
@@ -66,6 +65,7 @@ import android.widget.Toast;
 import org.omnirom.deskclock.alarms.AlarmStateManager;
 import org.omnirom.deskclock.provider.Alarm;
 import org.omnirom.deskclock.provider.AlarmInstance;
+import org.omnirom.deskclock.provider.AlarmRepository;
 import org.omnirom.deskclock.provider.DaysOfWeek;
 import org.omnirom.deskclock.widget.ActionableToastBar;
 import org.omnirom.deskclock.widget.ExpandAnimation;
@@ -1127,9 +1127,8 @@ public class AlarmClockFragment extends DeskClockFragment implements
     }
 
     private static AlarmInstance setupAlarmInstance(Context context, Alarm alarm) {
-        ContentResolver cr = context.getContentResolver();
         AlarmInstance newInstance = alarm.createInstanceAfter(Calendar.getInstance());
-        newInstance = AlarmInstance.addInstance(cr, newInstance);
+        newInstance = AlarmRepository.getInstance(context).addInstance(newInstance);
         // Register instance to state manager
         AlarmStateManager.registerInstance(context, newInstance, true);
         return newInstance;
@@ -1142,9 +1141,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
             protected Void doInBackground(Void... parameters) {
                 // Activity may be closed at this point , make sure data is still valid
                 if (context != null && alarm != null) {
-                    ContentResolver cr = context.getContentResolver();
-                    AlarmStateManager.deleteAllInstances(context, alarm.id);
-                    Alarm.deleteAlarm(cr, alarm.id);
+                    AlarmStateManager.deleteAlarm(context, alarm.id);
                     sDeskClockExtensions.deleteAlarm(context, alarm.id);
                 }
                 return null;
@@ -1161,10 +1158,8 @@ public class AlarmClockFragment extends DeskClockFragment implements
                     @Override
                     protected AlarmInstance doInBackground(Void... parameters) {
                         if (context != null && alarm != null) {
-                            ContentResolver cr = context.getContentResolver();
-
                             // Add alarm to db
-                            Alarm newAlarm = Alarm.addAlarm(cr, alarm);
+                            Alarm newAlarm = AlarmRepository.getInstance(context).addAlarm(alarm);
                             mScrollToAlarmId = newAlarm.id;
                             if (expand) {
                                 mExpandedId = newAlarm.id;
@@ -1201,7 +1196,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
                                 AlarmUtils.popFirstAlarmCreatedToast(context);
                                 prefs.edit().putBoolean(PREF_KEY_ALARM_HINT_SHOWN, true).commit();
                             } else {
-                                AlarmUtils.popAlarmSetToast(context, instance.getAlarmTime().getTimeInMillis());
+                                AlarmUtils.popAlarmSetToast(context, instance.getAlarmTimeMillis());
                             }
                         }
                     }
@@ -1215,13 +1210,11 @@ public class AlarmClockFragment extends DeskClockFragment implements
                 new AsyncTask<Void, Void, AlarmInstance>() {
                     @Override
                     protected AlarmInstance doInBackground(Void... parameters) {
-                        ContentResolver cr = context.getContentResolver();
-
                         // Dismiss all old instances
                         AlarmStateManager.deleteAllInstances(context, alarm.id);
 
                         // Update alarm
-                        Alarm.updateAlarm(cr, alarm);
+                        AlarmRepository.getInstance(context).updateAlarm(alarm);
                         if (alarm.enabled) {
                             return setupAlarmInstance(context, alarm);
                         }
@@ -1232,7 +1225,7 @@ public class AlarmClockFragment extends DeskClockFragment implements
                     @Override
                     protected void onPostExecute(AlarmInstance instance) {
                         if (popToast && instance != null) {
-                            AlarmUtils.popAlarmSetToast(context, instance.getAlarmTime().getTimeInMillis());
+                            AlarmUtils.popAlarmSetToast(context, instance.getAlarmTimeMillis());
                         }
                     }
                 };
@@ -24,8 +24,9 @@ import android.os.PowerManager.WakeLock;
 import android.preference.PreferenceManager;
 
 import org.omnirom.deskclock.alarms.AlarmStateManager;
+import org.omnirom.deskclock.provider.LocalTimes;
 
-import org.omnirom.deskclock.timer.TimerObj;
+import org.omnirom.deskclock.timer.TimerModel;
 
 public class AlarmInitReceiver extends BroadcastReceiver {
 
@@ -34,7 +35,7 @@ public class AlarmInitReceiver extends BroadcastReceiver {
 
     /**
      * Sets alarm on ACTION_BOOT_COMPLETED.  Resets alarm on
-     * TIME_SET, TIMEZONE_CHANGED
+     * TIME_SET, TIMEZONE_CHANGED and MY_PACKAGE_REPLACED
      */
     @Override
     public void onReceive(final Context context, Intent intent) {
@@ -45,10 +46,13 @@ public class AlarmInitReceiver extends BroadcastReceiver {
         final WakeLock wl = AlarmAlertWakeLock.createPartialWakeLock(context);
         wl.acquire();
 
+        // Alarm times are converted with the cached zone offsets, so drop them
+        LocalTimes.invalidate();
+
         // We need to increment the global id out of the async task to prevent
         // race conditions
         AlarmStateManager.updateGlobalIntentId(context);
-        AsyncHandler.post(new Runnable() {
+        AsyncExecutor.post(AsyncExecutor.PRIORITY_HOUSEKEEPING, new Runnable() {
             @Override public void run() {
                 // Remove the snooze alarm after a boot.
                 if (action.equals(Intent.ACTION_BOOT_COMPLETED)) {
@@ -56,8 +60,10 @@ public class AlarmInitReceiver extends BroadcastReceiver {
                     SharedPreferences prefs =
                             PreferenceManager.getDefaultSharedPreferences(context);
                     LogUtils.v("AlarmInitReceiver - Reset timers and clear stopwatch data");
-                    TimerObj.resetTimersInSharedPrefs(prefs);
-                    Utils.clearSwSharedPref(prefs);
+                    TimerModel timerModel = TimerModel.getInstance(context);
+                    timerModel.resetTimers();
+                    timerModel.flush();
+                    Utils.clearStopwatchState(context);
 
                     if (!prefs.getBoolean(PREF_VOLUME_DEF_DONE, false)) {
                         // Fix the default
@@ -71,9 +77,14 @@ public class AlarmInitReceiver extends BroadcastReceiver {
                 // Update all the alarm instances on time change event
                 AlarmStateManager.fixAlarmInstances(context);
 
-                result.finish();
-                LogUtils.v("AlarmInitReceiver finished");
-                wl.release();
+                // Release once the next alarm update queued by the fix has run
+                AsyncExecutor.post(AsyncExecutor.PRIORITY_DEFAULT, new Runnable() {
+                    @Override public void run() {
+                        result.finish();
+                        LogUtils.v("AlarmInitReceiver finished");
+                        wl.release();
+                    }
+                });
             }
         });
     }
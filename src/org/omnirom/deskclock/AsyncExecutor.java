@@ -0,0 +1,172 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Background thread used to perform io operations and handle async broadcasts.
+ *
+ * Tasks run one at a time like on a single handler thread, but queued tasks are
+ * picked by priority lane first and in posting order within a lane. An alarm
+ * state change posted behind a pile of housekeeping work therefore only waits for
+ * the task currently running.
+ */
+public final class AsyncExecutor {
+    private static final String LOGTAG = AsyncExecutor.class.getSimpleName();
+
+    // Alarm state changes and user actions on a firing alarm
+    public static final int PRIORITY_ALARM = 0;
+    // Regular background work
+    public static final int PRIORITY_DEFAULT = 1;
+    // Work that may wait, like re-registering all alarms after a time change
+    public static final int PRIORITY_HOUSEKEEPING = 2;
+
+    private static final String[] LANE_NAMES = { "alarm", "default", "housekeeping" };
+    private static final int LANE_COUNT = LANE_NAMES.length;
+
+    private static final class Task {
+        final Runnable runnable;
+        final String key;
+        final long postTime;
+
+        Task(Runnable runnable, String key) {
+            this.runnable = runnable;
+            this.key = key;
+            this.postTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static final Object sLock = new Object();
+    private static final ArrayDeque<Task>[] sLanes = createLanes();
+    // Queued tasks by coalescing key
+    private static final HashMap<String, Task> sCoalesced = new HashMap<String, Task>();
+    private static Thread sThread;
+
+    // Statistics for dump, guarded by sLock
+    private static final long[] sExecuted = new long[LANE_COUNT];
+    private static final long[] sTotalWait = new long[LANE_COUNT];
+    private static final long[] sMaxWait = new long[LANE_COUNT];
+    private static final int[] sMaxDepth = new int[LANE_COUNT];
+    private static long sCoalescedCount;
+
+    private AsyncExecutor() {}
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Task>[] createLanes() {
+        ArrayDeque<Task>[] lanes = new ArrayDeque[LANE_COUNT];
+        for (int i = 0; i < LANE_COUNT; i++) {
+            lanes[i] = new ArrayDeque<Task>();
+        }
+        return lanes;
+    }
+
+    public static void post(Runnable r) {
+        post(PRIORITY_DEFAULT, r);
+    }
+
+    public static void post(int priority, Runnable r) {
+        synchronized (sLock) {
+            enqueue(priority, new Task(r, null));
+        }
+    }
+
+    /**
+     * Post a task unless one with the same key is still queued. Use this for work
+     * that only has to happen once after any number of requests.
+     */
+    public static void postCoalesced(int priority, String key, Runnable r) {
+        synchronized (sLock) {
+            if (sCoalesced.containsKey(key)) {
+                sCoalescedCount++;
+                return;
+            }
+            Task task = new Task(r, key);
+            sCoalesced.put(key, task);
+            enqueue(priority, task);
+        }
+    }
+
+    private static void enqueue(int priority, Task task) {
+        ArrayDeque<Task> lane = sLanes[priority];
+        lane.addLast(task);
+        sMaxDepth[priority] = Math.max(sMaxDepth[priority], lane.size());
+        if (sThread == null) {
+            sThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, LOGTAG);
+            sThread.start();
+        } else {
+            sLock.notify();
+        }
+    }
+
+    private static void loop() {
+        while (true) {
+            Task task = null;
+            synchronized (sLock) {
+                while (task == null) {
+                    for (int i = 0; i < LANE_COUNT && task == null; i++) {
+                        task = sLanes[i].pollFirst();
+                        if (task != null) {
+                            long wait = SystemClock.elapsedRealtime() - task.postTime;
+                            sExecuted[i]++;
+                            sTotalWait[i] += wait;
+                            sMaxWait[i] = Math.max(sMaxWait[i], wait);
+                        }
+                    }
+                    if (task == null) {
+                        try {
+                            sLock.wait();
+                        } catch (InterruptedException e) {
+                            // Keep serving, nobody interrupts this thread on purpose
+                        }
+                    }
+                }
+                if (task.key != null) {
+                    sCoalesced.remove(task.key);
+                }
+            }
+            task.runnable.run();
+        }
+    }
+
+    /**
+     * Print queue depth and wait times of every lane.
+     */
+    public static void dump(PrintWriter pw) {
+        synchronized (sLock) {
+            pw.println(LOGTAG + ":");
+            for (int i = 0; i < LANE_COUNT; i++) {
+                pw.println("  " + LANE_NAMES[i] + ": queued=" + sLanes[i].size()
+                        + " maxQueued=" + sMaxDepth[i]
+                        + " executed=" + sExecuted[i]
+                        + " avgWaitMs=" + (sExecuted[i] == 0 ? 0 : sTotalWait[i] / sExecuted[i])
+                        + " maxWaitMs=" + sMaxWait[i]);
+            }
+            pw.println("  coalesced=" + sCoalescedCount);
+        }
+    }
+}
@@ -759,11 +759,11 @@ public class BrowseActivity extends Activity implements SearchView.OnQueryTextLi
                     for (File file : playlistDir.listFiles()) {
                         if (file.isFile()) {
                             String fileUri = Uri.fromFile(file).toString();
-                            if (Utils.isStreamM3UFile(fileUri)) {
+                            PlaylistParser.Playlist playlist = Utils.readStreamM3UFile(fileUri);
+                            if (playlist != null) {
                                 QueryItem item = new QueryItem();
-                                String name = Utils.getStreamM3UName(fileUri);
-                                item.mName = name == null ? file.getName() : name;
-                                item.mSubText = getStreamURLSub(fileUri);
+                                item.mName = playlist.label == null ? file.getName() : playlist.label;
+                                item.mSubText = getStreamURLSub(playlist);
                                 item.mUri = fileUri;
                                 item.mQueryType = QUERY_TYPE_STREAM;
                                 item.mIconId = R.drawable.ic_earth;
@@ -988,10 +988,10 @@ public class BrowseActivity extends Activity implements SearchView.OnQueryTextLi
     private boolean resolveStream(String uri, QueryItem item) {
         String path = Uri.parse(uri).getPath();
         File f = new File(path);
-        if (f.isFile() && f.exists()) {
-            String name = Utils.getStreamM3UName(uri);
-            item.mName = name == null ? f.getName() : name;
-            item.mSubText = getStreamURLSub(uri);
+        PlaylistParser.Playlist playlist = Utils.readStreamM3UFile(uri);
+        if (playlist != null) {
+            item.mName = playlist.label == null ? f.getName() : playlist.label;
+            item.mSubText = getStreamURLSub(playlist);
             item.mQueryType = QUERY_TYPE_STREAM;
             item.mIconId = R.drawable.ic_earth;
             return true;
@@ -1116,7 +1116,7 @@ public class BrowseActivity extends Activity implements SearchView.OnQueryTextLi
                 unknownTone = false;
             }
         }
-        if (unknownTone && Utils.isStreamM3UFile(uri)) {
+        if (unknownTone && Utils.isStorageUri(uri)) {
             QueryItem queryItem = new QueryItem();
             queryItem.mQueryType = QUERY_TYPE_STREAM;
             queryItem.mUri = uri;
@@ -1206,7 +1206,7 @@ public class BrowseActivity extends Activity implements SearchView.OnQueryTextLi
                 unknownTone = false;
             }
         }
-        if (!mLimitedMode && unknownTone && Utils.isStreamM3UFile(uri)) {
+        if (!mLimitedMode && unknownTone && Utils.isStorageUri(uri)) {
             if (resolveStream(uri, queryItem)) {
                 unknownTone = false;
             }
@@ -1550,18 +1550,9 @@ public class BrowseActivity extends Activity implements SearchView.OnQueryTextLi
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(final Void... params) {
-                String content = Utils.downloadUrlMemoryAsString(pasteString);
-                if (content != null) {
-                    List<String> playlistUrils = null;
-                    if (pasteString.endsWith("pls")) {
-                        playlistUrils = Utils.parsePLSPlaylistFromMemory(content);
-                    }
-                    if (pasteString.endsWith("m3u")) {
-                        playlistUrils = Utils.parseM3UPlaylistFromMemory(content);
-                    }
-                    if (playlistUrils != null && playlistUrils.size() != 0) {
-                        pasteStringWrapper.add(playlistUrils.get(0));
-                    }
+                List<String> playlistUrils = Utils.downloadPlaylist(pasteString);
+                if (playlistUrils != null && playlistUrils.size() != 0) {
+                    pasteStringWrapper.add(playlistUrils.get(0));
                 }
                 return null;
             }
@@ -1624,10 +1615,9 @@ public class BrowseActivity extends Activity implements SearchView.OnQueryTextLi
         }
     }
 
-    private String getStreamURLSub(String m3UFileUri) {
-        List<Uri> files = Utils.parseM3UPlaylist(m3UFileUri);
-        if (files.size() != 0) {
-            return files.get(0).toString();
+    private String getStreamURLSub(PlaylistParser.Playlist playlist) {
+        if (playlist.entries.size() != 0) {
+            return playlist.entries.get(0);
         }
         return null;
     }
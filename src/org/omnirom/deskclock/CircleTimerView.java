@@ -1,7 +1,6 @@
 package org.omnirom.deskclock;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Paint;
@@ -9,7 +8,7 @@ import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
 
-import org.omnirom.deskclock.stopwatch.Stopwatches;
+import org.omnirom.deskclock.stopwatch.StopwatchState;
 
 /**
  * Class to draw a circle for timers and stopwatches.
@@ -189,6 +188,7 @@ public class CircleTimerView extends View {
         }
    }
 
+    // The stopwatch circle was kept in preferences by older versions, see StopwatchStateStore
     public static final String PREF_CTV_PAUSED  = "_ctv_paused";
     public static final String PREF_CTV_INTERVAL  = "_ctv_interval";
     public static final String PREF_CTV_INTERVAL_START = "_ctv_interval_start";
@@ -197,42 +197,23 @@ public class CircleTimerView extends View {
     public static final String PREF_CTV_TIMER_MODE = "_ctv_timer_mode";
     public static final String PREF_CTV_MARKER_TIME = "_ctv_marker_time";
 
-    // Since this view is used in multiple places, use the key to save different instances
-    public void writeToSharedPref(SharedPreferences prefs, String key) {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putBoolean (key + PREF_CTV_PAUSED, mPaused);
-        editor.putLong (key + PREF_CTV_INTERVAL, mIntervalTime);
-        editor.putLong (key + PREF_CTV_INTERVAL_START, mIntervalStartTime);
-        editor.putLong (key + PREF_CTV_CURRENT_INTERVAL, mCurrentIntervalTime);
-        editor.putLong (key + PREF_CTV_ACCUM_TIME, mAccumulatedTime);
-        editor.putLong (key + PREF_CTV_MARKER_TIME, mMarkerTime);
-        editor.putBoolean (key + PREF_CTV_TIMER_MODE, mTimerMode);
-        editor.apply();
-    }
-
-    public void readFromSharedPref(SharedPreferences prefs, String key) {
-        mPaused = prefs.getBoolean(key + PREF_CTV_PAUSED, false);
-        mIntervalTime = prefs.getLong(key + PREF_CTV_INTERVAL, 0);
-        mIntervalStartTime = prefs.getLong(key + PREF_CTV_INTERVAL_START, -1);
-        mCurrentIntervalTime = prefs.getLong(key + PREF_CTV_CURRENT_INTERVAL, 0);
-        mAccumulatedTime = prefs.getLong(key + PREF_CTV_ACCUM_TIME, 0);
-        mMarkerTime = prefs.getLong(key + PREF_CTV_MARKER_TIME, -1);
-        mTimerMode = prefs.getBoolean(key + PREF_CTV_TIMER_MODE, false);
+    public void writeToState(StopwatchState state) {
+        state.circlePaused = mPaused;
+        state.circleIntervalTime = mIntervalTime;
+        state.circleIntervalStartTime = mIntervalStartTime;
+        state.circleCurrentIntervalTime = mCurrentIntervalTime;
+        state.circleAccumulatedTime = mAccumulatedTime;
+        state.circleMarkerTime = mMarkerTime;
+    }
+
+    public void readFromState(StopwatchState state) {
+        mPaused = state.circlePaused;
+        mIntervalTime = state.circleIntervalTime;
+        mIntervalStartTime = state.circleIntervalStartTime;
+        mCurrentIntervalTime = state.circleCurrentIntervalTime;
+        mAccumulatedTime = state.circleAccumulatedTime;
+        mMarkerTime = state.circleMarkerTime;
+        mTimerMode = false;
         mAnimate = (mIntervalStartTime != -1 && !mPaused);
     }
-
-    public void clearSharedPref(SharedPreferences prefs, String key) {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.remove (Stopwatches.PREF_START_TIME);
-        editor.remove (Stopwatches.PREF_ACCUM_TIME);
-        editor.remove (Stopwatches.PREF_STATE);
-        editor.remove (key + PREF_CTV_PAUSED);
-        editor.remove (key + PREF_CTV_INTERVAL);
-        editor.remove (key + PREF_CTV_INTERVAL_START);
-        editor.remove (key + PREF_CTV_CURRENT_INTERVAL);
-        editor.remove (key + PREF_CTV_ACCUM_TIME);
-        editor.remove (key + PREF_CTV_MARKER_TIME);
-        editor.remove (key + PREF_CTV_TIMER_MODE);
-        editor.apply();
-    }
 }
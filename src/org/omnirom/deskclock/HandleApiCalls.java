@@ -19,19 +19,19 @@ package org.omnirom.deskclock;
 import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
 import org.omnirom.deskclock.alarms.AlarmStateManager;
 import org.omnirom.deskclock.provider.Alarm;
 import org.omnirom.deskclock.provider.AlarmInstance;
+import org.omnirom.deskclock.provider.AlarmRepository;
 import org.omnirom.deskclock.provider.DaysOfWeek;
 import org.omnirom.deskclock.timer.TimerFullScreenFragment;
+import org.omnirom.deskclock.timer.TimerModel;
 import org.omnirom.deskclock.timer.TimerObj;
 import org.omnirom.deskclock.timer.Timers;
 
@@ -122,7 +122,7 @@ public class HandleApiCalls extends Activity {
         if (!alarms.isEmpty()) {
             Alarm alarm = alarms.get(0);
             alarm.enabled = true;
-            Alarm.updateAlarm(cr, alarm);
+            AlarmRepository.getInstance(this).updateAlarm(alarm);
 
             // Delete all old instances and create a new one with updated values
             AlarmStateManager.deleteAllInstances(this, alarm.id);
@@ -156,7 +156,7 @@ public class HandleApiCalls extends Activity {
         }
         alarm.deleteAfterUse = !daysOfWeek.isRepeating() && skipUi;
 
-        alarm = Alarm.addAlarm(cr, alarm);
+        alarm = AlarmRepository.getInstance(this).addAlarm(alarm);
         setupInstance(alarm.createInstanceAfter(Calendar.getInstance()), skipUi);
         LogUtils.i("HandleApiCalls set up alarm: %s", alarm);
         finish();
@@ -175,7 +175,7 @@ public class HandleApiCalls extends Activity {
     }
 
     private void handleSetTimer(Intent intent) {
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        final TimerModel model = TimerModel.getInstance(this);
         // If no length is supplied , show the timer setup view
         if (!intent.hasExtra(EXTRA_LENGTH)) {
             startActivity(new Intent(this, DeskClock.class)
@@ -195,7 +195,7 @@ public class HandleApiCalls extends Activity {
         TimerObj timer = null;
         // Find an existing matching time
         final ArrayList<TimerObj> timers = new ArrayList<TimerObj>();
-        TimerObj.getTimersFromSharedPrefs(prefs, timers);
+        model.getTimers(timers);
         for (TimerObj t : timers) {
             if (t.mSetupLength == length && (TextUtils.equals(label, t.mLabel))
                     && t.mState == TimerObj.STATE_RESTART) {
@@ -214,7 +214,7 @@ public class HandleApiCalls extends Activity {
 
         timer.mState = TimerObj.STATE_RUNNING;
         timer.mStartTime = Utils.getTimeNow();
-        timer.writeToSharedPref(prefs);
+        model.updateTimer(timer);
 
         // Tell TimerReceiver that the timer was started
         sendBroadcast(new Intent().setAction(Timers.START_TIMER)
@@ -231,9 +231,9 @@ public class HandleApiCalls extends Activity {
     }
 
     private void setupInstance(AlarmInstance instance, boolean skipUi) {
-        instance = AlarmInstance.addInstance(this.getContentResolver(), instance);
+        instance = AlarmRepository.getInstance(this).addInstance(instance);
         AlarmStateManager.registerInstance(this, instance, true);
-        AlarmUtils.popAlarmSetToast(this, instance.getAlarmTime().getTimeInMillis());
+        AlarmUtils.popAlarmSetToast(this, instance.getAlarmTimeMillis());
         if (!skipUi) {
             Intent showAlarm = Alarm.createIntent(this, DeskClock.class, instance.mAlarmId);
             showAlarm.putExtra(DeskClock.SELECT_TAB_INTENT_EXTRA, DeskClock.ALARM_TAB_INDEX);
@@ -28,6 +28,10 @@ public class LogUtils {
     public final static String LOGTAG = "OmniClock";
     public final static boolean DEBUG = "eng".equals(Build.TYPE) || "userdebug".equals(Build.TYPE);
 
+    public static boolean isVerbose() {
+        return DEBUG || Log.isLoggable(LOGTAG, Log.VERBOSE);
+    }
+
     public static void v(String message, Object... args) {
         if (DEBUG || Log.isLoggable(LOGTAG, Log.VERBOSE)) {
             Log.v(LOGTAG, args == null ? message : strFormat(message, args));
@@ -0,0 +1,118 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass parser for M3U, extended M3U and PLS playlists.
+ *
+ * The format is told from the content, so a playlist downloaded from an URL
+ * that does not end in its type is read as well. Entries are returned as they
+ * are written, resolving relative paths is up to the caller. The stream is
+ * read but not closed.
+ */
+public final class PlaylistParser {
+    private static final String PLS_HEADER = "[playlist]";
+    private static final String PLS_FILE = "file";
+    private static final String BOM = "\uFEFF";
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    public static final class Playlist {
+        // Label of a stream playlist written by Utils.writeStreamM3UFile, or null
+        public final String label;
+        public final boolean stream;
+        public final List<String> entries;
+
+        Playlist(String label, boolean stream, List<String> entries) {
+            this.label = label;
+            this.stream = stream;
+            this.entries = entries;
+        }
+    }
+
+    private PlaylistParser() {}
+
+    /**
+     * @param in playlist contents
+     * @param maxEntries stop after that many entries, 0 to read all
+     * @return label and entries of the playlist, empty if it has none
+     */
+    public static Playlist parse(InputStream in, int maxEntries) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+        List<String> entries = new ArrayList<>();
+        String label = null;
+        boolean stream = false;
+        boolean pls = false;
+        boolean first = true;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (first && line.startsWith(BOM)) {
+                line = line.substring(BOM.length());
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (first) {
+                first = false;
+                if (line.equalsIgnoreCase(PLS_HEADER)) {
+                    pls = true;
+                    continue;
+                }
+            }
+
+            String entry = null;
+            if (pls) {
+                // FileN=<uri>, everything else like TitleN or Length is skipped
+                int idx = line.indexOf('=');
+                if (idx != -1 && line.regionMatches(true, 0, PLS_FILE, 0, PLS_FILE.length())) {
+                    entry = line.substring(idx + 1).trim();
+                }
+            } else if (line.charAt(0) == '#') {
+                // Directive or comment, the only one of interest tags stream playlists
+                if (line.contains(Utils.STREAM_FILE_TAG)) {
+                    stream = true;
+                    String prefix = Utils.M3U_ENTRY + Utils.STREAM_FILE_TAG + ":";
+                    if (line.startsWith(prefix)) {
+                        label = line.substring(prefix.length());
+                    }
+                }
+            } else {
+                entry = line;
+            }
+
+            if (entry != null && !entry.isEmpty()) {
+                entries.add(entry);
+                if (entries.size() == maxEntries) {
+                    break;
+                }
+            }
+        }
+        return new Playlist(label, stream, entries);
+    }
+}
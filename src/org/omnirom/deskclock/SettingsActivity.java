@@ -42,6 +42,7 @@ import android.view.MenuItem;
 
 import org.omnirom.deskclock.preference.AutoSilencePickerPreference;
 import org.omnirom.deskclock.preference.NumberPickerPreference;
+import org.omnirom.deskclock.stopwatch.StopwatchStateStore;
 import org.omnirom.deskclock.worldclock.Cities;
 
 import java.util.Arrays;
@@ -87,6 +88,8 @@ public class SettingsActivity extends PreferenceActivity
             "keep_screen_on";
     public static final String KEY_VOLUME_INCREASE_SPEED =
             "volume_increase_speed";
+    public static final String KEY_VOLUME_INCREASE_CURVE =
+            "volume_increase_curve";
     public static final String KEY_PRE_ALARM_DISMISS_ALL =
             "pre_alarm_dismiss_all";
     public static final String KEY_FULLSCREEN_ALARM =
@@ -101,6 +104,8 @@ public class SettingsActivity extends PreferenceActivity
             "timer_alarm_increase_volume";
     public static final String KEY_TIMER_ALARM_INCREASE_VOLUME_SPEED =
             "timer_alarm_increase_volume_speed";
+    public static final String KEY_TIMER_COALESCE_WINDOW =
+            "timer_coalesce_window";
     public static final String KEY_WEEK_START =
             "week_start";
     public static final String KEY_FULLSCREEN_ALARM_SETTINGS =
@@ -121,6 +126,7 @@ public class SettingsActivity extends PreferenceActivity
     public static final String KEY_ANALOG_SHOW_DATE = "show_date_and_alarm";
     public static final String KEY_ANALOG_SHOW_NUMBERS ="show_numbers";
     public static final String KEY_ANALOG_SHOW_TICKS ="show_ticks";
+    public static final String KEY_STOPWATCH_SYNC_POLICY = "stopwatch_sync_policy";
 
     // default action for alarm action
     public static final String DEFAULT_ALARM_ACTION = "0";
@@ -259,10 +265,20 @@ public class SettingsActivity extends PreferenceActivity
             final ListPreference listPref = (ListPreference) pref;
             final int idx = listPref.findIndexOfValue((String) newValue);
             listPref.setSummary(listPref.getEntries()[idx]);
+        } else if (KEY_VOLUME_INCREASE_CURVE.equals(pref.getKey())) {
+            final ListPreference listPref = (ListPreference) pref;
+            final int idx = listPref.findIndexOfValue((String) newValue);
+            listPref.setSummary(listPref.getEntries()[idx]);
         } else if (KEY_WEEK_START.equals(pref.getKey())) {
             final ListPreference listPref = (ListPreference) pref;
             final int idx = listPref.findIndexOfValue((String) newValue);
             listPref.setSummary(listPref.getEntries()[idx]);
+        } else if (KEY_STOPWATCH_SYNC_POLICY.equals(pref.getKey())) {
+            final ListPreference listPref = (ListPreference) pref;
+            final int idx = listPref.findIndexOfValue((String) newValue);
+            listPref.setSummary(listPref.getEntries()[idx]);
+            StopwatchStateStore.getInstance(this).setSyncPolicy(
+                    Integer.parseInt((String) newValue));
         } else if (KEY_AUDIO_STREAM.equals(pref.getKey())) {
             final ListPreference listPref = (ListPreference) pref;
             final int idx = listPref.findIndexOfValue((String) newValue);
@@ -271,6 +287,10 @@ public class SettingsActivity extends PreferenceActivity
             final ListPreference listPref = (ListPreference) pref;
             final int idx = listPref.findIndexOfValue((String) newValue);
             listPref.setSummary(listPref.getEntries()[idx]);
+        } else if (KEY_TIMER_COALESCE_WINDOW.equals(pref.getKey())) {
+            final ListPreference listPref = (ListPreference) pref;
+            final int idx = listPref.findIndexOfValue((String) newValue);
+            listPref.setSummary(listPref.getEntries()[idx]);
         } else if (KEY_PRE_ALARM_NOTIFICATION_TIME.equals(pref.getKey())) {
             final ListPreference listPref = (ListPreference) pref;
             final int idx = listPref.findIndexOfValue((String) newValue);
@@ -362,6 +382,14 @@ public class SettingsActivity extends PreferenceActivity
         listPref.setSummary(listPref.getEntry());
         listPref.setOnPreferenceChangeListener(this);
 
+        listPref = (ListPreference) findPreference(KEY_VOLUME_INCREASE_CURVE);
+        listPref.setSummary(listPref.getEntry());
+        listPref.setOnPreferenceChangeListener(this);
+
+        listPref = (ListPreference) findPreference(KEY_STOPWATCH_SYNC_POLICY);
+        listPref.setSummary(listPref.getEntry());
+        listPref.setOnPreferenceChangeListener(this);
+
         listPref = (ListPreference) findPreference(KEY_WEEK_START);
         listPref.setEntries(getWeekdays());
         listPref.setSummary(listPref.getEntry());
@@ -375,6 +403,10 @@ public class SettingsActivity extends PreferenceActivity
         listPref.setSummary(listPref.getEntry());
         listPref.setOnPreferenceChangeListener(this);
 
+        listPref = (ListPreference) findPreference(KEY_TIMER_COALESCE_WINDOW);
+        listPref.setSummary(listPref.getEntry());
+        listPref.setOnPreferenceChangeListener(this);
+
         mCustomTimerAlarm = (CheckBoxPreference) findPreference(KEY_TIMER_ALARM_CUSTOM);
 
         listPref = (ListPreference) findPreference(KEY_PRE_ALARM_NOTIFICATION_TIME);
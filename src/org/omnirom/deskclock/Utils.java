@@ -68,25 +68,22 @@ import android.widget.TextView;
 import org.omnirom.deskclock.alarms.AlarmConstants;
 import org.omnirom.deskclock.provider.Alarm;
 import org.omnirom.deskclock.provider.AlarmInstance;
-import org.omnirom.deskclock.stopwatch.Stopwatches;
+import org.omnirom.deskclock.stopwatch.LapStore;
+import org.omnirom.deskclock.stopwatch.StopwatchStateStore;
 import org.omnirom.deskclock.timer.Timers;
 import org.omnirom.deskclock.worldclock.CityObj;
 import org.omnirom.deskclock.worldclock.db.DbCities;
 import org.omnirom.deskclock.worldclock.db.DbCity;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringBufferInputStream;
-import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.text.Collator;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -138,7 +135,7 @@ public class Utils {
 
     public static final String M3U_HEADER = "#EXTM3U";
     public static final String M3U_ENTRY = "#EXTINF:";
-    private static final String STREAM_FILE_TAG = "STREAM_M3U";
+    static final String STREAM_FILE_TAG = "STREAM_M3U";
 
     private static final int HTTP_READ_TIMEOUT = 30000;
     private static final int HTTP_CONNECTION_TIMEOUT = 30000;
@@ -259,18 +256,9 @@ public class Utils {
     /**
      * Clears the persistent data of stopwatch (start time, state, laps, etc...).
      */
-    public static void clearSwSharedPref(SharedPreferences prefs) {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.remove(Stopwatches.PREF_START_TIME);
-        editor.remove(Stopwatches.PREF_ACCUM_TIME);
-        editor.remove(Stopwatches.PREF_STATE);
-        int lapNum = prefs.getInt(Stopwatches.PREF_LAP_NUM, Stopwatches.STOPWATCH_RESET);
-        for (int i = 0; i < lapNum; i++) {
-            String key = Stopwatches.PREF_LAP_TIME + Integer.toString(i);
-            editor.remove(key);
-        }
-        editor.remove(Stopwatches.PREF_LAP_NUM);
-        editor.apply();
+    public static void clearStopwatchState(Context context) {
+        StopwatchStateStore.getInstance(context).reset();
+        LapStore.getInstance(context).clear();
     }
 
     /**
@@ -1429,149 +1417,89 @@ public class Utils {
         List<Uri> files = new ArrayList<>();
 
         if (isStorageUri(uri)) {
-            String path = Uri.parse(uri).getPath();
-            File f = new File(path);
-
-            try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
-                reader.mark(1024);
-                String line = reader.readLine();
-                if (line != null) {
-                    boolean extM3U = false;
-                    if (line.equalsIgnoreCase(M3U_HEADER)) {
-                        extM3U = true;
-                    } else {
-                        reader.reset();
-                    }
-                    while ((line = reader.readLine()) != null) {
-                        if (TextUtils.isEmpty(line)) {
-                            continue;
-                        }
-                        String entryUriString = line;
-                        if (extM3U && line.startsWith(M3U_ENTRY)) {
-                            entryUriString = reader.readLine();
+            File f = new File(Uri.parse(uri).getPath());
+            PlaylistParser.Playlist playlist = readPlaylist(f, 0);
+            if (playlist != null) {
+                for (String entryUriString : playlist.entries) {
+                    Uri entryUri = Uri.parse(entryUriString);
+                    if (entryUri.getScheme() == null) {
+                        File file = new File(entryUriString);
+                        if (!file.isAbsolute()) {
+                            file = new File(f.getParent(), file.getPath());
                         }
-                        Uri entryUri = Uri.parse(entryUriString);
-                        if (entryUri.getScheme() == null) {
-                            File file = new File(entryUriString);
-                            if (!file.isAbsolute()) {
-                                file = new File(f.getParent(), file.getPath());
-                            }
-                            entryUri = Uri.fromFile(file);
-                        }
-                        files.add(entryUri);
-
+                        entryUri = Uri.fromFile(file);
                     }
+                    files.add(entryUri);
                 }
-            } catch (Exception e) {
             }
         }
         return files;
     }
 
-    public static List<String> parseM3UPlaylistFromMemory(String m3uContent) {
-        List<String> files = new ArrayList<>();
-
-        try {
-            BufferedReader reader = new BufferedReader(new StringReader(m3uContent));
-            reader.mark(1024);
-            String line = reader.readLine();
-            if (line != null) {
-                boolean extM3U = false;
-                if (line.equalsIgnoreCase(M3U_HEADER)) {
-                    extM3U = true;
-                } else {
-                    reader.reset();
-                }
-                while ((line = reader.readLine()) != null) {
-                    if (TextUtils.isEmpty(line)) {
-                        continue;
-                    }
-                    String entryUriString = line;
-                    if (extM3U && line.startsWith(M3U_ENTRY)) {
-                        entryUriString = reader.readLine();
-                    }
-                    files.add(entryUriString);
-                }
-            }
-        } catch (Exception e) {
+    /**
+     * Read label and entries of a stream playlist written by
+     * {@link #writeStreamM3UFile(File, String, String)} in one go.
+     *
+     * @return the playlist, null if uri is no stream playlist
+     */
+    public static PlaylistParser.Playlist readStreamM3UFile(String uri) {
+        if (!isStorageUri(uri)) {
+            return null;
         }
-        return files;
+        PlaylistParser.Playlist playlist = readPlaylist(new File(Uri.parse(uri).getPath()), 0);
+        return playlist != null && playlist.stream ? playlist : null;
     }
 
-    public static List<String> parsePLSPlaylistFromMemory(String plsContent) {
-        List<String> files = new ArrayList<>();
-
-        try {
-            BufferedReader reader = new BufferedReader(new StringReader(plsContent));
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                if (TextUtils.isEmpty(line)) {
-                    continue;
-                }
-                if (line.startsWith("File")) {
-                    int idx = line.indexOf("=");
-                    if (idx != -1) {
-                        String entryUriString = line.substring(idx + 1);
-                        files.add(entryUriString);
-                    }
-                }
-            }
-        } catch (Exception e) {
+    public static boolean isStreamM3UFile(String uri) {
+        if (!isStorageUri(uri)) {
+            return false;
         }
-        return files;
+        // The tag is written ahead of the first entry, no need to read on
+        PlaylistParser.Playlist playlist = readPlaylist(new File(Uri.parse(uri).getPath()), 1);
+        return playlist != null && playlist.stream;
     }
 
-    public static boolean isStreamM3UFile(String uri) {
-        if (isStorageUri(uri)) {
-            String path = Uri.parse(uri).getPath();
-            File f = new File(path);
-            try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
-                String line = null;
-                while ((line = reader.readLine()) != null) {
-                    if (line.contains(STREAM_FILE_TAG)) {
-                        return true;
-
-                    }
-                }
-            } catch (Exception e) {
-            }
+    public static String getStreamM3UName(String uri) {
+        if (!isStorageUri(uri)) {
+            return null;
         }
-        return false;
+        PlaylistParser.Playlist playlist = readPlaylist(new File(Uri.parse(uri).getPath()), 1);
+        return playlist != null && playlist.stream ? playlist.label : null;
     }
 
-    public static String getStreamM3UName(String uri) {
-        if (isStreamM3UFile(uri)) {
-            String path = Uri.parse(uri).getPath();
-            File f = new File(path);
-            try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
-                String line = null;
-                while ((line = reader.readLine()) != null) {
-                    if (line.contains(STREAM_FILE_TAG)) {
-                        return line.substring((M3U_ENTRY + STREAM_FILE_TAG + ":").length());
-                    }
-                }
-            } catch (Exception e) {
-            }
+    private static PlaylistParser.Playlist readPlaylist(File f, int maxEntries) {
+        if (!f.isFile()) {
+            return null;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(f);
+            return PlaylistParser.parse(is, maxEntries);
+        } catch (IOException e) {
+            LogUtils.e("Failed to read playlist " + f, e);
+            return null;
+        } finally {
+            closeQuietly(is);
         }
-        return null;
     }
 
     public static File writeStreamM3UFile(File dir, String label, String url) {
+        BufferedWriter bw = null;
         try {
             File f = File.createTempFile("stream", null, dir);
-            BufferedWriter bw = new BufferedWriter(new FileWriter(f));
+            bw = new BufferedWriter(new FileWriter(f));
             bw.write(M3U_HEADER);
             bw.newLine();
             bw.write(M3U_ENTRY + STREAM_FILE_TAG + ":" + label);
             bw.newLine();
             bw.write(url);
             bw.close();
+            bw = null;
             return f;
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            closeQuietly(bw);
         }
         return null;
     }
@@ -1599,41 +1527,45 @@ public class Utils {
         }
     }
 
-    public static String downloadUrlMemoryAsString(String url) {
+    /**
+     * Download a M3U or PLS playlist and parse it while it comes in.
+     *
+     * @return the playlist entries, null if the download failed
+     */
+    public static List<String> downloadPlaylist(String url) {
         HttpURLConnection urlConnection = null;
+        InputStream is = null;
         try {
             urlConnection = setupHttpRequest(url);
             if (urlConnection == null) {
                 return null;
             }
 
-            InputStream is = urlConnection.getInputStream();
-            ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
-            int byteInt;
-
-            while ((byteInt = is.read()) >= 0) {
-                byteArray.write(byteInt);
-            }
-
-            byte[] bytes = byteArray.toByteArray();
-            if (bytes == null) {
-                return null;
-            }
-            String responseBody = new String(bytes, StandardCharsets.UTF_8);
-
-            return responseBody;
+            is = urlConnection.getInputStream();
+            return PlaylistParser.parse(is, 0).entries;
         } catch (Exception e) {
             // Download failed for any number of reasons, timeouts, connection
             // drops, etc. Just log it in debugging mode.
             LogUtils.e("", e);
             return null;
         } finally {
+            closeQuietly(is);
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
         }
     }
 
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
     public static int getColorAttr(Context context, int attr) {
         TypedArray ta = context.obtainStyledAttributes(new int[]{attr});
         int colorAccent = ta.getColor(0, 0);
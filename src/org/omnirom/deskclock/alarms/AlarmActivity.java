@@ -58,6 +58,7 @@ import org.omnirom.deskclock.SettingsActivity;
 import org.omnirom.deskclock.Utils;
 import org.omnirom.deskclock.AlarmUtils;
 import org.omnirom.deskclock.provider.AlarmInstance;
+import org.omnirom.deskclock.provider.AlarmRepository;
 
 public class AlarmActivity extends Activity implements View.OnClickListener, View.OnTouchListener {
 
@@ -133,7 +134,7 @@ public class AlarmActivity extends Activity implements View.OnClickListener, Vie
         super.onCreate(savedInstanceState);
 
         mInstanceId = AlarmInstance.getId(getIntent().getData());
-        mAlarmInstance = AlarmInstance.getInstance(this.getContentResolver(), mInstanceId);
+        mAlarmInstance = AlarmRepository.getInstance(this).getInstance(mInstanceId);
         if (mAlarmInstance != null) {
             LogUtils.v(LOGTAG, "Displaying alarm for instance: " + mAlarmInstance);
         } else {
@@ -38,8 +38,6 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Message;
 import android.os.Vibrator;
 import android.preference.PreferenceManager;
 
@@ -57,19 +55,30 @@ public class AlarmKlaxon {
     // Volume suggested by media team for in-call alarms.
     private static final float IN_CALL_VOLUME = 0.125f;
 
+    // The fade in lasts one volume change interval per stream volume step above this
     private static final int INCREASING_VOLUME_START = 1;
-    private static final int INCREASING_VOLUME_DELTA = 1;
+    private static final int NO_SAVED_VOLUME = -1;
     public static final int OFFLINE_NOTIFICATION_ID = Integer.MAX_VALUE;
 
     private static boolean sStarted = false;
     private static AudioManager sAudioManager = null;
     private static MediaPlayer sMediaPlayer = null;
+    private static boolean sCurrentPrepared;
+    // Player preparing the song after the current one, see prepareNextSong
+    private static MediaPlayer sNextPlayer = null;
+    private static int sNextIndex;
+    private static boolean sNextPrepared;
+    // Playing the buffered start of the current stream, see StreamPrefetcher
+    private static boolean sPlayingCache;
+    // The buffered start played out before the live stream connected
+    private static boolean sWaitingForStream;
     private static boolean sPreAlarmMode = false;
     private static List<Uri> mSongs = new ArrayList<Uri>();
     private static Uri mCurrentTone;
     private static int sCurrentIndex;
-    private static int sCurrentVolume = INCREASING_VOLUME_START;
-    private static int sSavedVolume;
+    private static int sSavedVolume = NO_SAVED_VOLUME;
+    private static int sSavedVolumeStream;
+    private static VolumeRamp sVolumeRamp;
     private static int sMaxVolume;
     private static boolean sIncreasingVolume;
     private static boolean sRandomPlayback;
@@ -82,25 +91,15 @@ public class AlarmKlaxon {
     private static boolean sStreamMediaMode;
     private static boolean sPlayerStarted;
 
-    // Internal messages
-    private static final int INCREASING_VOLUME = 1001;
-
-    private static Handler sHandler = new Handler() {
+    private static final VolumeRamp.Listener sGainListener = new VolumeRamp.Listener() {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case INCREASING_VOLUME:
-                    if (sStarted) {
-                        sCurrentVolume += INCREASING_VOLUME_DELTA;
-                        if (sCurrentVolume <= sMaxVolume) {
-                            LogUtils.v("Increasing alarm volume to " + sCurrentVolume);
-                            sAudioManager.setStreamVolume(
-                                    getAudioStream(sContext), sCurrentVolume, 0);
-                            sHandler.sendEmptyMessageDelayed(INCREASING_VOLUME,
-                                    sVolumeIncreaseSpeed);
-                        }
-                    }
-                    break;
+        public void onGainChanged(float gain) {
+            // Players that are still preparing get the gain once they are prepared
+            if (sCurrentPrepared) {
+                sMediaPlayer.setVolume(gain, gain);
+            }
+            if (sNextPrepared) {
+                sNextPlayer.setVolume(gain, gain);
             }
         }
     };
@@ -133,10 +132,11 @@ public class AlarmKlaxon {
             LogUtils.v("AlarmKlaxon.stop()");
 
             sStarted = false;
-            sHandler.removeMessages(INCREASING_VOLUME);
-            // reset to default from before
-            sAudioManager.setStreamVolume(getAudioStream(context),
-                    sSavedVolume, 0);
+            if (sVolumeRamp != null) {
+                sVolumeRamp.stop();
+                sVolumeRamp = null;
+            }
+            restoreStreamVolume();
             sAudioManager.abandonAudioFocus(null);
 
             // Stop audio playing
@@ -146,6 +146,9 @@ public class AlarmKlaxon {
                 sMediaPlayer.release();
                 sMediaPlayer = null;
             }
+            sCurrentPrepared = false;
+            releaseNextPlayer();
+            sPlayingCache = false;
             sPreAlarmMode = false;
 
             ((Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE))
@@ -176,8 +179,6 @@ public class AlarmKlaxon {
         final Context appContext = context.getApplicationContext();
         sAudioManager = (AudioManager) appContext
                 .getSystemService(Context.AUDIO_SERVICE);
-        // save current value
-        sSavedVolume = sAudioManager.getStreamVolume(getAudioStream(context));
         sIncreasingVolume = instance.getIncreasingVolume(sPreAlarmMode);
         sRandomPlayback = instance.getRandomMode(sPreAlarmMode);
         sFirstFile = true;
@@ -198,6 +199,7 @@ public class AlarmKlaxon {
         sPlayFallbackAlarm = false;
         sStreamMediaMode = false;
         sPlayerStarted = false;
+        sPlayingCache = false;
 
         sCurrentIndex = 0;
         if (sPreAlarmMode) {
@@ -208,57 +210,28 @@ public class AlarmKlaxon {
         if (alarmNoise != null && Utils.isSpotifyUri(alarmNoise.toString())) {
             alarmNoise = null;
         }
-        if (alarmNoise != null) {
-            if (Utils.isRandomUri(alarmNoise.toString())) {
-                sRandomMusicMode = true;
-                sRandomPlayback = true;
-                mSongs = Utils.getRandomMusicFiles(context, 50);
-                if (mSongs.size() != 0) {
-                    alarmNoise = mSongs.get(0);
+        if (PlaylistResolver.isPlaylist(alarmNoise)) {
+            PlaylistResolver.Playlist playlist =
+                    PlaylistResolver.get(context, instance, sPreAlarmMode);
+            if (playlist == null) {
+                LogUtils.v("Resolving songs of " + alarmNoise);
+                playlist = PlaylistResolver.resolve(context, alarmNoise, sRandomPlayback);
+            }
+            mSongs = playlist.songs;
+            if (mSongs.size() != 0) {
+                alarmNoise = mSongs.get(0);
+                if (playlist.mode == PlaylistResolver.MODE_RANDOM_MUSIC) {
+                    sRandomMusicMode = true;
+                    sRandomPlayback = true;
                 } else {
-                    // fallback
-                    alarmNoise = null;
-                    sRandomMusicMode = false;
-                }
-            } else if (Utils.isLocalPlaylistType(alarmNoise.toString())) {
-                // can fail if no external storage permissions
-                try {
                     sLocalMediaMode = true;
-                    mSongs.clear();
-                    if (Utils.isLocalAlbumUri(alarmNoise.toString())) {
-                        collectAlbumSongs(context, alarmNoise);
-                    }
-                    if (Utils.isLocalArtistUri(alarmNoise.toString())) {
-                        collectArtistSongs(context, alarmNoise);
-                    }
-                    if (Utils.isStorageUri(alarmNoise.toString())) {
-                        if (Utils.isStreamM3UFile(alarmNoise.toString())) {
-                            // dont check for network right away cause device might need
-                            // a little bit after waking up - so rely on tiemout of media player
-                            collectM3UFiles(alarmNoise);
-                            sStreamMediaMode = true;
-                        } else {
-                            collectFiles(context, alarmNoise);
-                        }
-                    }
-                    if (Utils.isLocalPlaylistUri(alarmNoise.toString())) {
-                        collectPlaylistSongs(context, alarmNoise);
-                    }
-                    if (mSongs.size() != 0) {
-                        alarmNoise = mSongs.get(0);
-                    } else {
-                        // fallback
-                        alarmNoise = null;
-                        sLocalMediaMode = false;
-                        sStreamMediaMode = false;
-                    }
-                } catch (Exception ex) {
-                    LogUtils.e("Error accessing media contents", ex);
-                    // fallback
-                    alarmNoise = null;
-                    sLocalMediaMode = false;
-                    sStreamMediaMode = false;
+                    // dont check for network right away cause device might need
+                    // a little bit after waking up - so rely on tiemout of media player
+                    sStreamMediaMode = playlist.mode == PlaylistResolver.MODE_STREAM;
                 }
+            } else {
+                // fallback
+                alarmNoise = null;
             }
         }
         if (alarmNoise == null) {
@@ -282,7 +255,17 @@ public class AlarmKlaxon {
         }
 
         if (playSound) {
-            playAlarm(context, alarmNoise);
+            File cache = sStreamMediaMode
+                    ? StreamPrefetcher.takeCache(context, instance, sPreAlarmMode, alarmNoise)
+                    : null;
+            if (cache != null) {
+                // The live stream takes over once connected, see prepareNextSong
+                LogUtils.v("Starting stream from " + cache);
+                sPlayingCache = true;
+                playAlarm(context, Uri.fromFile(cache));
+            } else {
+                playAlarm(context, alarmNoise);
+            }
         }
         if (vibrate) {
             Vibrator vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
@@ -299,33 +282,28 @@ public class AlarmKlaxon {
 
     private static void playAlarm(final Context context, final Uri alarmNoise) {
         LogUtils.v("playAlarm");
+        cancelNextSong();
+        sCurrentPrepared = false;
         if (sMediaPlayer != null) {
+            // Recycle the player of the last song
             sMediaPlayer.reset();
+        } else {
+            sMediaPlayer = new MediaPlayer();
         }
-        sMediaPlayer = new MediaPlayer();
-        sMediaPlayer.setOnErrorListener(new OnErrorListener() {
-            @Override
-            public boolean onError(MediaPlayer mp, int what, int extra) {
-                LogUtils.e("Error playing " + alarmNoise);
-                if (sLocalMediaMode || sRandomMusicMode) {
-                    LogUtils.e("Skipping file");
-                    mSongs.remove(alarmNoise);
-                    nextSong(context);
-                } else {
+        if (isMultiSongMode()) {
+            sMediaPlayer.setOnErrorListener(sSongErrorListener);
+            sMediaPlayer.setOnCompletionListener(sSongCompletionListener);
+        } else {
+            sMediaPlayer.setOnErrorListener(new OnErrorListener() {
+                @Override
+                public boolean onError(MediaPlayer mp, int what, int extra) {
+                    LogUtils.e("Error playing " + alarmNoise);
                     LogUtils.e("playFallbackAlarm 1");
                     playFallbackAlarm(sContext);
-                }
-                return true;
-            }
-        });
-
-        if (sLocalMediaMode || sRandomMusicMode) {
-            sMediaPlayer.setOnCompletionListener(new OnCompletionListener() {
-                @Override
-                public void onCompletion(MediaPlayer mp) {
-                    nextSong(context);
+                    return true;
                 }
             });
+            sMediaPlayer.setOnCompletionListener(null);
         }
 
         try {
@@ -340,10 +318,9 @@ public class AlarmKlaxon {
             startAlarm(context, sMediaPlayer);
         } catch (Exception ex) {
             LogUtils.e("Error playing " + alarmNoise, ex);
-            if (sLocalMediaMode || sRandomMusicMode) {
+            if (isMultiSongMode()) {
                 LogUtils.e("Skipping file");
-                mSongs.remove(alarmNoise);
-                nextSong(context);
+                skipCurrentSong(context);
             } else {
                 LogUtils.e("Using the fallback ringtone 2");
                 // The alarmNoise may be on the sd card which could be busy right
@@ -361,6 +338,209 @@ public class AlarmKlaxon {
         }
     }
 
+    private static boolean isMultiSongMode() {
+        return sLocalMediaMode || sRandomMusicMode;
+    }
+
+    /**
+     * Songs are handed over gaplessly, except for streams which would have to be
+     * buffered twice at the same time. The buffered start of a stream is handed
+     * over to the live stream the same way.
+     */
+    private static boolean isGaplessMode() {
+        return isMultiSongMode() && (!sStreamMediaMode || sPlayingCache);
+    }
+
+    private static final OnCompletionListener sSongCompletionListener =
+            new OnCompletionListener() {
+        @Override
+        public void onCompletion(MediaPlayer mp) {
+            if (mp != sMediaPlayer) {
+                return;
+            }
+            if (sNextPrepared) {
+                // The next player was already started by the current one
+                LogUtils.v("Handed over to next song");
+                swapToNextPlayer();
+                prepareNextSong(sContext);
+            } else if (sPlayingCache) {
+                // The live stream takes over as soon as it is connected
+                LogUtils.v("Waiting for stream");
+                sWaitingForStream = true;
+            } else {
+                nextSong(sContext);
+            }
+        }
+    };
+
+    private static final OnErrorListener sSongErrorListener = new OnErrorListener() {
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            if (mp == sNextPlayer) {
+                // Found out before it had to play, the current song goes on
+                LogUtils.e("Error preparing " + mSongs.get(sNextIndex) + ", skipping file");
+                skipNextSong(sContext);
+            } else if (mp == sMediaPlayer) {
+                LogUtils.e("Error playing " + mCurrentTone + ", skipping file");
+                skipCurrentSong(sContext);
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Drop the current song since it can not be played and go on with the next one.
+     */
+    private static void skipCurrentSong(Context context) {
+        if (sPlayingCache) {
+            // Only the buffered start is broken, the stream itself is kept
+            sPlayingCache = false;
+        } else if (sCurrentIndex < mSongs.size()) {
+            mSongs.remove(sCurrentIndex);
+            if (sNextIndex > sCurrentIndex) {
+                sNextIndex--;
+            }
+        }
+        if (sNextPrepared) {
+            swapToNextPlayer();
+            sMediaPlayer.start();
+            prepareNextSong(context);
+        } else {
+            sCurrentIndex--;
+            nextSong(context);
+        }
+    }
+
+    /**
+     * Make the prepared next player the current one and keep the old one for the
+     * song after.
+     */
+    private static void swapToNextPlayer() {
+        MediaPlayer finished = sMediaPlayer;
+        sMediaPlayer = sNextPlayer;
+        sNextPlayer = finished;
+        sNextPlayer.reset();
+        sNextPrepared = false;
+        sCurrentPrepared = true;
+        sPlayingCache = false;
+        sWaitingForStream = false;
+        sCurrentIndex = sNextIndex;
+        mCurrentTone = mSongs.get(sCurrentIndex);
+    }
+
+    /**
+     * Prepare the song after the current one on the second player while the current
+     * one plays, and let the current player start it the moment it completes. Songs
+     * that fail to prepare are dropped here, before it is their turn.
+     */
+    private static void prepareNextSong(final Context context) {
+        if (sNextPrepared) {
+            // The lined up player is about to be replaced
+            sMediaPlayer.setNextMediaPlayer(null);
+        }
+        sNextPrepared = false;
+        if (!sStarted || !isGaplessMode()) {
+            return;
+        }
+
+        if (sPlayingCache) {
+            // Connect to the live stream of the buffered one
+            sNextIndex = sCurrentIndex;
+        } else {
+            if (mSongs.size() < 2) {
+                return;
+            }
+            sNextIndex = sCurrentIndex + 1;
+            if (sNextIndex >= mSongs.size()) {
+                sNextIndex = 0;
+                if (sRandomPlayback) {
+                    Uri current = mSongs.get(sCurrentIndex);
+                    Collections.shuffle(mSongs);
+                    sCurrentIndex = mSongs.indexOf(current);
+                    if (sCurrentIndex == 0) {
+                        sNextIndex = 1;
+                    }
+                }
+            }
+        }
+
+        if (sNextPlayer == null) {
+            sNextPlayer = new MediaPlayer();
+        } else {
+            sNextPlayer.reset();
+        }
+        final MediaPlayer player = sNextPlayer;
+        final Uri song = mSongs.get(sNextIndex);
+        player.setOnErrorListener(sSongErrorListener);
+        player.setOnCompletionListener(sSongCompletionListener);
+        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                if (mp != sNextPlayer || !sStarted) {
+                    return;
+                }
+                LogUtils.v("Prepared next song " + song);
+                sNextPrepared = true;
+                float gain = getGain();
+                mp.setVolume(gain, gain);
+                if (sWaitingForStream) {
+                    swapToNextPlayer();
+                    sMediaPlayer.start();
+                } else {
+                    sMediaPlayer.setNextMediaPlayer(mp);
+                }
+            }
+        });
+        try {
+            player.setAudioStreamType(getAudioStream(context));
+            player.setDataSource(context, song);
+            player.prepareAsync();
+        } catch (Exception ex) {
+            LogUtils.e("Error preparing " + song + ", skipping file", ex);
+            skipNextSong(context);
+        }
+    }
+
+    private static void skipNextSong(Context context) {
+        if (sPlayingCache) {
+            // Only the live stream failed to connect, try again after the buffered part
+            sPlayingCache = false;
+            boolean waiting = sWaitingForStream;
+            cancelNextSong();
+            if (waiting) {
+                nextSong(context);
+            }
+            return;
+        }
+        mSongs.remove(sNextIndex);
+        if (sNextIndex < sCurrentIndex) {
+            sCurrentIndex--;
+        }
+        prepareNextSong(context);
+    }
+
+    /**
+     * Stop preparing the next song, when the current one is replaced before the
+     * next one could take over.
+     */
+    private static void cancelNextSong() {
+        if (sNextPlayer != null) {
+            sNextPlayer.reset();
+        }
+        sNextPrepared = false;
+        sWaitingForStream = false;
+    }
+
+    private static void releaseNextPlayer() {
+        if (sNextPlayer != null) {
+            sNextPlayer.reset();
+            sNextPlayer.release();
+            sNextPlayer = null;
+        }
+        sNextPrepared = false;
+        sWaitingForStream = false;
+    }
+
     // Do the common stuff when starting the alarm.
     private static void startAlarm(final Context context, MediaPlayer player) throws IOException {
         LogUtils.v("startAlarm");
@@ -380,18 +560,19 @@ public class AlarmKlaxon {
                 LogUtils.v("onPrepared");
 
                 sPlayerStarted = true;
+                sCurrentPrepared = true;
                 // only start volume handling on the first invocation
                 if (sFirstFile) {
+                    applyStreamVolume(context);
                     if (sIncreasingVolume) {
                         startVolumeIncrease(context);
-                    } else {
-                        sAudioManager.setStreamVolume(getAudioStream(context),
-                                sMaxVolume, 0);
-                        LogUtils.v("Alarm volume " + sMaxVolume);
                     }
                     sFirstFile = false;
                 }
+                float gain = getGain();
+                player.setVolume(gain, gain);
                 player.start();
+                prepareNextSong(context);
             }
         });
         player.prepareAsync();
@@ -407,6 +588,13 @@ public class AlarmKlaxon {
         }
     }
 
+    private static int getVolumeCurve(Context context) {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String curve = prefs.getString(SettingsActivity.KEY_VOLUME_INCREASE_CURVE,
+                String.valueOf(VolumeRamp.CURVE_EXPONENTIAL));
+        return Integer.decode(curve).intValue();
+    }
+
     private static long getVolumeChangeDelay(Context context) {
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         String speed = prefs.getString(SettingsActivity.KEY_VOLUME_INCREASE_SPEED, "5");
@@ -469,90 +657,6 @@ public class AlarmKlaxon {
         playAlarm(context, song);
     }
 
-    private static void collectFiles(Context context, Uri folderUri) {
-        mSongs.clear();
-
-        File folder = new File(folderUri.getPath());
-        if (folder.exists() && folder.isDirectory()) {
-            for (final File fileEntry : folder.listFiles()) {
-                if (!fileEntry.isDirectory()) {
-                    if (Utils.isValidAudioFile(fileEntry.getName())) {
-                        mSongs.add(Uri.fromFile(fileEntry));
-                    }
-                } else {
-                    collectSub(context, fileEntry);
-                }
-            }
-            if (sRandomPlayback) {
-                Collections.shuffle(mSongs);
-            } else {
-                Collections.sort(mSongs);
-            }
-        }
-    }
-
-    private static void collectSub(Context context, File folder) {
-        if (folder.exists() && folder.isDirectory()) {
-            for (final File fileEntry : folder.listFiles()) {
-                if (!fileEntry.isDirectory()) {
-                    if (Utils.isValidAudioFile(fileEntry.getName())) {
-                        mSongs.add(Uri.fromFile(fileEntry));
-                    }
-                } else {
-                    collectSub(context, fileEntry);
-                }
-            }
-        }
-    }
-
-    private static void collectAlbumSongs(Context context, Uri albumUri) {
-        mSongs.clear();
-        mSongs = Utils.getAlbumSongs(context, albumUri);
-        if (sRandomPlayback) {
-            Collections.shuffle(mSongs);
-        }
-    }
-
-    private static void collectArtistSongs(Context context, Uri artistUri) {
-        mSongs.clear();
-        mSongs = Utils.getArtistSongs(context, artistUri);
-        if (sRandomPlayback) {
-            Collections.shuffle(mSongs);
-        }
-    }
-
-    private static void collectPlaylistSongs(Context context, Uri playlistUri) {
-        mSongs.clear();
-        mSongs = Utils.getPlaylistSongs(context, playlistUri);
-        if (sRandomPlayback) {
-            Collections.shuffle(mSongs);
-        }
-    }
-
-    private static void collectM3UFiles(Uri m3UFileUri) {
-        List<Uri> files = Utils.parseM3UPlaylist(m3UFileUri.toString());
-        mSongs.clear();
-
-        for (final Uri fileEntry : files) {
-            if (fileEntry.getScheme() == "file") {
-                File f = new File(fileEntry.getPath());
-                if (f.exists()) {
-                    if (Utils.isValidAudioFile(f.getName())) {
-                        mSongs.add(fileEntry);
-                    }
-                }
-            } else {
-                mSongs.add(fileEntry);
-            }
-        }
-
-        if (sRandomPlayback) {
-            Collections.shuffle(mSongs);
-        } else {
-            Collections.sort(mSongs);
-        }
-    }
-
     private static boolean isNetworkConnectivity(Context context) {
         ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
@@ -579,6 +683,8 @@ public class AlarmKlaxon {
 
     private static void playFallbackAlarm(final Context context) {
         if (!sPlayFallbackAlarm) {
+            releaseNextPlayer();
+            sPlayingCache = false;
             sRandomMusicMode = false;
             sLocalMediaMode = false;
             sStreamMediaMode = false;
@@ -588,15 +694,41 @@ public class AlarmKlaxon {
     }
 
     private static void startVolumeIncrease(final Context context) {
-        sCurrentVolume = INCREASING_VOLUME_START;
-        sAudioManager.setStreamVolume(getAudioStream(context),
-                sCurrentVolume, 0);
-        LogUtils.v("Starting alarm volume " + sCurrentVolume
-                + " max volume " + sMaxVolume);
+        long duration = Math.max(1, sMaxVolume - INCREASING_VOLUME_START)
+                * sVolumeIncreaseSpeed;
+        int curve = getVolumeCurve(context);
+        LogUtils.v("Fading in over " + duration + "ms with curve " + curve);
+        sVolumeRamp = new VolumeRamp(curve, duration, sGainListener);
+        sVolumeRamp.start();
+    }
+
+    private static float getGain() {
+        return sVolumeRamp != null ? sVolumeRamp.getGain() : 1f;
+    }
 
-        if (sCurrentVolume < sMaxVolume) {
-            sHandler.sendEmptyMessageDelayed(INCREASING_VOLUME,
-                    sVolumeIncreaseSpeed);
+    /**
+     * Bring the stream to the volume set for the alarm, once before it starts. The
+     * fade in only scales the gain of the players below that.
+     */
+    private static void applyStreamVolume(Context context) {
+        int stream = getAudioStream(context);
+        int volume = sAudioManager.getStreamVolume(stream);
+        if (volume != sMaxVolume) {
+            sSavedVolume = volume;
+            sSavedVolumeStream = stream;
+            sAudioManager.setStreamVolume(stream, sMaxVolume, 0);
+        }
+        LogUtils.v("Alarm volume " + sMaxVolume);
+    }
+
+    private static void restoreStreamVolume() {
+        if (sSavedVolume == NO_SAVED_VOLUME) {
+            return;
+        }
+        // Keep whatever the user changed it to while the alarm played
+        if (sAudioManager.getStreamVolume(sSavedVolumeStream) == sMaxVolume) {
+            sAudioManager.setStreamVolume(sSavedVolumeStream, sSavedVolume, 0);
         }
+        sSavedVolume = NO_SAVED_VOLUME;
     }
 }
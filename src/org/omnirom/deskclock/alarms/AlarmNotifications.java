@@ -32,7 +32,6 @@ import org.omnirom.deskclock.Utils;
 import org.omnirom.deskclock.provider.Alarm;
 import org.omnirom.deskclock.provider.AlarmInstance;
 
-import java.util.Calendar;
 
 public final class AlarmNotifications {
 
@@ -48,7 +47,7 @@ public final class AlarmNotifications {
                 AlarmStateManager.createIndicatorIntent(context), flags);
 
         if (instance != null) {
-            long alarmTime = instance.getAlarmTime().getTimeInMillis();
+            long alarmTime = instance.getAlarmTimeMillis();
 
             // Create an intent that can be used to show or edit details of the next alarm.
             PendingIntent viewIntent = PendingIntent.getActivity(context, instance.hashCode(),
@@ -138,7 +137,7 @@ public final class AlarmNotifications {
         nm.notify(instance.hashCode(), notification.build());
     }
 
-    public static void showSnoozeNotification(Context context, AlarmInstance instance, Calendar snoozeEndTime) {
+    public static void showSnoozeNotification(Context context, AlarmInstance instance, long snoozeEndTime) {
         LogUtils.v("Displaying snoozed notification for alarm instance: " + instance.mId);
         NotificationManager nm = (NotificationManager)
                 context.getSystemService(Context.NOTIFICATION_SERVICE);
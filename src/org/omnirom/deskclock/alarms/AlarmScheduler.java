@@ -0,0 +1,242 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.alarms;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.LongSparseArray;
+
+import org.omnirom.deskclock.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Queue of the pending alarm instance state changes, ordered by time.
+ *
+ * Only the earliest change is armed with {@link AlarmManager}, through a single
+ * {@link PendingIntent}. When it fires all changes that are due by then are
+ * drained in one pass and the next one gets armed. Like the per instance
+ * intents before, every instance has at most one pending change and scheduling
+ * a new one replaces it.
+ *
+ * The queue is mirrored to its own shared preferences so it survives the
+ * process being killed between wakeups. Changes made between
+ * {@link #beginBatch()} and {@link #endBatch(Context)} are written and armed
+ * once, at the end of the batch.
+ */
+final class AlarmScheduler {
+    private static final String LOGTAG = AlarmScheduler.class.getSimpleName();
+
+    // Intent action of the wakeup armed with AlarmManager
+    static final String WAKEUP_ACTION = "scheduler_wakeup";
+
+    private static final String PREFS_NAME = "alarm_scheduler";
+
+    // Armed time when nothing or something unknown is armed
+    private static final long NOT_ARMED = -1;
+
+    /**
+     * A pending state change of an instance.
+     */
+    static final class Transition implements Comparable<Transition> {
+        final long instanceId;
+        final long time;
+        final int state;
+
+        // Global intent id at scheduling time, see AlarmStateManager#getGlobalIntentId
+        final int globalId;
+
+        Transition(long instanceId, long time, int state, int globalId) {
+            this.instanceId = instanceId;
+            this.time = time;
+            this.state = state;
+            this.globalId = globalId;
+        }
+
+        @Override
+        public int compareTo(Transition other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return instanceId < other.instanceId ? -1 : (instanceId == other.instanceId ? 0 : 1);
+        }
+
+        private String encode() {
+            return time + "," + state + "," + globalId;
+        }
+
+        private static Transition decode(long instanceId, String value) {
+            String[] parts = value.split(",");
+            return new Transition(instanceId, Long.parseLong(parts[0]),
+                    Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        }
+
+        @Override
+        public String toString() {
+            return "Transition{instanceId=" + instanceId + ", time=" + time
+                    + ", state=" + state + '}';
+        }
+    }
+
+    private static PriorityQueue<Transition> sQueue;
+    private static LongSparseArray<Transition> sTransitions;
+    private static long sArmedTime = NOT_ARMED;
+
+    // Open batches and the changes not written yet
+    private static int sBatchDepth;
+    private static SharedPreferences.Editor sEditor;
+
+    private AlarmScheduler() {}
+
+    /**
+     * Hold back writing and arming the queue until {@link #endBatch(Context)}.
+     * Batches may nest, the outermost one writes the changes.
+     */
+    static synchronized void beginBatch() {
+        sBatchDepth++;
+    }
+
+    /**
+     * Write the changes made since {@link #beginBatch()} and arm the next one.
+     */
+    static synchronized void endBatch(Context context) {
+        sBatchDepth--;
+        commit(context);
+    }
+
+    /**
+     * Schedule a state change for an instance, replacing any pending one.
+     */
+    static synchronized void schedule(Context context, long instanceId, long time, int state,
+            int globalId) {
+        load(context);
+        Transition transition = new Transition(instanceId, time, state, globalId);
+        Transition previous = sTransitions.get(instanceId);
+        if (previous != null) {
+            sQueue.remove(previous);
+        }
+        sTransitions.put(instanceId, transition);
+        sQueue.add(transition);
+        edit(context).putString(String.valueOf(instanceId), transition.encode());
+        commit(context);
+    }
+
+    /**
+     * Drop the pending state change of an instance, if any.
+     */
+    static synchronized void cancel(Context context, long instanceId) {
+        load(context);
+        Transition previous = sTransitions.get(instanceId);
+        if (previous == null) {
+            return;
+        }
+        sQueue.remove(previous);
+        sTransitions.remove(instanceId);
+        edit(context).remove(String.valueOf(instanceId));
+        commit(context);
+    }
+
+    /**
+     * Remove all state changes due at the given time and arm the next one.
+     *
+     * @return the due changes in the order they were scheduled to happen
+     */
+    static synchronized List<Transition> drainDue(Context context, long now) {
+        load(context);
+        List<Transition> due = new ArrayList<Transition>();
+        while (!sQueue.isEmpty() && sQueue.peek().time <= now) {
+            Transition transition = sQueue.poll();
+            sTransitions.remove(transition.instanceId);
+            edit(context).remove(String.valueOf(transition.instanceId));
+            due.add(transition);
+        }
+
+        // The armed wakeup has been consumed
+        sArmedTime = NOT_ARMED;
+        commit(context);
+        LogUtils.v(LOGTAG, "Drained " + due.size() + " due transitions, "
+                + sQueue.size() + " pending");
+        return due;
+    }
+
+    private static void load(Context context) {
+        if (sQueue != null) {
+            return;
+        }
+        sQueue = new PriorityQueue<Transition>();
+        sTransitions = new LongSparseArray<Transition>();
+        for (Map.Entry<String, ?> entry : getPrefs(context).getAll().entrySet()) {
+            try {
+                long instanceId = Long.parseLong(entry.getKey());
+                Transition transition = Transition.decode(instanceId, (String) entry.getValue());
+                sTransitions.put(instanceId, transition);
+                sQueue.add(transition);
+            } catch (RuntimeException e) {
+                LogUtils.e(LOGTAG, "Dropping invalid transition " + entry, e);
+            }
+        }
+    }
+
+    private static SharedPreferences.Editor edit(Context context) {
+        if (sEditor == null) {
+            sEditor = getPrefs(context).edit();
+        }
+        return sEditor;
+    }
+
+    // Write the queue and arm its earliest change, unless a batch is open
+    private static void commit(Context context) {
+        if (sBatchDepth > 0) {
+            return;
+        }
+        if (sEditor != null) {
+            sEditor.apply();
+            sEditor = null;
+        }
+        arm(context);
+    }
+
+    private static void arm(Context context) {
+        Transition next = sQueue.peek();
+        long time = next == null ? NOT_ARMED : next.time;
+        if (time == sArmedTime) {
+            return;
+        }
+
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0,
+                new Intent(context, AlarmStateManager.class).setAction(WAKEUP_ACTION),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        if (next == null) {
+            am.cancel(pendingIntent);
+        } else {
+            am.setExact(AlarmManager.RTC_WAKEUP, time, pendingIntent);
+        }
+        sArmedTime = time;
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
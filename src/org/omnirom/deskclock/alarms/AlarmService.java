@@ -18,7 +18,6 @@ package org.omnirom.deskclock.alarms;
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
@@ -26,9 +25,14 @@ import android.os.IBinder;
 
 import org.omnirom.deskclock.AlarmAlertWakeLock;
 import org.omnirom.deskclock.AlarmUtils;
+import org.omnirom.deskclock.AsyncExecutor;
 import org.omnirom.deskclock.LogUtils;
 import org.omnirom.deskclock.Utils;
 import org.omnirom.deskclock.provider.AlarmInstance;
+import org.omnirom.deskclock.provider.AlarmRepository;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 /**
  * This service is in charge of starting/stoping the alarm. It will bring up and manage the
@@ -76,8 +80,7 @@ public class AlarmService extends Service {
 
         long instanceId = AlarmInstance.getId(intent.getData());
         if (AlarmConstants.START_ALARM_ACTION.equals(intent.getAction())) {
-            ContentResolver cr = this.getContentResolver();
-            AlarmInstance instance = AlarmInstance.getInstance(cr, instanceId);
+            AlarmInstance instance = AlarmRepository.getInstance(this).getInstance(instanceId);
             if (instance == null) {
                 LogUtils.e("No instance found to start alarm: " + instanceId);
                 if (mCurrentAlarm != null) {
@@ -131,6 +134,12 @@ public class AlarmService extends Service {
         return null;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("AlarmService: currentAlarm=" + (mCurrentAlarm != null ? mCurrentAlarm.mId : "none"));
+        AsyncExecutor.dump(pw);
+    }
+
     private Notification showAlarmNotification(Context context, AlarmInstance instance) {
         if (instance.mAlarmState == AlarmInstance.PRE_ALARM_STATE) {
             LogUtils.v("Displaying pre-alarm notification for alarm instance: " + instance.mId);
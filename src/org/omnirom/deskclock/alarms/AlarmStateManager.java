@@ -15,32 +15,36 @@
  */
 package org.omnirom.deskclock.alarms;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.PowerManager;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
+import android.util.LongSparseArray;
 import android.widget.Toast;
 
 import org.omnirom.deskclock.AlarmAlertWakeLock;
 import org.omnirom.deskclock.AlarmClockFragment;
 import org.omnirom.deskclock.AlarmPluginFactory;
 import org.omnirom.deskclock.AlarmUtils;
-import org.omnirom.deskclock.AsyncHandler;
+import org.omnirom.deskclock.AsyncExecutor;
 import org.omnirom.deskclock.DeskClock;
 import org.omnirom.deskclock.LogUtils;
 import org.omnirom.deskclock.SettingsActivity;
 import org.omnirom.deskclock.Utils;
 import org.omnirom.deskclock.provider.Alarm;
 import org.omnirom.deskclock.provider.AlarmInstance;
+import org.omnirom.deskclock.provider.AlarmRepository;
+import org.omnirom.deskclock.provider.ClockContract;
 
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -126,9 +130,6 @@ public final class AlarmStateManager extends BroadcastReceiver {
     public static final String ALARM_SNOOZE_TAG = "SNOOZE_TAG";
     public static final String ALARM_DELETE_TAG = "DELETE_TAG";
 
-    // Intent category tag used when schedule state change intents in alarm manager.
-    private static final String ALARM_MANAGER_TAG = "ALARM_MANAGER";
-
     // Buffer time in seconds to fire alarm instead of marking it missed.
     public static final int ALARM_FIRE_BUFFER = 15;
 
@@ -137,8 +138,27 @@ public final class AlarmStateManager extends BroadcastReceiver {
 
     private static int sSnoozeCount = 0;
 
+    // Coalescing key of the pending next alarm update
+    private static final String UPDATE_NEXT_ALARM_KEY = "update_next_alarm";
+
     private static SimpleDateFormat sdf = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
 
+    /**
+     * Database changes and service starts collected while re-registering all instances in
+     * {@link #fixAlarmInstances}. Parent alarms are loaded once up front so the state machine
+     * can read and modify them in memory, everything else is applied in one transaction.
+     */
+    private static final class InstanceBatch {
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        final LongSparseArray<Alarm> alarms = new LongSparseArray<Alarm>();
+        final ArrayList<Intent> serviceIntents = new ArrayList<Intent>();
+    }
+
+    // Batch of the thread currently running fixAlarmInstances, if any
+    private static final ThreadLocal<InstanceBatch> sInstanceBatch =
+            new ThreadLocal<InstanceBatch>();
+
     public static int getGlobalIntentId(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getInt(ALARM_GLOBAL_ID_EXTRA, -1);
@@ -154,18 +174,76 @@ public final class AlarmStateManager extends BroadcastReceiver {
      * Find and notify system what the next alarm that will fire. This is used
      * to update text in the system and widgets.
      *
+     * This happens asynchronously and any number of requests made before it ran
+     * result in a single update.
+     *
      * @param context application context
      */
     public static void updateNextAlarm(Context context) {
-        AlarmInstance nextAlarm = null;
-        ContentResolver cr = context.getContentResolver();
-        String activeAlarmQuery = AlarmInstance.ALARM_STATE + "<" + AlarmInstance.PRE_ALARM_STATE;
-        for (AlarmInstance instance : AlarmInstance.getInstances(cr, activeAlarmQuery)) {
-            if (nextAlarm == null || instance.getAlarmTime().before(nextAlarm.getAlarmTime())) {
-                nextAlarm = instance;
-            }
+        if (sInstanceBatch.get() != null) {
+            // fixAlarmInstances will update it once the batch has been applied
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        AsyncExecutor.postCoalesced(AsyncExecutor.PRIORITY_DEFAULT, UPDATE_NEXT_ALARM_KEY,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        AlarmInstance nextAlarm =
+                                AlarmRepository.getInstance(appContext).getNextActiveInstance();
+                        AlarmNotifications.registerNextAlarmWithAlarmManager(appContext,
+                                nextAlarm);
+                    }
+                });
+    }
+
+    private static Alarm readAlarm(Context context, long alarmId) {
+        InstanceBatch batch = sInstanceBatch.get();
+        if (batch != null) {
+            return batch.alarms.get(alarmId);
+        }
+        return AlarmRepository.getInstance(context).getAlarm(alarmId);
+    }
+
+    private static void writeAlarm(Context context, Alarm alarm) {
+        InstanceBatch batch = sInstanceBatch.get();
+        if (batch != null) {
+            batch.operations.add(ContentProviderOperation.newUpdate(Alarm.getUri(alarm.id))
+                    .withValues(Alarm.createContentValues(alarm)).build());
+        } else {
+            AlarmRepository.getInstance(context).updateAlarm(alarm);
+        }
+    }
+
+    private static void removeAlarm(Context context, long alarmId) {
+        InstanceBatch batch = sInstanceBatch.get();
+        if (batch != null) {
+            batch.alarms.remove(alarmId);
+            batch.operations.add(ContentProviderOperation.newDelete(Alarm.getUri(alarmId)).build());
+        } else {
+            AlarmRepository.getInstance(context).deleteAlarm(alarmId);
+        }
+    }
+
+    private static void writeInstance(Context context, AlarmInstance instance) {
+        InstanceBatch batch = sInstanceBatch.get();
+        if (batch != null) {
+            batch.operations.add(ContentProviderOperation.newUpdate(
+                    AlarmInstance.getUri(instance.mId))
+                    .withValues(AlarmInstance.createContentValues(instance)).build());
+        } else {
+            AlarmRepository.getInstance(context).updateInstance(instance);
+        }
+    }
+
+    private static void removeInstance(Context context, long instanceId) {
+        InstanceBatch batch = sInstanceBatch.get();
+        if (batch != null) {
+            batch.operations.add(ContentProviderOperation.newDelete(
+                    AlarmInstance.getUri(instanceId)).build());
+        } else {
+            AlarmRepository.getInstance(context).deleteInstance(instanceId);
         }
-        AlarmNotifications.registerNextAlarmWithAlarmManager(context, nextAlarm);
     }
 
     /**
@@ -176,8 +254,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
      * @param instance to update parent for
      */
     private static void updateParentAlarm(Context context, AlarmInstance instance) {
-        ContentResolver cr = context.getContentResolver();
-        Alarm alarm = Alarm.getAlarm(cr, instance.mAlarmId);
+        Alarm alarm = readAlarm(context, instance.mAlarmId);
         if (alarm == null) {
             LogUtils.e("Parent has been deleted with instance: " + instance.toString());
             return;
@@ -186,24 +263,22 @@ public final class AlarmStateManager extends BroadcastReceiver {
         if (!alarm.daysOfWeek.isRepeating()) {
             if (alarm.deleteAfterUse) {
                 LogUtils.i("Deleting parent alarm: " + alarm.id);
-                Alarm.deleteAlarm(cr, alarm.id);
+                removeAlarm(context, alarm.id);
             } else {
                 LogUtils.i("Disabling parent alarm: " + alarm.id);
                 alarm.enabled = false;
-                Alarm.updateAlarm(cr, alarm);
+                writeAlarm(context, alarm);
             }
         } else {
             // This is a optimization for really old alarm instances. This prevent us
             // from scheduling and dismissing alarms up to current time.
-            Calendar currentTime = Calendar.getInstance();
-            Calendar alarmTime = instance.getAlarmTime();
-            if (currentTime.after(alarmTime)) {
-                alarmTime = currentTime;
-            }
+            long alarmTime = Math.max(System.currentTimeMillis(), instance.getAlarmTimeMillis());
             AlarmInstance nextRepeatedInstance = alarm.createInstanceAfter(alarmTime);
-            LogUtils.i("Creating new instance for repeating alarm " + alarm.id + " at " +
-                    sdf.format(nextRepeatedInstance.getAlarmTime().getTime()));
-            AlarmInstance.addInstance(cr, nextRepeatedInstance);
+            if (LogUtils.isVerbose()) {
+                LogUtils.v("Creating new instance for repeating alarm " + alarm.id + " at " +
+                        sdf.format(nextRepeatedInstance.getAlarmTimeMillis()));
+            }
+            AlarmRepository.getInstance(context).addInstance(nextRepeatedInstance);
             registerInstance(context, nextRepeatedInstance, true);
         }
     }
@@ -230,43 +305,66 @@ public final class AlarmStateManager extends BroadcastReceiver {
     }
 
     /**
-     * Schedule alarm instance state changes with {@link AlarmManager}.
+     * Schedule alarm instance state changes with {@link AlarmScheduler}.
      *
      * @param context application context
      * @param time to trigger state change
      * @param instance to change state to
      * @param newState to change to
      */
-    private static void scheduleInstanceStateChange(Context context, Calendar time,
+    private static void scheduleInstanceStateChange(Context context, long timeInMillis,
             AlarmInstance instance, int newState) {
-        long timeInMillis = time.getTimeInMillis();
-        LogUtils.v("Scheduling state change " + newState + " to instance " + instance.mId +
-                " at " + sdf.format(timeInMillis));
-        Intent stateChangeIntent = createStateChangeIntent(context, ALARM_MANAGER_TAG, instance,
-                newState);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, instance.hashCode(),
-                stateChangeIntent, PendingIntent.FLAG_UPDATE_CURRENT);
-
-        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        am.setExact(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
+        if (LogUtils.isVerbose()) {
+            LogUtils.v("Scheduling state change " + newState + " to instance " + instance.mId +
+                    " at " + sdf.format(timeInMillis));
+        }
+        AlarmScheduler.schedule(context, instance.mId, timeInMillis, newState,
+                getGlobalIntentId(context));
     }
 
     /**
-     * Cancel all {@link AlarmManager} timers for instance.
+     * Cancel the scheduled state change of instance.
      *
      * @param context application context
-     * @param instance to disable all {@link AlarmManager} timers
+     * @param instance to cancel the state change for
      */
     private static void cancelScheduledInstance(Context context, AlarmInstance instance) {
         LogUtils.v("Canceling instance " + instance.mId + " timers");
+        AlarmScheduler.cancel(context, instance.mId);
+    }
 
-        // Create a PendingIntent that will match any one set for this instance
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, instance.hashCode(),
-                createStateChangeIntent(context, ALARM_MANAGER_TAG, instance, null),
-                PendingIntent.FLAG_UPDATE_CURRENT);
-
-        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        am.cancel(pendingIntent);
+    /**
+     * Apply all scheduled state changes that are due, called when the
+     * {@link AlarmScheduler} wakeup fires.
+     *
+     * @param context application context
+     */
+    private void applyDueStateChanges(Context context) {
+        int globalId = getGlobalIntentId(context);
+        AlarmRepository repository = AlarmRepository.getInstance(context);
+        // The changes scheduled by the new states are written once
+        AlarmScheduler.beginBatch();
+        try {
+            for (AlarmScheduler.Transition transition :
+                    AlarmScheduler.drainDue(context, System.currentTimeMillis())) {
+                if (transition.globalId != globalId) {
+                    LogUtils.i("Ignoring old " + transition + " GlobalId: " + globalId);
+                    continue;
+                }
+                AlarmInstance instance = repository.getInstance(transition.instanceId);
+                if (instance == null) {
+                    // Not a big deal, but it shouldn't happen
+                    LogUtils.e("Can not change state for unknown instance: "
+                            + transition.instanceId);
+                    continue;
+                }
+                LogUtils.v("AlarmStateManager scheduled change: " + instance + " to "
+                        + transition.state);
+                setAlarmState(context, instance, transition.state);
+            }
+        } finally {
+            AlarmScheduler.endBatch(context);
+        }
     }
 
 
@@ -282,13 +380,12 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.v("Setting silent state to instance " + instance.mId);
 
         // Update alarm in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.SILENT_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        writeInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         int highNotificationOffset = Utils.getHighNotificationOffset(context);
-        scheduleInstanceStateChange(context, instance.getHighNotificationTime(highNotificationOffset),
+        scheduleInstanceStateChange(context, instance.getHighNotificationTimeMillis(highNotificationOffset),
                 instance, AlarmInstance.HIGH_NOTIFICATION_STATE);
 
         /*AlarmNotifications.clearNotification(context, instance);
@@ -308,9 +405,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.v("Setting low notification state to instance " + instance.mId);
 
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.LOW_NOTIFICATION_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        writeInstance(context, instance);
 
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         if (prefs.getBoolean(SettingsActivity.KEY_PRE_ALARM_NOTIFICATION_SHOW, true)) {
@@ -318,7 +414,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
             AlarmNotifications.showLowPriorityNotification(context, instance);
         }
         int highNotificationOffset = Utils.getHighNotificationOffset(context);
-        scheduleInstanceStateChange(context, instance.getHighNotificationTime(highNotificationOffset),
+        scheduleInstanceStateChange(context, instance.getHighNotificationTimeMillis(highNotificationOffset),
                 instance, AlarmInstance.HIGH_NOTIFICATION_STATE);
     }*/
 
@@ -334,14 +430,13 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.v("Setting hide notification state to instance " + instance.mId);
 
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.HIDE_NOTIFICATION_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        writeInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.clearNotification(context, instance);
         int highNotificationOffset = Utils.getHighNotificationOffset(context);
-        scheduleInstanceStateChange(context, instance.getHighNotificationTime(highNotificationOffset),
+        scheduleInstanceStateChange(context, instance.getHighNotificationTimeMillis(highNotificationOffset),
                 instance, AlarmInstance.HIGH_NOTIFICATION_STATE);
     }*/
 
@@ -357,20 +452,22 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.v("Setting high notification state to instance " + instance.mId);
 
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.HIGH_NOTIFICATION_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        writeInstance(context, instance);
 
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         if (prefs.getBoolean(SettingsActivity.KEY_PRE_ALARM_NOTIFICATION_SHOW, true)) {
             // Setup instance notification
             AlarmNotifications.showHighPriorityNotification(context, instance);
         }
+        // Get the songs ready while there is time
+        PlaylistResolver.prepare(context, instance);
+        StreamPrefetcher.schedule(context, instance);
         if (instance.mPreAlarm) {
-            scheduleInstanceStateChange(context, instance.getPreAlarmTime(),
+            scheduleInstanceStateChange(context, instance.getPreAlarmTimeMillis(),
                     instance, AlarmInstance.PRE_ALARM_STATE);
         } else {
-            scheduleInstanceStateChange(context, instance.getAlarmTime(),
+            scheduleInstanceStateChange(context, instance.getAlarmTimeMillis(),
                     instance, AlarmInstance.FIRED_STATE);
         }
     }
@@ -388,9 +485,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
 
         int lastState = instance.mAlarmState;
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.FIRED_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        writeInstance(context, instance);
 
         // Start the alarm if required and schedule timeout timer for it
         if (lastState == AlarmInstance.PRE_ALARM_STATE) {
@@ -400,8 +496,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
         startAlarm(context, instance, false);
 
         // Schedule timeout timer for alarm
-        Calendar timeout = instance.getTimeout(context);
-        if (timeout != null) {
+        long timeout = instance.getTimeoutMillis(context);
+        if (timeout != AlarmInstance.NO_TIMEOUT) {
             boolean autoSnooze = PreferenceManager.getDefaultSharedPreferences(context)
                     .getBoolean(SettingsActivity.KEY_SNOOZE_ON_SILENCE, false);
             scheduleInstanceStateChange(context, timeout, instance, autoSnooze ?
@@ -424,13 +520,12 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.v("Setting pre fire state to instance " + instance.mId);
 
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.PRE_ALARM_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        writeInstance(context, instance);
 
         // Schedule timeout timer for pre-alarm dismiss if before alarm
-        Calendar timeout = instance.getPreAlarmTimeout(context);
-        if (timeout != null && timeout.before(instance.getAlarmTime())) {
+        long timeout = instance.getPreAlarmTimeoutMillis(context);
+        if (timeout != AlarmInstance.NO_TIMEOUT && timeout < instance.getAlarmTimeMillis()) {
             boolean autoSnooze = PreferenceManager.getDefaultSharedPreferences(context)
                     .getBoolean(SettingsActivity.KEY_SNOOZE_ON_SILENCE, false);
             scheduleInstanceStateChange(context, timeout, instance, autoSnooze ?
@@ -439,8 +534,13 @@ public final class AlarmStateManager extends BroadcastReceiver {
 
         // Start the alarm
         startAlarm(context, instance, true);
-        scheduleInstanceStateChange(context, instance.getAlarmTime(),
+        scheduleInstanceStateChange(context, instance.getAlarmTimeMillis(),
                 instance, AlarmInstance.FIRED_STATE);
+
+        // In case the high notification state was skipped
+        PlaylistResolver.prepare(context, instance);
+        // Buffer the stream of the main alarm, the pre-alarm one was used up
+        StreamPrefetcher.schedule(context, instance);
     }
 
     /**
@@ -454,15 +554,14 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.v("Setting pre fire dismiss state to instance " + instance.mId);
 
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.PRE_ALARM_DISMISS_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        writeInstance(context, instance);
 
         AlarmNotifications.showPreAlarmDismissNotification(context, instance);
 
         // Stop the alarm and schedule switch to FIRED_STATE
         stopAlarm(context, instance, true, true);
-        scheduleInstanceStateChange(context, instance.getAlarmTime(),
+        scheduleInstanceStateChange(context, instance.getAlarmTimeMillis(),
                 instance, AlarmInstance.FIRED_STATE);
     }
 
@@ -486,27 +585,30 @@ public final class AlarmStateManager extends BroadcastReceiver {
 
         // Calculate the new snooze alarm time
         int snoozeMinutes = Utils.getSnoozeTimeoutValue(context);
-        Calendar newAlarmTime = Calendar.getInstance();
-        newAlarmTime.add(Calendar.MINUTE, snoozeMinutes);
+        long newAlarmTime = System.currentTimeMillis()
+                + snoozeMinutes * DateUtils.MINUTE_IN_MILLIS;
 
         boolean nextStateFired = false;
         // if we snooze pre alarm - we will not snooze longer then the real alarm time
         if (lastState == AlarmInstance.PRE_ALARM_STATE) {
-            if (newAlarmTime.after(instance.getAlarmTime())) {
+            long alarmTime = instance.getAlarmTimeMillis();
+            if (newAlarmTime > alarmTime) {
                 // we will switch right to fired
                 nextStateFired = true;
-                newAlarmTime = instance.getAlarmTime();
+                newAlarmTime = alarmTime;
             }
         } else {
             instance.setAlarmTime(newAlarmTime);
         }
 
         // Update alarm state and new alarm time in db.
-        LogUtils.v("Setting snoozed state to instance " + instance.mId + " until "
-                + sdf.format(newAlarmTime.getTime()));
+        if (LogUtils.isVerbose()) {
+            LogUtils.v("Setting snoozed state to instance " + instance.mId + " until "
+                    + sdf.format(newAlarmTime));
+        }
 
         instance.mAlarmState = AlarmInstance.SNOOZE_STATE;
-        AlarmInstance.updateInstance(context.getContentResolver(), instance);
+        writeInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showSnoozeNotification(context, instance, newAlarmTime);
@@ -514,7 +616,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
             scheduleInstanceStateChange(context, newAlarmTime,
                     instance, AlarmInstance.PRE_ALARM_STATE);
         } else {
-            scheduleInstanceStateChange(context, instance.getAlarmTime(),
+            scheduleInstanceStateChange(context, instance.getAlarmTimeMillis(),
                     instance, AlarmInstance.FIRED_STATE);
         }
         // Display the snooze minutes in a toast.
@@ -555,13 +657,12 @@ public final class AlarmStateManager extends BroadcastReceiver {
         }
 
         // Update alarm state
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.MISSED_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        writeInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showMissedNotification(context, instance);
-        scheduleInstanceStateChange(context, instance.getMissedTimeToLive(),
+        scheduleInstanceStateChange(context, instance.getMissedTimeToLiveMillis(),
                 instance, AlarmInstance.DISMISSED_STATE);
 
         // Instance is not valid anymore, so find next alarm that will fire and notify system
@@ -599,7 +700,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         }
 
         // Delete instance as it is not needed anymore
-        AlarmInstance.deleteInstance(context.getContentResolver(), instance.mId);
+        removeInstance(context, instance.mId);
 
         // Instance is not valid anymore, so find next alarm that will fire and notify system
         updateNextAlarm(context);
@@ -607,7 +708,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
 
     /**
      * This will not change the state of instance, but remove it's notifications and
-     * alarm timers.
+     * alarm timers and the songs and streams prepared for it.
      *
      * @param context application context
      * @param instance to unregister
@@ -617,6 +718,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
         stopAlarm(context, instance, instance.mAlarmState == AlarmInstance.PRE_ALARM_STATE, true);
         AlarmNotifications.clearNotification(context, instance);
         cancelScheduledInstance(context, instance);
+        PlaylistResolver.delete(context, instance.mId);
+        StreamPrefetcher.cancel(context, instance.mId);
     }
 
     /**
@@ -644,24 +747,25 @@ public final class AlarmStateManager extends BroadcastReceiver {
      */
     public static void registerInstance(Context context, AlarmInstance instance,
             boolean updateNextAlarm) {
-        Calendar currentTime = Calendar.getInstance();
-        LogUtils.v("current = " + sdf.format(currentTime.getTime()));
-
-        Calendar alarmTime = instance.getAlarmTime();
-        LogUtils.v("alarm at = " + sdf.format(alarmTime.getTime()));
-
-        Calendar timeoutTime = instance.getTimeout(context);
-        LogUtils.v("timeoutTime at = " + (timeoutTime != null ? sdf.format(timeoutTime.getTime()) : "never"));
+        long currentTime = System.currentTimeMillis();
+        long alarmTime = instance.getAlarmTimeMillis();
+        long timeoutTime = instance.getTimeoutMillis(context);
 
-        //Calendar lowNotificationTime = instance.getLowNotificationTime();
         int highNotificationOffset = Utils.getHighNotificationOffset(context);
-        Calendar highNotificationTime = instance.getHighNotificationTime(highNotificationOffset);
-        LogUtils.v("high at = " + sdf.format(highNotificationTime.getTime()));
-
-        Calendar missedTTL = instance.getMissedTimeToLive();
-        Calendar preAlarmTime = instance.getPreAlarmTime();
-        if (instance.mPreAlarm) {
-            LogUtils.v("pre-alarm at = " + sdf.format(preAlarmTime.getTime()));
+        long highNotificationTime = instance.getHighNotificationTimeMillis(highNotificationOffset);
+
+        long missedTTL = instance.getMissedTimeToLiveMillis();
+        long preAlarmTime = instance.getPreAlarmTimeMillis();
+
+        if (LogUtils.isVerbose()) {
+            LogUtils.v("current = " + sdf.format(currentTime));
+            LogUtils.v("alarm at = " + sdf.format(alarmTime));
+            LogUtils.v("timeoutTime at = " + (timeoutTime != AlarmInstance.NO_TIMEOUT
+                    ? sdf.format(timeoutTime) : "never"));
+            LogUtils.v("high at = " + sdf.format(highNotificationTime));
+            if (instance.mPreAlarm) {
+                LogUtils.v("pre-alarm at = " + sdf.format(preAlarmTime));
+            }
         }
 
         // Handle special use cases here
@@ -672,13 +776,13 @@ public final class AlarmStateManager extends BroadcastReceiver {
             return;
         } else if (instance.mAlarmState == AlarmInstance.FIRED_STATE) {
             // Keep alarm firing, unless it should be timed out
-            boolean hasTimeout = timeoutTime != null && currentTime.after(timeoutTime);
+            boolean hasTimeout = timeoutTime != AlarmInstance.NO_TIMEOUT && currentTime > timeoutTime;
             if (!hasTimeout) {
                 setFiredState(context, instance);
                 return;
             }
         } else if (instance.mAlarmState == AlarmInstance.MISSED_STATE) {
-            if (currentTime.before(alarmTime)) {
+            if (currentTime < alarmTime) {
                 if (instance.mAlarmId == null) {
                     // This instance parent got deleted (ie. deleteAfterUse), so
                     // we should not re-activate it.-
@@ -692,36 +796,34 @@ public final class AlarmStateManager extends BroadcastReceiver {
 
                 // Make sure we re-enable the parent alarm of the instance
                 // because it will get activated by by the below code
-                ContentResolver cr = context.getContentResolver();
-                Alarm alarm = Alarm.getAlarm(cr, instance.mAlarmId);
+                Alarm alarm = readAlarm(context, instance.mAlarmId);
                 alarm.enabled = true;
-                Alarm.updateAlarm(cr, alarm);
+                writeAlarm(context, alarm);
             }
         }
 
         // Fix states that are time sensitive
-        if (currentTime.after(missedTTL)) {
+        if (currentTime > missedTTL) {
             // Alarm is so old, just dismiss it
             setDismissState(context, instance);
-        } else if (currentTime.after(alarmTime)) {
+        } else if (currentTime > alarmTime) {
             // There is a chance that the TIME_SET occurred right when the alarm should go off, so
             // we need to add a check to see if we should fire the alarm instead of marking it
             // missed.
-            Calendar alarmBuffer = Calendar.getInstance();
-            alarmBuffer.setTime(alarmTime.getTime());
-            alarmBuffer.add(Calendar.SECOND, ALARM_FIRE_BUFFER);
-            if (currentTime.before(alarmBuffer)) {
+            if (currentTime < alarmTime + ALARM_FIRE_BUFFER * DateUtils.SECOND_IN_MILLIS) {
                 setFiredState(context, instance);
             } else {
                 setMissedState(context, instance);
             }
         } else if (instance.mAlarmState == AlarmInstance.SNOOZE_STATE) {
             // We only want to display snooze notification and not update the time,
-            // so handle showing the notification directly
-            AlarmNotifications.showSnoozeNotification(context, instance, instance.getAlarmTime());
-            scheduleInstanceStateChange(context, instance.getAlarmTime(),
+            // so handle showing the notification directly. The stored alarm time
+            // still has to be refreshed since it depends on the current time zone.
+            writeInstance(context, instance);
+            AlarmNotifications.showSnoozeNotification(context, instance, alarmTime);
+            scheduleInstanceStateChange(context, instance.getAlarmTimeMillis(),
                     instance, AlarmInstance.FIRED_STATE);
-        } else if (currentTime.after(highNotificationTime)) {
+        } else if (currentTime > highNotificationTime) {
             setHighNotificationState(context, instance);
         /*} else if (currentTime.after(lowNotificationTime)) {
             // Only show low notification if it wasn't hidden in the past
@@ -730,7 +832,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
             } else {
                 setLowNotificationState(context, instance);
             }*/
-        } else if (instance.mPreAlarm && currentTime.after(preAlarmTime)) {
+        } else if (instance.mPreAlarm && currentTime > preAlarmTime) {
             setPreFiredState(context, instance);
         } else if (instance.mAlarmState == AlarmInstance.PRE_ALARM_DISMISS_STATE) {
             setPreFiredDismissState(context, instance);
@@ -753,17 +855,57 @@ public final class AlarmStateManager extends BroadcastReceiver {
      * @param alarmId to find instances to delete.
      */
     public static void deleteAllInstances(Context context, long alarmId) {
+        deleteAllInstances(context, alarmId, false);
+    }
+
+    /**
+     * This will delete and unregister all instances associated with alarmId and then
+     * delete the alarm itself, all in one transaction.
+     *
+     * @param context application context
+     * @param alarmId of the alarm to delete.
+     */
+    public static void deleteAlarm(Context context, long alarmId) {
+        deleteAllInstances(context, alarmId, true);
+    }
+
+    private static void deleteAllInstances(Context context, long alarmId, boolean deleteAlarm) {
         sSnoozeCount = 0;
 
-        ContentResolver cr = context.getContentResolver();
-        List<AlarmInstance> instances = AlarmInstance.getInstancesByAlarmId(cr, alarmId);
+        List<AlarmInstance> instances =
+                AlarmRepository.getInstance(context).getInstancesByAlarmId(alarmId);
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(instances.size() + 1);
         for (AlarmInstance instance : instances) {
             unregisterInstance(context, instance);
-            AlarmInstance.deleteInstance(context.getContentResolver(), instance.mId);
+            operations.add(ContentProviderOperation.newDelete(
+                    AlarmInstance.getUri(instance.mId)).build());
+        }
+        if (deleteAlarm) {
+            operations.add(ContentProviderOperation.newDelete(Alarm.getUri(alarmId)).build());
         }
+        applyOperations(context, operations);
         updateNextAlarm(context);
     }
 
+    /**
+     * Apply database changes in one transaction of the clock provider.
+     *
+     * @param context application context
+     * @param operations to apply
+     */
+    private static void applyOperations(Context context,
+            ArrayList<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            context.getContentResolver().applyBatch(ClockContract.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            LogUtils.e("Failed to apply alarm changes", e);
+        }
+    }
+
     /**
      * Fix and update all alarm instance when a time change event occurs.
      *
@@ -772,9 +914,29 @@ public final class AlarmStateManager extends BroadcastReceiver {
     public static void fixAlarmInstances(Context context) {
         // Register all instances after major time changes or when phone restarts
         // TODO: Refactor this code to not use the overloaded registerInstance method.
-        ContentResolver contentResolver = context.getContentResolver();
-        for (AlarmInstance instance : AlarmInstance.getInstances(contentResolver, null)) {
-            AlarmStateManager.registerInstance(context, instance, false);
+        AlarmRepository repository = AlarmRepository.getInstance(context);
+        InstanceBatch batch = new InstanceBatch();
+        for (Alarm alarm : repository.getAlarms()) {
+            batch.alarms.put(alarm.id, alarm);
+        }
+
+        sInstanceBatch.set(batch);
+        AlarmScheduler.beginBatch();
+        try {
+            for (AlarmInstance instance : repository.getInstances()) {
+                AlarmStateManager.registerInstance(context, instance, false);
+            }
+        } finally {
+            AlarmScheduler.endBatch(context);
+            sInstanceBatch.remove();
+        }
+
+        applyOperations(context, batch.operations);
+        LogUtils.v("Fixed alarm instances with " + batch.operations.size() + " changes");
+
+        // The alarm service reads the instance state so only start it after the commit
+        for (Intent intent : batch.serviceIntents) {
+            context.startService(intent);
         }
         AlarmStateManager.updateNextAlarm(context);
     }
@@ -832,12 +994,20 @@ public final class AlarmStateManager extends BroadcastReceiver {
         final PendingResult result = goAsync();
         final PowerManager.WakeLock wl = AlarmAlertWakeLock.createPartialWakeLock(context);
         wl.acquire();
-        AsyncHandler.post(new Runnable() {
+        AsyncExecutor.post(AsyncExecutor.PRIORITY_ALARM, new Runnable() {
             @Override
             public void run() {
                 handleIntent(context, intent);
-                result.finish();
-                wl.release();
+
+                // Keep the wake lock until coalesced follow up work like the next alarm
+                // update ran, it is queued ahead of this in the default lane
+                AsyncExecutor.post(AsyncExecutor.PRIORITY_DEFAULT, new Runnable() {
+                    @Override
+                    public void run() {
+                        result.finish();
+                        wl.release();
+                    }
+                });
             }
         });
     }
@@ -847,7 +1017,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.v("AlarmStateManager received intent " + intent);
         if (CHANGE_STATE_ACTION.equals(action)) {
             Uri uri = intent.getData();
-            AlarmInstance instance = AlarmInstance.getInstance(context.getContentResolver(),
+            AlarmInstance instance = AlarmRepository.getInstance(context).getInstance(
                     AlarmInstance.getId(uri));
             if (instance == null) {
                 // Not a big deal, but it shouldn't happen
@@ -877,9 +1047,13 @@ public final class AlarmStateManager extends BroadcastReceiver {
                 registerInstance(context, instance, true);
             }
             LogUtils.v("AlarmStateManager change to: " + instance);
+        } else if (AlarmScheduler.WAKEUP_ACTION.equals(action)) {
+            applyDueStateChanges(context);
+        } else if (StreamPrefetcher.PREFETCH_ACTION.equals(action)) {
+            StreamPrefetcher.onPrefetch(context, intent);
         } else if (SHOW_AND_DISMISS_ALARM_ACTION.equals(action)) {
             Uri uri = intent.getData();
-            AlarmInstance instance = AlarmInstance.getInstance(context.getContentResolver(),
+            AlarmInstance instance = AlarmRepository.getInstance(context).getInstance(
                     AlarmInstance.getId(uri));
             if (instance == null) {
                 // Not a big deal, but it shouldn't happen
@@ -929,7 +1103,12 @@ public final class AlarmStateManager extends BroadcastReceiver {
         wl.acquire(5000);
 
         AlarmNotifications.clearNotification(context, instance);
-        context.startService(intent);
+        InstanceBatch batch = sInstanceBatch.get();
+        if (batch != null) {
+            batch.serviceIntents.add(intent);
+        } else {
+            context.startService(intent);
+        }
     }
 
     private static void stopAlarm(Context context, AlarmInstance instance, boolean preAlarm, boolean fromDismiss) {
@@ -0,0 +1,397 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.alarms;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.omnirom.deskclock.LogUtils;
+import org.omnirom.deskclock.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent index of the audio files below the folders used by folder alarms.
+ *
+ * For every directory the index keeps its modification time, the names of its audio
+ * files and its sub directories. A refresh only lists the
+ * directories whose modification time changed since the last one and reuses the
+ * rest, so an unchanged tree of thousands of files costs one stat per directory.
+ * Each level of the tree is scanned in parallel on a small pool of threads.
+ *
+ * The files of a refreshed folder are served from memory, their count and any
+ * number of randomly picked files are available without touching the disk.
+ */
+public final class MediaFolderIndex {
+    private static final String LOGTAG = MediaFolderIndex.class.getSimpleName();
+
+    private static final String DIR_NAME = "folder_index";
+    private static final String SUFFIX_TMP = ".tmp";
+    private static final int VERSION = 2;
+
+    private static final int SCAN_THREADS = 3;
+    // Deepest level walked, guards against links looping back up the tree
+    private static final int MAX_DEPTH = 32;
+    private static final long SCAN_THREAD_KEEP_ALIVE = 30;
+
+    // Directories changed this recently may change again within the same mtime
+    // tick, they are listed again on the next refresh
+    private static final long MTIME_GRANULARITY = 2000;
+    private static final long MTIME_UNTRUSTED = -1;
+
+    private static MediaFolderIndex sInstance;
+
+    private final File mDir;
+    private final ThreadPoolExecutor mScanExecutor;
+    private final Random mRandom = new Random();
+
+    // Guarded by this, indexed folders by root path
+    private final HashMap<String, Tree> mTrees = new HashMap<String, Tree>();
+
+    private static final class Directory {
+        final String path;
+        final long mtime;
+        // Audio files, by name
+        final String[] files;
+        final String[] subdirs;
+
+        Directory(String path, long mtime, String[] files, String[] subdirs) {
+            this.path = path;
+            this.mtime = mtime;
+            this.files = files;
+            this.subdirs = subdirs;
+        }
+    }
+
+    private static final class Tree {
+        final HashMap<String, Directory> dirs;
+        final Folder folder;
+
+        Tree(HashMap<String, Directory> dirs, Folder folder) {
+            this.dirs = dirs;
+            this.folder = folder;
+        }
+    }
+
+    /**
+     * Snapshot of the audio files below a folder.
+     */
+    public static final class Folder {
+        // Absolute paths, sorted
+        private final String[] mPaths;
+        private final Random mRandom;
+
+        Folder(String[] paths, Random random) {
+            mPaths = paths;
+            mRandom = random;
+        }
+
+        public int getCount() {
+            return mPaths.length;
+        }
+
+        /**
+         * @return all files, sorted by path
+         */
+        public List<Uri> getAll() {
+            List<Uri> songs = new ArrayList<Uri>(mPaths.length);
+            for (String path : mPaths) {
+                songs.add(Uri.fromFile(new File(path)));
+            }
+            return songs;
+        }
+
+        /**
+         * Pick distinct random files, the cost only depends on the number picked.
+         *
+         * @param count maximum number of files to pick
+         * @return the picked files in random order
+         */
+        public List<Uri> pickRandom(int count) {
+            if (count >= mPaths.length) {
+                List<Uri> songs = getAll();
+                Collections.shuffle(songs, mRandom);
+                return songs;
+            }
+            List<Uri> songs = new ArrayList<Uri>(count);
+            HashSet<Integer> picked = new HashSet<Integer>();
+            while (songs.size() < count) {
+                int index = mRandom.nextInt(mPaths.length);
+                if (picked.add(index)) {
+                    songs.add(Uri.fromFile(new File(mPaths[index])));
+                }
+            }
+            return songs;
+        }
+    }
+
+    public static synchronized MediaFolderIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MediaFolderIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MediaFolderIndex(Context context) {
+        mDir = new File(context.getFilesDir(), DIR_NAME);
+        mScanExecutor = new ThreadPoolExecutor(SCAN_THREADS, SCAN_THREADS,
+                SCAN_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        mScanExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Bring the index of a folder up to date.
+     *
+     * @param root folder to index, including all of its sub directories
+     * @return the audio files below root, empty if root is no directory
+     */
+    public synchronized Folder refresh(File root) {
+        String rootPath = root.getAbsolutePath();
+        Tree tree = mTrees.get(rootPath);
+        if (tree == null) {
+            tree = load(rootPath);
+        }
+
+        long start = System.currentTimeMillis();
+        HashMap<String, Directory> oldDirs =
+                tree != null ? tree.dirs : new HashMap<String, Directory>();
+        HashMap<String, Directory> dirs = new HashMap<String, Directory>();
+        int scanned;
+        try {
+            scanned = scan(rootPath, oldDirs, dirs, start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return tree != null ? tree.folder : new Folder(new String[0], mRandom);
+        }
+
+        if (tree == null || scanned != 0 || dirs.size() != oldDirs.size()) {
+            tree = new Tree(dirs, new Folder(collectPaths(dirs), mRandom));
+            save(rootPath, dirs);
+        }
+        mTrees.put(rootPath, tree);
+        LogUtils.v(LOGTAG, "Refreshed " + rootPath + ": " + tree.folder.getCount()
+                + " files, " + scanned + " of " + dirs.size() + " directories listed in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return tree.folder;
+    }
+
+    /**
+     * Walk the tree level by level, listing the directories of each level in parallel.
+     *
+     * @return number of directories that had to be listed
+     */
+    private int scan(String rootPath, final HashMap<String, Directory> oldDirs,
+            HashMap<String, Directory> dirs, final long now) throws InterruptedException {
+        int scanned = 0;
+        List<String> level = Collections.singletonList(rootPath);
+        for (int depth = 0; depth < MAX_DEPTH && !level.isEmpty(); depth++) {
+            List<Future<Directory>> results = new ArrayList<Future<Directory>>(level.size());
+            for (final String path : level) {
+                results.add(mScanExecutor.submit(new Callable<Directory>() {
+                    @Override
+                    public Directory call() {
+                        return scanDirectory(path, oldDirs.get(path), now);
+                    }
+                }));
+            }
+
+            List<String> next = new ArrayList<String>();
+            for (Future<Directory> result : results) {
+                Directory dir;
+                try {
+                    dir = result.get();
+                } catch (ExecutionException e) {
+                    LogUtils.e(LOGTAG, "Failed to scan directory", e.getCause());
+                    continue;
+                }
+                if (dir == null) {
+                    continue;
+                }
+                if (dir != oldDirs.get(dir.path)) {
+                    scanned++;
+                }
+                dirs.put(dir.path, dir);
+                for (String subdir : dir.subdirs) {
+                    next.add(dir.path + File.separator + subdir);
+                }
+            }
+            level = next;
+        }
+        return scanned;
+    }
+
+    /**
+     * @return the cached directory if it did not change, a freshly listed one if it
+     * did or null if it is gone
+     */
+    private static Directory scanDirectory(String path, Directory cached, long now) {
+        File folder = new File(path);
+        long mtime = folder.lastModified();
+        if (mtime == 0 || !folder.isDirectory()) {
+            return null;
+        }
+        if (cached != null && cached.mtime == mtime) {
+            return cached;
+        }
+
+        File[] entries = folder.listFiles();
+        if (entries == null) {
+            return null;
+        }
+        ArrayList<String> files = new ArrayList<String>();
+        ArrayList<String> subdirs = new ArrayList<String>();
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                subdirs.add(entry.getName());
+            } else if (Utils.isValidAudioFile(entry.getName())) {
+                files.add(entry.getName());
+            }
+        }
+        if (now - mtime < MTIME_GRANULARITY) {
+            mtime = MTIME_UNTRUSTED;
+        }
+        return new Directory(path, mtime, files.toArray(new String[files.size()]),
+                subdirs.toArray(new String[subdirs.size()]));
+    }
+
+    private static String[] collectPaths(HashMap<String, Directory> dirs) {
+        int count = 0;
+        for (Directory dir : dirs.values()) {
+            count += dir.files.length;
+        }
+        String[] paths = new String[count];
+        int i = 0;
+        for (Directory dir : dirs.values()) {
+            for (String name : dir.files) {
+                paths[i++] = dir.path + File.separator + name;
+            }
+        }
+        Arrays.sort(paths);
+        return paths;
+    }
+
+    private File getFile(String rootPath) {
+        return new File(mDir, Integer.toHexString(rootPath.hashCode()));
+    }
+
+    private Tree load(String rootPath) {
+        File file = getFile(rootPath);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION || !in.readUTF().equals(rootPath)) {
+                return null;
+            }
+            int dirCount = in.readInt();
+            HashMap<String, Directory> dirs = new HashMap<String, Directory>(dirCount * 2);
+            for (int i = 0; i < dirCount; i++) {
+                String path = in.readUTF();
+                long mtime = in.readLong();
+                int fileCount = in.readInt();
+                String[] names = new String[fileCount];
+                for (int j = 0; j < fileCount; j++) {
+                    names[j] = in.readUTF();
+                }
+                String[] subdirs = new String[in.readInt()];
+                for (int j = 0; j < subdirs.length; j++) {
+                    subdirs[j] = in.readUTF();
+                }
+                dirs.put(path, new Directory(path, mtime, names, subdirs));
+            }
+            return new Tree(dirs, new Folder(collectPaths(dirs), mRandom));
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to read " + file, e);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private void save(String rootPath, HashMap<String, Directory> dirs) {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            LogUtils.e(LOGTAG, "Failed to create " + mDir);
+            return;
+        }
+        File file = getFile(rootPath);
+        File tmp = new File(mDir, file.getName() + SUFFIX_TMP);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(VERSION);
+            out.writeUTF(rootPath);
+            out.writeInt(dirs.size());
+            for (Directory dir : dirs.values()) {
+                out.writeUTF(dir.path);
+                out.writeLong(dir.mtime);
+                out.writeInt(dir.files.length);
+                for (String name : dir.files) {
+                    out.writeUTF(name);
+                }
+                out.writeInt(dir.subdirs.length);
+                for (String subdir : dir.subdirs) {
+                    out.writeUTF(subdir);
+                }
+            }
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to write " + tmp, e);
+            close(out);
+            tmp.delete();
+            return;
+        }
+        if (!close(out) || !tmp.renameTo(file)) {
+            LogUtils.e(LOGTAG, "Failed to replace " + file);
+            tmp.delete();
+        }
+    }
+
+    private static boolean close(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                LogUtils.e(LOGTAG, "Failed to close folder index", e);
+                return false;
+            }
+        }
+        return true;
+    }
+}
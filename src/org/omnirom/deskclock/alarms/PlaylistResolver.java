@@ -0,0 +1,399 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.alarms;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.PowerManager;
+import android.text.format.DateUtils;
+
+import org.omnirom.deskclock.AlarmAlertWakeLock;
+import org.omnirom.deskclock.LogUtils;
+import org.omnirom.deskclock.Utils;
+import org.omnirom.deskclock.provider.AlarmInstance;
+import org.omnirom.deskclock.provider.AlarmRepository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the songs of alarms playing random music, a folder, an album, an
+ * artist, a playlist or a stream list ahead of time.
+ *
+ * Walking a folder tree or querying the media store can take seconds, which is
+ * too long to wait for once the alarm fires. {@link #prepare(Context, AlarmInstance)}
+ * is called when the instance enters the high notification or pre-alarm state and
+ * resolves the songs on a background thread of its own. The ordered, already shuffled list is kept
+ * in a file per instance, so {@link AlarmKlaxon} only has to read it back. An alarm
+ * that fires before its list is ready resolves it on the spot, as it always did.
+ */
+public final class PlaylistResolver {
+    private static final String LOGTAG = PlaylistResolver.class.getSimpleName();
+
+    // Songs picked from all music on the device
+    public static final int MODE_RANDOM_MUSIC = 1;
+    // Songs of a folder, album, artist or playlist
+    public static final int MODE_LOCAL_MEDIA = 2;
+    // Entries of a stream list
+    public static final int MODE_STREAM = 3;
+
+    // Songs picked for random music and for shuffled folders
+    private static final int RANDOM_SIZE = 50;
+
+    private static final String DIR_NAME = "playlists";
+    private static final String SUFFIX_ALARM = "-alarm";
+    private static final String SUFFIX_PRE_ALARM = "-prealarm";
+    private static final String SUFFIX_TMP = ".tmp";
+
+    private static final int VERSION = 1;
+
+    // Resolving can take as long as walking a whole music folder
+    private static final long WAKE_LOCK_TIMEOUT = 5 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long THREAD_KEEP_ALIVE = 30;
+
+    // Resolves on its own thread, the AsyncExecutor worker must stay free for alarm
+    // state changes. A single thread keeps two resolves from writing the same file.
+    private static final ThreadPoolExecutor sExecutor = createExecutor();
+    // Instances queued for resolving
+    private static final HashSet<Long> sPending = new HashSet<Long>();
+
+    public static final class Playlist {
+        public final int mode;
+        public final List<Uri> songs;
+
+        Playlist(int mode, List<Uri> songs) {
+            this.mode = mode;
+            this.songs = songs;
+        }
+    }
+
+    private PlaylistResolver() {}
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, THREAD_KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return true if the sound has to be resolved into a list of songs
+     */
+    public static boolean isPlaylist(Uri sound) {
+        if (sound == null) {
+            return false;
+        }
+        String uri = sound.toString();
+        return Utils.isRandomUri(uri) || Utils.isLocalPlaylistType(uri);
+    }
+
+    /**
+     * Resolve the songs of the alarm and pre-alarm sounds of an instance in the
+     * background and keep them for {@link #get(Context, AlarmInstance, boolean)}.
+     * Sounds whose songs are already kept are not resolved again.
+     *
+     * @param context application context
+     * @param instance about to fire
+     */
+    public static void prepare(Context context, AlarmInstance instance) {
+        final Context appContext = context.getApplicationContext();
+        final long instanceId = instance.mId;
+        synchronized (sPending) {
+            if (!sPending.add(instanceId)) {
+                // Still queued, it reads the instance when it runs
+                return;
+            }
+        }
+        final PowerManager.WakeLock wl = AlarmAlertWakeLock.createPartialWakeLock(appContext);
+        wl.acquire(WAKE_LOCK_TIMEOUT);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sPending) {
+                    sPending.remove(instanceId);
+                }
+                try {
+                    AlarmInstance instance =
+                            AlarmRepository.getInstance(appContext).getInstance(instanceId);
+                    if (instance == null) {
+                        return;
+                    }
+                    if (instance.mPreAlarm) {
+                        prepare(appContext, instance, true);
+                    }
+                    prepare(appContext, instance, false);
+                    deleteOrphans(appContext);
+                } finally {
+                    if (wl.isHeld()) {
+                        wl.release();
+                    }
+                }
+            }
+        });
+    }
+
+    private static void prepare(Context context, AlarmInstance instance, boolean preAlarm) {
+        Uri sound = getSound(instance, preAlarm);
+        if (!isPlaylist(sound)) {
+            return;
+        }
+        boolean randomPlayback = instance.getRandomMode(preAlarm);
+        File file = getFile(context, instance.mId, preAlarm);
+        if (read(file, sound, randomPlayback) != null) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Playlist playlist = resolve(context, sound, randomPlayback);
+        write(context, file, sound, randomPlayback, playlist);
+        LogUtils.i(LOGTAG, "Resolved " + playlist.songs.size() + " songs for instance "
+                + instance.mId + (preAlarm ? " pre-alarm" : "") + " in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Get the songs resolved ahead of time.
+     *
+     * @param context application context
+     * @param instance that fires
+     * @param preAlarm true for the pre-alarm sound
+     * @return the songs in playing order, null if they were not resolved yet or
+     * the sound of the instance changed since
+     */
+    public static Playlist get(Context context, AlarmInstance instance, boolean preAlarm) {
+        Uri sound = getSound(instance, preAlarm);
+        if (!isPlaylist(sound)) {
+            return null;
+        }
+        return read(getFile(context, instance.mId, preAlarm), sound,
+                instance.getRandomMode(preAlarm));
+    }
+
+    /**
+     * Drop the songs kept for an instance.
+     *
+     * @param context application context
+     * @param instanceId of the instance
+     */
+    public static void delete(Context context, long instanceId) {
+        getFile(context, instanceId, false).delete();
+        getFile(context, instanceId, true).delete();
+    }
+
+    /**
+     * Resolve the songs of a sound right away.
+     *
+     * @param context application context
+     * @param sound the alarm sound, one of the playlist types
+     * @param randomPlayback true to shuffle the songs
+     * @return the songs in playing order, empty if none could be found
+     */
+    public static Playlist resolve(Context context, Uri sound, boolean randomPlayback) {
+        String uri = sound.toString();
+        if (Utils.isRandomUri(uri)) {
+            return new Playlist(MODE_RANDOM_MUSIC,
+                    Utils.getRandomMusicFiles(context, RANDOM_SIZE));
+        }
+
+        int mode = MODE_LOCAL_MEDIA;
+        List<Uri> songs = new ArrayList<Uri>();
+        // can fail if no external storage permissions
+        try {
+            if (Utils.isLocalAlbumUri(uri)) {
+                songs = Utils.getAlbumSongs(context, sound);
+            }
+            if (Utils.isLocalArtistUri(uri)) {
+                songs = Utils.getArtistSongs(context, sound);
+            }
+            if (Utils.isStorageUri(uri)) {
+                if (Utils.isStreamM3UFile(uri)) {
+                    mode = MODE_STREAM;
+                    songs = collectM3UFiles(sound);
+                } else {
+                    songs = collectFiles(context, sound, randomPlayback);
+                }
+            }
+            if (Utils.isLocalPlaylistUri(uri)) {
+                songs = Utils.getPlaylistSongs(context, sound);
+            }
+        } catch (Exception ex) {
+            LogUtils.e(LOGTAG, "Error accessing media contents", ex);
+            songs.clear();
+        }
+
+        // Folders come sorted from the index, media store queries keep their own order
+        if (randomPlayback) {
+            Collections.shuffle(songs);
+        } else if (mode == MODE_STREAM) {
+            Collections.sort(songs);
+        }
+        return new Playlist(mode, songs);
+    }
+
+    private static List<Uri> collectFiles(Context context, Uri folderUri,
+            boolean randomPlayback) {
+        MediaFolderIndex.Folder folder =
+                MediaFolderIndex.getInstance(context).refresh(new File(folderUri.getPath()));
+        return randomPlayback ? folder.pickRandom(RANDOM_SIZE) : folder.getAll();
+    }
+
+    private static List<Uri> collectM3UFiles(Uri m3UFileUri) {
+        List<Uri> songs = new ArrayList<Uri>();
+        for (final Uri fileEntry : Utils.parseM3UPlaylist(m3UFileUri.toString())) {
+            if ("file".equals(fileEntry.getScheme())) {
+                File f = new File(fileEntry.getPath());
+                if (f.exists() && Utils.isValidAudioFile(f.getName())) {
+                    songs.add(fileEntry);
+                }
+            } else {
+                songs.add(fileEntry);
+            }
+        }
+        return songs;
+    }
+
+    private static Uri getSound(AlarmInstance instance, boolean preAlarm) {
+        return preAlarm ? instance.mPreAlarmRingtone : instance.mRingtone;
+    }
+
+    private static File getDir(Context context) {
+        return new File(context.getFilesDir(), DIR_NAME);
+    }
+
+    private static File getFile(Context context, long instanceId, boolean preAlarm) {
+        return new File(getDir(context),
+                Long.toString(instanceId) + (preAlarm ? SUFFIX_PRE_ALARM : SUFFIX_ALARM));
+    }
+
+    /**
+     * Read kept songs, as long as they were resolved for the same sound and order.
+     */
+    private static Playlist read(File file, Uri sound, boolean randomPlayback) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION
+                    || !in.readUTF().equals(sound.toString())
+                    || in.readBoolean() != randomPlayback) {
+                return null;
+            }
+            int mode = in.readInt();
+            int count = in.readInt();
+            List<Uri> songs = new ArrayList<Uri>(count);
+            for (int i = 0; i < count; i++) {
+                songs.add(Uri.parse(in.readUTF()));
+            }
+            return new Playlist(mode, songs);
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to read " + file, e);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Write the songs to a new file that replaces the old one in a single rename,
+     * so a reader never sees a partial list.
+     */
+    private static void write(Context context, File file, Uri sound, boolean randomPlayback,
+            Playlist playlist) {
+        File dir = getDir(context);
+        if (!dir.exists() && !dir.mkdirs()) {
+            LogUtils.e(LOGTAG, "Failed to create " + dir);
+            return;
+        }
+        File tmp = new File(dir, file.getName() + SUFFIX_TMP);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(VERSION);
+            out.writeUTF(sound.toString());
+            out.writeBoolean(randomPlayback);
+            out.writeInt(playlist.mode);
+            out.writeInt(playlist.songs.size());
+            for (Uri song : playlist.songs) {
+                out.writeUTF(song.toString());
+            }
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to write " + tmp, e);
+            close(out);
+            tmp.delete();
+            return;
+        }
+        if (!close(out) || !tmp.renameTo(file)) {
+            LogUtils.e(LOGTAG, "Failed to replace " + file);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Remove songs kept for instances that no longer exist.
+     */
+    private static void deleteOrphans(Context context) {
+        File[] files = getDir(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        AlarmRepository repository = AlarmRepository.getInstance(context);
+        for (File file : files) {
+            String name = file.getName();
+            int end = name.indexOf('-');
+            if (end <= 0) {
+                file.delete();
+                continue;
+            }
+            try {
+                if (repository.getInstance(Long.parseLong(name.substring(0, end))) == null) {
+                    file.delete();
+                }
+            } catch (NumberFormatException e) {
+                file.delete();
+            }
+        }
+    }
+
+    private static boolean close(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                LogUtils.e(LOGTAG, "Failed to close playlist file", e);
+                return false;
+            }
+        }
+        return true;
+    }
+}
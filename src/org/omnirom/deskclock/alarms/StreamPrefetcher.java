@@ -0,0 +1,402 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.alarms;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.PowerManager;
+import android.text.format.DateUtils;
+
+import org.omnirom.deskclock.AlarmAlertWakeLock;
+import org.omnirom.deskclock.LogUtils;
+import org.omnirom.deskclock.Utils;
+import org.omnirom.deskclock.provider.AlarmInstance;
+import org.omnirom.deskclock.provider.AlarmRepository;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+
+/**
+ * Buffers the start of a stream alarm shortly before it fires.
+ *
+ * Internet radio can take many seconds to connect after the device woke up, and
+ * the alarm would stay silent until it does. A few minutes before fire time the
+ * first seconds of the first stream are downloaded into a small cache file.
+ * {@link AlarmKlaxon} starts playing from that file and connects to the live
+ * stream meanwhile, which takes over once the cached part played out. A cache
+ * file is played only once, a snoozed alarm fires with a fresh one or the live
+ * stream.
+ *
+ * Downloads run on their own thread, since they can take as long as the cached
+ * audio and must not hold up alarm state changes.
+ */
+public final class StreamPrefetcher {
+    private static final String LOGTAG = StreamPrefetcher.class.getSimpleName();
+
+    // Intent action of the prefetch wakeup, handled by AlarmStateManager
+    static final String PREFETCH_ACTION = "prefetch_stream";
+    private static final String PRE_ALARM_EXTRA = "pre_alarm";
+
+    // How long before fire time the stream is buffered
+    private static final long LEAD_TIME = 3 * DateUtils.MINUTE_IN_MILLIS;
+    // A cache older than this is no use as start of a live stream anymore
+    private static final long MAX_AGE = 10 * DateUtils.MINUTE_IN_MILLIS;
+
+    // Seconds of audio to buffer, sized by the bitrate the server announces
+    private static final int CACHE_SECONDS = 30;
+    // Bitrate in kbit/s if the server does not announce one
+    private static final int DEFAULT_BITRATE = 128;
+    private static final int MAX_CACHE_BYTES = 1024 * 1024;
+
+    private static final int TIMEOUT = 10 * 1000;
+
+    private static final String DIR_NAME = "stream_cache";
+    private static final String SUFFIX_TMP = ".tmp";
+    // Cache file handed out for playback, never handed out again
+    private static final String SUFFIX_PLAYING = ".playing";
+
+    // Sounds of instances with a download in progress, see getSoundPrefix,
+    // guarded by the class
+    private static final HashSet<String> sFetching = new HashSet<String>();
+
+    private StreamPrefetcher() {}
+
+    /**
+     * Arm the prefetch for the sound the instance plays next, the pre-alarm sound
+     * ahead of the pre-alarm and the alarm sound ahead of the alarm. Anything but
+     * a stream list is ignored.
+     *
+     * @param context application context
+     * @param instance in the high notification or pre-alarm state
+     */
+    public static void schedule(Context context, AlarmInstance instance) {
+        boolean preAlarm = instance.mPreAlarm
+                && instance.mAlarmState != AlarmInstance.PRE_ALARM_STATE;
+        Uri sound = preAlarm ? instance.mPreAlarmRingtone : instance.mRingtone;
+        PendingIntent pendingIntent = createPendingIntent(context, instance.mId, preAlarm);
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (sound == null || !Utils.isStreamM3UFile(sound.toString())) {
+            am.cancel(pendingIntent);
+            return;
+        }
+
+        long fireTime = preAlarm ? instance.getPreAlarmTimeMillis()
+                : instance.getAlarmTimeMillis();
+        long time = fireTime - LEAD_TIME;
+        if (time <= System.currentTimeMillis()) {
+            am.cancel(pendingIntent);
+            fetch(context, instance.mId, preAlarm);
+        } else {
+            LogUtils.v(LOGTAG, "Prefetching stream of instance " + instance.mId + " at " + time);
+            am.setExact(AlarmManager.RTC_WAKEUP, time, pendingIntent);
+        }
+    }
+
+    /**
+     * Handle the prefetch wakeup armed by {@link #schedule(Context, AlarmInstance)}.
+     */
+    static void onPrefetch(Context context, Intent intent) {
+        fetch(context, AlarmInstance.getId(intent.getData()),
+                intent.getBooleanExtra(PRE_ALARM_EXTRA, false));
+    }
+
+    /**
+     * Take the buffered start of a stream for playback. The file is only handed out
+     * once, it is deleted with the instance or by the next prefetch of the sound.
+     *
+     * @param context application context
+     * @param instance that fires
+     * @param preAlarm true for the pre-alarm sound
+     * @param stream the stream that is about to be played
+     * @return the cache file, null if the stream was not buffered recently
+     */
+    public static File takeCache(Context context, AlarmInstance instance, boolean preAlarm,
+            Uri stream) {
+        final String prefix = getPrefix(instance.mId, preAlarm, stream);
+        File[] files = getDir(context).listFiles();
+        if (files == null) {
+            return null;
+        }
+        File cache = null;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(prefix) || name.endsWith(SUFFIX_TMP)) {
+                continue;
+            }
+            if (name.endsWith(SUFFIX_PLAYING)) {
+                // Played before, by an earlier firing of the instance
+                file.delete();
+            } else if (System.currentTimeMillis() - file.lastModified() < MAX_AGE) {
+                cache = file;
+            }
+        }
+        if (cache == null) {
+            return null;
+        }
+        File playing = new File(cache.getPath() + SUFFIX_PLAYING);
+        if (!cache.renameTo(playing)) {
+            LogUtils.e(LOGTAG, "Failed to take " + cache);
+            cache.delete();
+            return null;
+        }
+        return playing;
+    }
+
+    /**
+     * Disarm the prefetch of an instance and drop its buffered streams.
+     *
+     * @param context application context
+     * @param instanceId of the instance
+     */
+    public static void cancel(Context context, long instanceId) {
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        am.cancel(createPendingIntent(context, instanceId, false));
+        am.cancel(createPendingIntent(context, instanceId, true));
+        deleteFiles(context, instanceId + "-");
+    }
+
+    private static PendingIntent createPendingIntent(Context context, long instanceId,
+            boolean preAlarm) {
+        Intent intent = AlarmInstance.createIntent(context, AlarmStateManager.class, instanceId)
+                .setAction(PREFETCH_ACTION)
+                .putExtra(PRE_ALARM_EXTRA, preAlarm);
+        return PendingIntent.getBroadcast(context, preAlarm ? 1 : 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static void fetch(Context context, final long instanceId, final boolean preAlarm) {
+        final String key = getSoundPrefix(instanceId, preAlarm);
+        synchronized (StreamPrefetcher.class) {
+            if (!sFetching.add(key)) {
+                return;
+            }
+        }
+        final Context appContext = context.getApplicationContext();
+        final PowerManager.WakeLock wl = AlarmAlertWakeLock.createPartialWakeLock(appContext);
+        wl.acquire(LEAD_TIME);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetchInstance(appContext, instanceId, preAlarm);
+                } finally {
+                    synchronized (StreamPrefetcher.class) {
+                        sFetching.remove(key);
+                    }
+                    if (wl.isHeld()) {
+                        wl.release();
+                    }
+                }
+            }
+        }, LOGTAG).start();
+    }
+
+    private static void fetchInstance(Context context, long instanceId, boolean preAlarm) {
+        AlarmInstance instance = AlarmRepository.getInstance(context).getInstance(instanceId);
+        if (instance == null) {
+            return;
+        }
+        Uri sound = preAlarm ? instance.mPreAlarmRingtone : instance.mRingtone;
+        if (sound == null || !PlaylistResolver.isPlaylist(sound)) {
+            return;
+        }
+        PlaylistResolver.Playlist playlist = PlaylistResolver.get(context, instance, preAlarm);
+        if (playlist == null) {
+            playlist = PlaylistResolver.resolve(context, sound, instance.getRandomMode(preAlarm));
+        }
+        if (playlist.mode != PlaylistResolver.MODE_STREAM || playlist.songs.isEmpty()) {
+            return;
+        }
+
+        // The alarm starts with the first entry
+        Uri stream = playlist.songs.get(0);
+        String scheme = stream.getScheme();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            return;
+        }
+        deleteFiles(context, getSoundPrefix(instanceId, preAlarm));
+        deleteStale(context);
+
+        long start = System.currentTimeMillis();
+        File file = download(context, stream, getPrefix(instanceId, preAlarm, stream));
+        if (file != null) {
+            LogUtils.i(LOGTAG, "Buffered " + file.length() + " bytes of " + stream + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * Download the start of a stream into a new cache file.
+     *
+     * @return the cache file, null if the stream could not be buffered
+     */
+    private static File download(Context context, Uri stream, String prefix) {
+        File dir = getDir(context);
+        if (!dir.exists() && !dir.mkdirs()) {
+            LogUtils.e(LOGTAG, "Failed to create " + dir);
+            return null;
+        }
+
+        HttpURLConnection connection = null;
+        InputStream in = null;
+        OutputStream out = null;
+        File tmp = null;
+        try {
+            connection = (HttpURLConnection) new URL(stream.toString()).openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            // Metadata would be interleaved with the audio
+            connection.setRequestProperty("Icy-MetaData", "0");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                LogUtils.e(LOGTAG, "Failed to buffer " + stream + ": "
+                        + connection.getResponseCode());
+                return null;
+            }
+            String extension = getExtension(connection.getContentType());
+            if (extension == null) {
+                LogUtils.v(LOGTAG, "Not buffering " + stream + " of type "
+                        + connection.getContentType());
+                return null;
+            }
+
+            int bitrate = connection.getHeaderFieldInt("icy-br", DEFAULT_BITRATE);
+            if (bitrate <= 0) {
+                bitrate = DEFAULT_BITRATE;
+            }
+            long limit = Math.min(MAX_CACHE_BYTES, bitrate * 1000L / 8 * CACHE_SECONDS);
+
+            File file = new File(dir, prefix + extension);
+            tmp = new File(dir, file.getName() + SUFFIX_TMP);
+            in = connection.getInputStream();
+            out = new FileOutputStream(tmp);
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            while (total < limit) {
+                int count = in.read(buffer, 0, (int) Math.min(buffer.length, limit - total));
+                if (count == -1) {
+                    break;
+                }
+                out.write(buffer, 0, count);
+                total += count;
+            }
+            out.close();
+            out = null;
+            if (total == 0 || !tmp.renameTo(file)) {
+                LogUtils.e(LOGTAG, "Failed to buffer " + stream);
+                tmp.delete();
+                return null;
+            }
+            return file;
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to buffer " + stream, e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return null;
+        } finally {
+            close(out);
+            close(in);
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return file extension for a stream content type that can be played from a
+     * truncated file, null for anything else like HLS playlists
+     */
+    private static String getExtension(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String type = contentType.toLowerCase();
+        if (type.startsWith("audio/mpeg") || type.startsWith("audio/mp3")) {
+            return ".mp3";
+        }
+        if (type.startsWith("audio/aac") || type.startsWith("audio/aacp")) {
+            return ".aac";
+        }
+        if (type.startsWith("audio/ogg") || type.startsWith("application/ogg")) {
+            return ".ogg";
+        }
+        return null;
+    }
+
+    private static String getSoundPrefix(long instanceId, boolean preAlarm) {
+        return instanceId + (preAlarm ? "-prealarm-" : "-alarm-");
+    }
+
+    private static String getPrefix(long instanceId, boolean preAlarm, Uri stream) {
+        return getSoundPrefix(instanceId, preAlarm)
+                + Integer.toHexString(stream.toString().hashCode());
+    }
+
+    private static File getDir(Context context) {
+        return new File(context.getFilesDir(), DIR_NAME);
+    }
+
+    private static void deleteFiles(Context context, String prefix) {
+        File[] files = getDir(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(prefix)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove caches left behind by instances that went away without being
+     * unregistered, like after a crash.
+     */
+    private static void deleteStale(Context context) {
+        File[] files = getDir(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > DateUtils.DAY_IN_MILLIS) {
+                file.delete();
+            }
+        }
+    }
+
+    private static void close(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
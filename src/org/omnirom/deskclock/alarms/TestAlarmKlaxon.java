@@ -319,24 +319,11 @@ public class TestAlarmKlaxon {
     }
 
     private static void collectFiles(Context context, Uri folderUri) {
-        mSongs.clear();
         sErrorHandler.startProgress();
-        File folder = new File(folderUri.getPath());
-        if (folder.exists() && folder.isDirectory()) {
-            for (final File fileEntry : folder.listFiles()) {
-                if (!fileEntry.isDirectory()) {
-                    if (Utils.isValidAudioFile(fileEntry.getName())) {
-                        mSongs.add(Uri.fromFile(fileEntry));
-                    }
-                } else {
-                    collectSub(context, fileEntry);
-                }
-            }
-            if (sRandomPlayback) {
-                Collections.shuffle(mSongs);
-            } else {
-                Collections.sort(mSongs);
-            }
+        mSongs = MediaFolderIndex.getInstance(context)
+                .refresh(new File(folderUri.getPath())).getAll();
+        if (sRandomPlayback) {
+            Collections.shuffle(mSongs);
         }
         sErrorHandler.stopProgress();
     }
@@ -371,20 +358,6 @@ public class TestAlarmKlaxon {
         sErrorHandler.stopProgress();
     }
 
-    private static void collectSub(Context context, File folder) {
-        if (folder.exists() && folder.isDirectory()) {
-            for (final File fileEntry : folder.listFiles()) {
-                if (!fileEntry.isDirectory()) {
-                    if (Utils.isValidAudioFile(fileEntry.getName())) {
-                        mSongs.add(Uri.fromFile(fileEntry));
-                    }
-                } else {
-                    collectSub(context, fileEntry);
-                }
-            }
-        }
-    }
-
     private static void nextSong(Context context, Alarm instance) {
         if (sError) {
             return;
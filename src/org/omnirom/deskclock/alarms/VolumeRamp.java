@@ -0,0 +1,131 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.alarms;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Fades an alarm in by raising the gain of its players along a curve.
+ *
+ * The gain is computed from the time elapsed since {@link #start()} and pushed
+ * to the listener at a fixed control rate on the main thread, so a late tick
+ * does not stretch the ramp. The stream volume is not touched, players apply
+ * the gain with {@link android.media.MediaPlayer#setVolume(float, float)}.
+ */
+final class VolumeRamp {
+    static final int CURVE_LINEAR = 0;
+    // Even steps in loudness, the gain rises by the same number of dB per second
+    static final int CURVE_EXPONENTIAL = 1;
+    // Gets loud fast and levels off
+    static final int CURVE_LOGARITHMIC = 2;
+
+    // Time between gain updates, 20 per second are smooth to the ear
+    private static final long CONTROL_INTERVAL = 50;
+
+    // Range of the exponential curve, it starts that far below full gain
+    private static final float EXPONENTIAL_RANGE_DB = 60f;
+
+    interface Listener {
+        void onGainChanged(float gain);
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final int mCurve;
+    private final long mDuration;
+    private final Listener mListener;
+
+    private long mStartTime;
+    private long mNextTick;
+    private float mGain;
+    private boolean mRunning;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            long now = SystemClock.uptimeMillis();
+            float t = Math.min(1f, (now - mStartTime) / (float) mDuration);
+            mGain = getGain(mCurve, t);
+            mListener.onGainChanged(mGain);
+            if (t >= 1f) {
+                mRunning = false;
+                return;
+            }
+            // Stay on the fixed grid, skipping ticks that were missed
+            do {
+                mNextTick += CONTROL_INTERVAL;
+            } while (mNextTick <= now);
+            mHandler.postAtTime(this, mNextTick);
+        }
+    };
+
+    /**
+     * @param curve one of the CURVE constants
+     * @param duration of the ramp from silence to full gain in milliseconds
+     * @param listener applying the gain to the players, called on the main thread
+     */
+    VolumeRamp(int curve, long duration, Listener listener) {
+        mCurve = curve;
+        mDuration = Math.max(duration, CONTROL_INTERVAL);
+        mListener = listener;
+        mGain = getGain(curve, 0f);
+    }
+
+    void start() {
+        mHandler.removeCallbacks(mTick);
+        mStartTime = SystemClock.uptimeMillis();
+        mNextTick = mStartTime;
+        mRunning = true;
+        mTick.run();
+    }
+
+    void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mTick);
+    }
+
+    /**
+     * @return gain the players should be at right now
+     */
+    float getGain() {
+        return mGain;
+    }
+
+    /**
+     * @param t position in the ramp from 0 to 1
+     * @return gain between 0 and 1
+     */
+    static float getGain(int curve, float t) {
+        switch (curve) {
+            case CURVE_EXPONENTIAL:
+                if (t <= 0f) {
+                    return 0f;
+                }
+                return (float) Math.pow(10, EXPONENTIAL_RANGE_DB * (t - 1f) / 20f);
+            case CURVE_LOGARITHMIC:
+                return (float) Math.log10(1f + 9f * t);
+            case CURVE_LINEAR:
+            default:
+                return t;
+        }
+    }
+}
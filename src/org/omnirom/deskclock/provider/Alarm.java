@@ -367,6 +367,16 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         this.preAlarmRingtoneName = fromAlarm.preAlarmRingtoneName;
     }
 
+    /**
+     * Returns a copy of this alarm that keeps the id, unlike {@link #Alarm(Alarm)}.
+     */
+    Alarm copy() {
+        Alarm copy = new Alarm(this);
+        copy.id = id;
+        copy.daysOfWeek = new DaysOfWeek(daysOfWeek.getBitSet());
+        return copy;
+    }
+
     public String getLabelOrDefault(Context context) {
         if (label == null || label.length() == 0) {
             return context.getString(org.omnirom.deskclock.R.string.default_label);
@@ -400,27 +410,12 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
     }
 
     public AlarmInstance createInstanceAfter(Calendar time) {
-        Calendar nextInstanceTime = Calendar.getInstance();
-        nextInstanceTime.set(Calendar.YEAR, time.get(Calendar.YEAR));
-        nextInstanceTime.set(Calendar.MONTH, time.get(Calendar.MONTH));
-        nextInstanceTime.set(Calendar.DAY_OF_MONTH, time.get(Calendar.DAY_OF_MONTH));
-        nextInstanceTime.set(Calendar.HOUR_OF_DAY, hour);
-        nextInstanceTime.set(Calendar.MINUTE, minutes);
-        nextInstanceTime.set(Calendar.SECOND, 0);
-        nextInstanceTime.set(Calendar.MILLISECOND, 0);
-
-        // If we are still behind the passed in time, then add a day
-        if (nextInstanceTime.getTimeInMillis() <= time.getTimeInMillis()) {
-            nextInstanceTime.add(Calendar.DAY_OF_YEAR, 1);
-        }
-
-        // The day of the week might be invalid, so find next valid one
-        int addDays = daysOfWeek.calculateDaysToNextAlarm(nextInstanceTime);
-        if (addDays > 0) {
-            nextInstanceTime.add(Calendar.DAY_OF_WEEK, addDays);
-        }
+        return createInstanceAfter(time.getTimeInMillis());
+    }
 
-        AlarmInstance result = new AlarmInstance(nextInstanceTime, id);
+    public AlarmInstance createInstanceAfter(long timeInMillis) {
+        AlarmInstance result = new AlarmInstance(
+                daysOfWeek.nextOccurrence(timeInMillis, hour, minutes), id);
         result.mVibrate = vibrate;
         result.mLabel = label;
         result.mRingtone = alert;
@@ -436,6 +431,17 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         return result;
     }
 
+    /**
+     * Returns the next times this alarm fires after timeInMillis, without creating
+     * instances for them.
+     *
+     * @param count of occurrences wanted
+     * @return ascending times in millis, only one if the alarm does not repeat
+     */
+    public long[] nextOccurrences(long timeInMillis, int count) {
+        return daysOfWeek.nextOccurrences(timeInMillis, hour, minutes, count);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof Alarm)) return false;
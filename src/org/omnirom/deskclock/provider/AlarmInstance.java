@@ -25,6 +25,7 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
 import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
 
 import org.omnirom.deskclock.LogUtils;
 import org.omnirom.deskclock.SettingsActivity;
@@ -67,6 +68,11 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
      */
     public static final long INVALID_ID = -1;
 
+    /**
+     * Returned by the timeout getters when the alarm silence setting is "None".
+     */
+    public static final long NO_TIMEOUT = -1;
+
     private static final String[] QUERY_COLUMNS = {
             _ID,
             YEAR,
@@ -116,10 +122,13 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
     private static final int PRE_ALARM_RINGTONE_NAME_INDEX = 19;
     private static final int COLUMN_COUNT = PRE_ALARM_RINGTONE_NAME_INDEX + 1;
 
+    // Number of content values written, QUERY_COLUMNS plus the derived ALARM_TIME
+    private static final int VALUES_COUNT = COLUMN_COUNT + 1;
+
     private Calendar mTimeout;
 
     public static ContentValues createContentValues(AlarmInstance instance) {
-        ContentValues values = new ContentValues(COLUMN_COUNT);
+        ContentValues values = new ContentValues(VALUES_COUNT);
         if (instance.mId != INVALID_ID) {
             values.put(_ID, instance.mId);
         }
@@ -154,6 +163,7 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
         values.put(RANDOM_MODE, instance.mRandomMode);
         values.put(RINGTONE_NAME, instance.mRingtoneName);
         values.put(PRE_ALARM_RINGTONE_NAME, instance.mPreAlarmRingtoneName);
+        values.put(ALARM_TIME, instance.getAlarmTimeMillis());
         return values;
     }
 
@@ -198,6 +208,30 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
         return result;
     }
 
+    /**
+     * Get the active instance that will fire next.
+     *
+     * @param contentResolver to perform the query on.
+     * @return earliest instance before PRE_ALARM_STATE, null if none found
+     */
+    public static AlarmInstance getNextActiveInstance(ContentResolver contentResolver) {
+        Cursor cursor = contentResolver.query(NEXT_INSTANCE_URI, QUERY_COLUMNS, null, null, null);
+        AlarmInstance result = null;
+        if (cursor == null) {
+            return result;
+        }
+
+        try {
+            if (cursor.moveToFirst()) {
+                result = new AlarmInstance(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return result;
+    }
+
     /**
      * Get an alarm instances by alarmId.
      *
@@ -207,7 +241,7 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
      */
     public static List<AlarmInstance> getInstancesByAlarmId(ContentResolver contentResolver,
             long alarmId) {
-        return getInstances(contentResolver, ALARM_ID + "=" + alarmId);
+        return getInstances(contentResolver, ALARM_ID + "=?", Long.toString(alarmId));
     }
 
     /**
@@ -249,8 +283,8 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
         // Make sure we are not adding a duplicate instances. This is not a
         // fix and should never happen. This is only a safe guard against bad code, and you
         // should fix the root issue if you see the error message.
-        String dupSelector = ALARM_ID + " = " + instance.mAlarmId;
-        for (AlarmInstance otherInstances : getInstances(contentResolver, dupSelector)) {
+        for (AlarmInstance otherInstances : getInstances(contentResolver, ALARM_ID + "=?",
+                String.valueOf(instance.mAlarmId))) {
             if (otherInstances.getAlarmTime().equals(instance.getAlarmTime())) {
                 LogUtils.i("Detected duplicate instance in DB. Updating " + otherInstances + " to "
                         + instance);
@@ -308,8 +342,17 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
     }
 
     public AlarmInstance(Calendar calendar) {
+        this(calendar.getTimeInMillis());
+    }
+
+    public AlarmInstance(long timeInMillis, Long alarmId) {
+        this(timeInMillis);
+        mAlarmId = alarmId;
+    }
+
+    public AlarmInstance(long timeInMillis) {
         mId = INVALID_ID;
-        setAlarmTime(calendar);
+        setAlarmTime(timeInMillis);
         mLabel = "";
         mVibrate = false;
         mIncreasingVolume = 0;
@@ -358,6 +401,33 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
         mPreAlarmRingtoneName = c.getString(PRE_ALARM_RINGTONE_NAME_INDEX);
     }
 
+    private AlarmInstance(AlarmInstance other) {
+        mId = other.mId;
+        mYear = other.mYear;
+        mMonth = other.mMonth;
+        mDay = other.mDay;
+        mHour = other.mHour;
+        mMinute = other.mMinute;
+        mLabel = other.mLabel;
+        mVibrate = other.mVibrate;
+        mRingtone = other.mRingtone;
+        mAlarmId = other.mAlarmId;
+        mAlarmState = other.mAlarmState;
+        mIncreasingVolume = other.mIncreasingVolume;
+        mPreAlarm = other.mPreAlarm;
+        mAlarmVolume = other.mAlarmVolume;
+        mPreAlarmVolume = other.mPreAlarmVolume;
+        mPreAlarmTime = other.mPreAlarmTime;
+        mPreAlarmRingtone = other.mPreAlarmRingtone;
+        mRandomMode = other.mRandomMode;
+        mRingtoneName = other.mRingtoneName;
+        mPreAlarmRingtoneName = other.mPreAlarmRingtoneName;
+    }
+
+    AlarmInstance copy() {
+        return new AlarmInstance(this);
+    }
+
     public String getLabelOrDefault(Context context) {
         return mLabel.isEmpty() ? context.getString(org.omnirom.deskclock.R.string.default_label) : mLabel;
     }
@@ -370,6 +440,16 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
         mMinute = calendar.get(Calendar.MINUTE);
     }
 
+    public void setAlarmTime(long timeInMillis) {
+        int date = LocalTimes.toDate(LocalTimes.toEpochDay(timeInMillis));
+        int minuteOfDay = LocalTimes.toMinuteOfDay(timeInMillis);
+        mYear = LocalTimes.yearOf(date);
+        mMonth = LocalTimes.monthOf(date);
+        mDay = LocalTimes.dayOf(date);
+        mHour = minuteOfDay / 60;
+        mMinute = minuteOfDay % 60;
+    }
+
     /**
      * Return the time when a alarm should fire.
      *
@@ -377,96 +457,77 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
      */
     public Calendar getAlarmTime() {
         Calendar calendar = Calendar.getInstance();
-        calendar.set(Calendar.YEAR, mYear);
-        calendar.set(Calendar.MONTH, mMonth);
-        calendar.set(Calendar.DAY_OF_MONTH, mDay);
-        calendar.set(Calendar.HOUR_OF_DAY, mHour);
-        calendar.set(Calendar.MINUTE, mMinute);
-        calendar.set(Calendar.SECOND, 0);
-        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.setTimeInMillis(getAlarmTimeMillis());
         return calendar;
     }
 
     /**
-     * Return the time when a pre alarm should fire.
+     * Return the time when a alarm should fire.
      *
-     * @return the time
+     * @return the time in millis
      */
-    public Calendar getPreAlarmTime() {
-        Calendar preAlarmTime = getAlarmTime();
-        preAlarmTime.add(Calendar.MINUTE, -(mPreAlarmTime));
-        return preAlarmTime;
+    public long getAlarmTimeMillis() {
+        return LocalTimes.toMillis(mYear, mMonth, mDay, mHour, mMinute);
     }
 
     /**
-     * Return the time when a low priority notification should be shown.
+     * Return the time when a pre alarm should fire.
      *
-     * @return the time
+     * @return the time in millis
      */
-    /*public Calendar getLowNotificationTime() {
-        Calendar calendar = getPreAlarmTime();
-        calendar.add(Calendar.HOUR_OF_DAY, LOW_NOTIFICATION_HOUR_OFFSET);
-        return calendar;
-    }*/
+    public long getPreAlarmTimeMillis() {
+        return getAlarmTimeMillis() - mPreAlarmTime * DateUtils.MINUTE_IN_MILLIS;
+    }
 
     /**
      * Return the time when a high priority notification should be shown.
      *
-     * @return the time
+     * @return the time in millis
      */
-    public Calendar getHighNotificationTime(int notificationOffset) {
-        Calendar calendar = mPreAlarm ? getPreAlarmTime() : getAlarmTime();
-        calendar.add(Calendar.MINUTE, notificationOffset);
-        return calendar;
+    public long getHighNotificationTimeMillis(int notificationOffset) {
+        long time = mPreAlarm ? getPreAlarmTimeMillis() : getAlarmTimeMillis();
+        return time + notificationOffset * DateUtils.MINUTE_IN_MILLIS;
     }
 
     /**
      * Return the time when a missed notification should be removed.
      *
-     * @return the time
+     * @return the time in millis
      */
-    public Calendar getMissedTimeToLive() {
-        Calendar calendar = getAlarmTime();
-        calendar.add(Calendar.HOUR, MISSED_TIME_TO_LIVE_HOUR_OFFSET);
-        return calendar;
+    public long getMissedTimeToLiveMillis() {
+        return getAlarmTimeMillis() + MISSED_TIME_TO_LIVE_HOUR_OFFSET * DateUtils.HOUR_IN_MILLIS;
     }
 
     /**
      * Return the time when the alarm should stop firing and be marked as missed.
      *
      * @param context to figure out the timeout setting
-     * @return the time when alarm should be silence, or null if never
+     * @return the time in millis when alarm should be silenced, or NO_TIMEOUT if never
      */
-    public Calendar getTimeout(Context context) {
+    public long getTimeoutMillis(Context context) {
         int timeoutMinutes = Utils.getTimeoutValue(context);
 
         // Alarm silence has been set to "None"
         if (timeoutMinutes < 0) {
-            return null;
+            return NO_TIMEOUT;
         }
-
-        Calendar calendar = getAlarmTime();
-        calendar.add(Calendar.MINUTE, timeoutMinutes);
-        return calendar;
+        return getAlarmTimeMillis() + timeoutMinutes * DateUtils.MINUTE_IN_MILLIS;
     }
 
     /**
      * Return the time when the pre-alarm should stop be silenced
      *
      * @param context to figure out the timeout setting
-     * @return the time when alarm should be silence, or null if never
+     * @return the time in millis when alarm should be silenced, or NO_TIMEOUT if never
      */
-    public Calendar getPreAlarmTimeout(Context context) {
+    public long getPreAlarmTimeoutMillis(Context context) {
         int timeoutMinutes = Utils.getTimeoutValue(context);
 
         // Alarm silence has been set to "None"
         if (timeoutMinutes < 0) {
-            return null;
+            return NO_TIMEOUT;
         }
-
-        Calendar calendar = getPreAlarmTime();
-        calendar.add(Calendar.MINUTE, timeoutMinutes);
-        return calendar;
+        return getPreAlarmTimeMillis() + timeoutMinutes * DateUtils.MINUTE_IN_MILLIS;
     }
 
     public boolean getDismissAll(Context context) {
@@ -0,0 +1,445 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.provider;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.util.LongSparseArray;
+
+import org.omnirom.deskclock.LogUtils;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Process wide write-through cache of the alarms and alarm instances tables.
+ *
+ * Both tables are loaded on first use. Writes made through the repository go to
+ * the database and then update the cache directly. {@link ClockProvider} reports
+ * every other write, so rows changed behind the repository's back are read again
+ * on next access and table wide changes drop the table.
+ *
+ * Callers always get their own copies, the cached objects are never handed out.
+ * The lock is never held while talking to the provider, since the provider
+ * calls back into the repository from within its writes. Writes of a row hold a
+ * lock of that row instead, across the database write and the cache update, so
+ * the cache always ends up with the copy written last.
+ */
+public final class AlarmRepository {
+    private static final String LOGTAG = AlarmRepository.class.getSimpleName();
+
+    // Number of row locks per table, a power of two
+    private static final int ROW_LOCK_COUNT = 16;
+
+    private static AlarmRepository sInstance;
+
+    private final ContentResolver mResolver;
+
+    private final LongSparseArray<Alarm> mAlarms = new LongSparseArray<Alarm>();
+    private final LongSparseArray<AlarmInstance> mInstances = new LongSparseArray<AlarmInstance>();
+
+    // Rows are spread over a fixed set of locks, writes of the same row always share one
+    private final Object[] mAlarmRowLocks = createRowLocks();
+    private final Object[] mInstanceRowLocks = createRowLocks();
+
+    // Rows changed outside of the repository which must be read again, mapped to the
+    // sequence number of their last change
+    private final LongSparseArray<Integer> mStaleAlarms = new LongSparseArray<Integer>();
+    private final LongSparseArray<Integer> mStaleInstances = new LongSparseArray<Integer>();
+    private int mChangeSequence;
+
+    private boolean mAlarmsLoaded;
+    private boolean mInstancesLoaded;
+
+    // Incremented when a whole table gets dropped, so a load racing with it is not trusted
+    private int mAlarmsGeneration;
+    private int mInstancesGeneration;
+
+    public static synchronized AlarmRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AlarmRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private AlarmRepository(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    private static Object[] createRowLocks() {
+        Object[] locks = new Object[ROW_LOCK_COUNT];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    private static Object rowLock(Object[] locks, long id) {
+        return locks[(int) (id & (ROW_LOCK_COUNT - 1))];
+    }
+
+    /**
+     * Called by the provider after an alarm row was written.
+     *
+     * @param alarmId of the changed row, or {@link Alarm#INVALID_ID} if the
+     *                whole table may have changed
+     */
+    static void onAlarmChanged(long alarmId) {
+        final AlarmRepository repository;
+        synchronized (AlarmRepository.class) {
+            repository = sInstance;
+        }
+        if (repository != null) {
+            repository.invalidateAlarm(alarmId);
+        }
+    }
+
+    /**
+     * Called by the provider after an instance row was written.
+     *
+     * @param instanceId of the changed row, or {@link AlarmInstance#INVALID_ID}
+     *                   if the whole table may have changed
+     */
+    static void onInstanceChanged(long instanceId) {
+        final AlarmRepository repository;
+        synchronized (AlarmRepository.class) {
+            repository = sInstance;
+        }
+        if (repository != null) {
+            repository.invalidateInstance(instanceId);
+        }
+    }
+
+    private synchronized void invalidateAlarm(long alarmId) {
+        if (alarmId == Alarm.INVALID_ID) {
+            mAlarms.clear();
+            mStaleAlarms.clear();
+            mAlarmsLoaded = false;
+            mAlarmsGeneration++;
+        } else if (mAlarmsLoaded) {
+            mAlarms.remove(alarmId);
+            mStaleAlarms.put(alarmId, ++mChangeSequence);
+        }
+    }
+
+    private synchronized void invalidateInstance(long instanceId) {
+        if (instanceId == AlarmInstance.INVALID_ID) {
+            mInstances.clear();
+            mStaleInstances.clear();
+            mInstancesLoaded = false;
+            mInstancesGeneration++;
+        } else if (mInstancesLoaded) {
+            mInstances.remove(instanceId);
+            mStaleInstances.put(instanceId, ++mChangeSequence);
+        }
+    }
+
+    private void ensureAlarms() {
+        // Loop until no reload raced with a table or row invalidation
+        while (true) {
+            final int generation;
+            final long[] staleIds;
+            synchronized (this) {
+                if (mAlarmsLoaded && mStaleAlarms.size() == 0) {
+                    return;
+                }
+                generation = mAlarmsGeneration;
+                staleIds = mAlarmsLoaded ? keysOf(mStaleAlarms) : null;
+            }
+
+            if (staleIds == null) {
+                List<Alarm> alarms = Alarm.getAlarms(mResolver, null);
+                synchronized (this) {
+                    if (generation == mAlarmsGeneration && !mAlarmsLoaded) {
+                        for (Alarm alarm : alarms) {
+                            mAlarms.put(alarm.id, alarm);
+                        }
+                        mAlarmsLoaded = true;
+                        LogUtils.v(LOGTAG, "Loaded " + alarms.size() + " alarms");
+                    }
+                }
+            } else {
+                for (long alarmId : staleIds) {
+                    final Integer change;
+                    synchronized (this) {
+                        change = mStaleAlarms.get(alarmId);
+                    }
+                    if (change == null) {
+                        continue;
+                    }
+                    Alarm alarm = Alarm.getAlarm(mResolver, alarmId);
+                    synchronized (this) {
+                        if (generation == mAlarmsGeneration
+                                && change.equals(mStaleAlarms.get(alarmId))) {
+                            mStaleAlarms.remove(alarmId);
+                            if (alarm != null) {
+                                mAlarms.put(alarmId, alarm);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void ensureInstances() {
+        // Loop until no reload raced with a table or row invalidation
+        while (true) {
+            final int generation;
+            final long[] staleIds;
+            synchronized (this) {
+                if (mInstancesLoaded && mStaleInstances.size() == 0) {
+                    return;
+                }
+                generation = mInstancesGeneration;
+                staleIds = mInstancesLoaded ? keysOf(mStaleInstances) : null;
+            }
+
+            if (staleIds == null) {
+                List<AlarmInstance> instances = AlarmInstance.getInstances(mResolver, null);
+                synchronized (this) {
+                    if (generation == mInstancesGeneration && !mInstancesLoaded) {
+                        for (AlarmInstance instance : instances) {
+                            mInstances.put(instance.mId, instance);
+                        }
+                        mInstancesLoaded = true;
+                        LogUtils.v(LOGTAG, "Loaded " + instances.size() + " alarm instances");
+                    }
+                }
+            } else {
+                for (long instanceId : staleIds) {
+                    final Integer change;
+                    synchronized (this) {
+                        change = mStaleInstances.get(instanceId);
+                    }
+                    if (change == null) {
+                        continue;
+                    }
+                    AlarmInstance instance = AlarmInstance.getInstance(mResolver, instanceId);
+                    synchronized (this) {
+                        if (generation == mInstancesGeneration
+                                && change.equals(mStaleInstances.get(instanceId))) {
+                            mStaleInstances.remove(instanceId);
+                            if (instance != null) {
+                                mInstances.put(instanceId, instance);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static long[] keysOf(LongSparseArray<?> array) {
+        long[] keys = new long[array.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = array.keyAt(i);
+        }
+        return keys;
+    }
+
+    /**
+     * Get alarm by id.
+     *
+     * @param alarmId for the desired alarm.
+     * @return copy of the alarm if found, null otherwise
+     */
+    public Alarm getAlarm(long alarmId) {
+        ensureAlarms();
+        synchronized (this) {
+            Alarm alarm = mAlarms.get(alarmId);
+            return alarm == null ? null : alarm.copy();
+        }
+    }
+
+    /**
+     * Get all alarms.
+     *
+     * @return copies of all alarms, in no particular order
+     */
+    public List<Alarm> getAlarms() {
+        ensureAlarms();
+        List<Alarm> result = new LinkedList<Alarm>();
+        synchronized (this) {
+            for (int i = 0; i < mAlarms.size(); i++) {
+                result.add(mAlarms.valueAt(i).copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get alarm instance by id.
+     *
+     * @param instanceId for the desired instance.
+     * @return copy of the instance if found, null otherwise
+     */
+    public AlarmInstance getInstance(long instanceId) {
+        ensureInstances();
+        synchronized (this) {
+            AlarmInstance instance = mInstances.get(instanceId);
+            return instance == null ? null : instance.copy();
+        }
+    }
+
+    /**
+     * Get all alarm instances.
+     *
+     * @return copies of all instances, in no particular order
+     */
+    public List<AlarmInstance> getInstances() {
+        ensureInstances();
+        List<AlarmInstance> result = new LinkedList<AlarmInstance>();
+        synchronized (this) {
+            for (int i = 0; i < mInstances.size(); i++) {
+                result.add(mInstances.valueAt(i).copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the alarm instances owned by an alarm.
+     *
+     * @param alarmId of instances desired.
+     * @return copies of the instances owned by alarmId.
+     */
+    public List<AlarmInstance> getInstancesByAlarmId(long alarmId) {
+        ensureInstances();
+        List<AlarmInstance> result = new LinkedList<AlarmInstance>();
+        synchronized (this) {
+            for (int i = 0; i < mInstances.size(); i++) {
+                AlarmInstance instance = mInstances.valueAt(i);
+                if (instance.mAlarmId != null && instance.mAlarmId == alarmId) {
+                    result.add(instance.copy());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the active instance that will fire next.
+     *
+     * @return copy of the earliest instance before PRE_ALARM_STATE, null if none found
+     */
+    public AlarmInstance getNextActiveInstance() {
+        final boolean loaded;
+        synchronized (this) {
+            loaded = mInstancesLoaded;
+        }
+        if (!loaded) {
+            // A single indexed row read is cheaper than loading the whole table
+            return AlarmInstance.getNextActiveInstance(mResolver);
+        }
+
+        ensureInstances();
+        synchronized (this) {
+            AlarmInstance next = null;
+            long nextTime = Long.MAX_VALUE;
+            for (int i = 0; i < mInstances.size(); i++) {
+                AlarmInstance instance = mInstances.valueAt(i);
+                if (instance.mAlarmState < AlarmInstance.PRE_ALARM_STATE) {
+                    long time = instance.getAlarmTimeMillis();
+                    if (time < nextTime) {
+                        next = instance;
+                        nextTime = time;
+                    }
+                }
+            }
+            return next == null ? null : next.copy();
+        }
+    }
+
+    public Alarm addAlarm(Alarm alarm) {
+        Alarm.addAlarm(mResolver, alarm);
+        // The id is only known now, someone may already have read and written the new row
+        synchronized (rowLock(mAlarmRowLocks, alarm.id)) {
+            putAlarm(alarm, false);
+        }
+        return alarm;
+    }
+
+    public boolean updateAlarm(Alarm alarm) {
+        synchronized (rowLock(mAlarmRowLocks, alarm.id)) {
+            boolean updated = Alarm.updateAlarm(mResolver, alarm);
+            if (updated) {
+                putAlarm(alarm, true);
+            }
+            return updated;
+        }
+    }
+
+    public boolean deleteAlarm(long alarmId) {
+        synchronized (rowLock(mAlarmRowLocks, alarmId)) {
+            boolean deleted = Alarm.deleteAlarm(mResolver, alarmId);
+            synchronized (this) {
+                mAlarms.remove(alarmId);
+                mStaleAlarms.remove(alarmId);
+            }
+            return deleted;
+        }
+    }
+
+    public AlarmInstance addInstance(AlarmInstance instance) {
+        AlarmInstance.addInstance(mResolver, instance);
+        // The id is only known now, someone may already have read and written the new row
+        synchronized (rowLock(mInstanceRowLocks, instance.mId)) {
+            putInstance(instance, false);
+        }
+        return instance;
+    }
+
+    public boolean updateInstance(AlarmInstance instance) {
+        synchronized (rowLock(mInstanceRowLocks, instance.mId)) {
+            boolean updated = AlarmInstance.updateInstance(mResolver, instance);
+            if (updated) {
+                putInstance(instance, true);
+            }
+            return updated;
+        }
+    }
+
+    public boolean deleteInstance(long instanceId) {
+        synchronized (rowLock(mInstanceRowLocks, instanceId)) {
+            boolean deleted = AlarmInstance.deleteInstance(mResolver, instanceId);
+            synchronized (this) {
+                mInstances.remove(instanceId);
+                mStaleInstances.remove(instanceId);
+            }
+            return deleted;
+        }
+    }
+
+    // Must hold the row lock. A cached copy is only kept on replace, any cached copy of
+    // a just added row was read or written after the insert.
+    private synchronized void putAlarm(Alarm alarm, boolean replace) {
+        if (mAlarmsLoaded && (replace || mAlarms.get(alarm.id) == null)) {
+            mAlarms.put(alarm.id, alarm.copy());
+            mStaleAlarms.remove(alarm.id);
+        }
+    }
+
+    // Must hold the row lock, see putAlarm
+    private synchronized void putInstance(AlarmInstance instance, boolean replace) {
+        if (mInstancesLoaded && (replace || mInstances.get(instance.mId) == null)) {
+            mInstances.put(instance.mId, instance.copy());
+            mStaleInstances.remove(instance.mId);
+        }
+    }
+}
@@ -34,6 +34,7 @@ import android.provider.BaseColumns;
  * alarm in the AlarmsColumn table.
  * </li>
  * <li>The {@link CitiesColumns} table holds all user selectable cities</li>
+ * <li>The {@link TimersColumns} table holds the countdown timers</li>
  * </ul>
  */
 public final class ClockContract {
@@ -187,6 +188,12 @@ public final class ClockContract {
          */
         public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/instances");
 
+        /**
+         * The content:// style URL returning only the active instance that
+         * will fire next, or an empty cursor if there is none.
+         */
+        public static final Uri NEXT_INSTANCE_URI = Uri.parse("content://" + AUTHORITY + "/instances/next");
+
         /**
          * Alarm state when to show no notification.
          *
@@ -317,6 +324,13 @@ public final class ClockContract {
          * <p>Type: INTEGER</p>
          */
         public static final String ALARM_STATE = "alarm_state";
+
+        /**
+         * Alarm fire time in milliseconds since epoch, derived from the
+         * year, month, day, hour and minutes columns on every write.
+         * <p>Type: INTEGER (long)</p>
+         */
+        public static final String ALARM_TIME = "alarm_time";
     }
 
     /**
@@ -352,4 +366,56 @@ public final class ClockContract {
          */
         public static final String TIMEZONE_OFFSET = "timezone_offset";
     }
+
+    /**
+     * Constants for the Timers table, which contains the countdown timers.
+     */
+    protected interface TimersColumns extends BaseColumns {
+        /**
+         * The content:// style URL for this table.
+         */
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/timers");
+
+        /**
+         * Elapsed realtime the timer was last started at.
+         * <p>Type: INTEGER (long)</p>
+         */
+        public static final String START_TIME = "start_time";
+
+        /**
+         * Time left in milliseconds when the timer was last updated.
+         * <p>Type: INTEGER (long)</p>
+         */
+        public static final String TIME_LEFT = "time_left";
+
+        /**
+         * Length in milliseconds, including time added after the timer went off.
+         * <p>Type: INTEGER (long)</p>
+         */
+        public static final String ORIGINAL_LENGTH = "original_length";
+
+        /**
+         * Length in milliseconds the timer was set up with.
+         * <p>Type: INTEGER (long)</p>
+         */
+        public static final String SETUP_LENGTH = "setup_length";
+
+        /**
+         * Timer state, one of the TimerObj STATE_* constants.
+         * <p>Type: INTEGER</p>
+         */
+        public static final String STATE = "state";
+
+        /**
+         * Timer label.
+         * <p>Type: STRING</p>
+         */
+        public static final String LABEL = "label";
+
+        /**
+         * True if the timer is deleted after it went off.
+         * <p>Type: BOOLEAN</p>
+         */
+        public static final String DELETE_AFTER_USE = "delete_after_use";
+    }
 }
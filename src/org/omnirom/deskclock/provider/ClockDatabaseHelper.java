@@ -18,16 +18,20 @@ package org.omnirom.deskclock.provider;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
 import org.omnirom.deskclock.LogUtils;
 
 import java.util.Calendar;
+import java.util.Set;
 
 /**
  * Helper class for opening the database from multiple providers.  Also provides
@@ -62,12 +66,39 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
      */
     private static final int VERSION_9 = 9;
 
+    /**
+     * Added precomputed alarm time to instance table
+     */
+    private static final int VERSION_10 = 10;
+
+    /**
+     * Added alarm id and alarm state indexes to instance table
+     */
+    private static final int VERSION_11 = 11;
+
+    /**
+     * Added timers table, migrated from shared preferences
+     */
+    private static final int VERSION_12 = 12;
+
     // Database and table names
     static final String DATABASE_NAME = "alarms.db";
     static final String OLD_ALARMS_TABLE_NAME = "alarms";
     static final String ALARMS_TABLE_NAME = "alarm_templates";
     static final String INSTANCES_TABLE_NAME = "alarm_instances";
     static final String CITIES_TABLE_NAME = "selected_cities";
+    static final String TIMERS_TABLE_NAME = "timers";
+
+    // Shared preference keys timers were kept under before VERSION_12
+    private static final String PREF_TIMERS_LIST = "timers_list";
+    private static final String PREF_TIMER_ID = "timer_id_";
+    private static final String PREF_START_TIME = "timer_start_time_";
+    private static final String PREF_TIME_LEFT = "timer_time_left_";
+    private static final String PREF_ORIGINAL_TIME = "timer_original_timet_";
+    private static final String PREF_SETUP_TIME = "timer_setup_timet_";
+    private static final String PREF_STATE = "timer_state_";
+    private static final String PREF_LABEL = "timer_label_";
+    private static final String PREF_DELETE_AFTER_USE = "delete_after_use_";
 
     private static void createAlarmsTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE " + ALARMS_TABLE_NAME + " (" +
@@ -115,10 +146,51 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
                 ClockContract.InstancesColumns.PRE_ALARM_RINGTONE + " TEXT, " +
                 ClockContract.InstancesColumns.RANDOM_MODE + " INTEGER NOT NULL DEFAULT 0, " +
                 ClockContract.InstancesColumns.RINGTONE_NAME + " TEXT, " +
-                ClockContract.InstancesColumns.PRE_ALARM_RINGTONE_NAME + " TEXT);");
+                ClockContract.InstancesColumns.PRE_ALARM_RINGTONE_NAME + " TEXT, " +
+                ClockContract.InstancesColumns.ALARM_TIME + " INTEGER NOT NULL DEFAULT 0);");
+        createInstanceIndexes(db);
         LogUtils.i("Instance table created");
     }
 
+    private static void createInstanceIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INSTANCES_TABLE_NAME + "_alarm_time_idx ON " +
+                INSTANCES_TABLE_NAME + "(" + ClockContract.InstancesColumns.ALARM_TIME + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INSTANCES_TABLE_NAME + "_alarm_id_idx ON " +
+                INSTANCES_TABLE_NAME + "(" + ClockContract.InstancesColumns.ALARM_ID + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INSTANCES_TABLE_NAME + "_alarm_state_idx ON " +
+                INSTANCES_TABLE_NAME + "(" + ClockContract.InstancesColumns.ALARM_STATE + ");");
+    }
+
+    /**
+     * Fill in the alarm time column for all existing instances.
+     */
+    private static void updateInstanceAlarmTimes(SQLiteDatabase db) {
+        final String[] columns = {
+                ClockContract.InstancesColumns._ID,
+                ClockContract.InstancesColumns.YEAR,
+                ClockContract.InstancesColumns.MONTH,
+                ClockContract.InstancesColumns.DAY,
+                ClockContract.InstancesColumns.HOUR,
+                ClockContract.InstancesColumns.MINUTES,
+        };
+        Cursor cursor = db.query(INSTANCES_TABLE_NAME, columns, null, null, null, null, null);
+        Calendar calendar = Calendar.getInstance();
+        ContentValues values = new ContentValues(1);
+        try {
+            while (cursor.moveToNext()) {
+                calendar.set(cursor.getInt(1), cursor.getInt(2), cursor.getInt(3),
+                        cursor.getInt(4), cursor.getInt(5), 0);
+                calendar.set(Calendar.MILLISECOND, 0);
+                values.put(ClockContract.InstancesColumns.ALARM_TIME, calendar.getTimeInMillis());
+                db.update(INSTANCES_TABLE_NAME, values,
+                        ClockContract.InstancesColumns._ID + " = ?",
+                        new String[]{cursor.getLong(0) + ""});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     private static void createCitiesTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE " + CITIES_TABLE_NAME + " (" +
                 ClockContract.CitiesColumns.CITY_ID + " TEXT PRIMARY KEY," +
@@ -128,10 +200,91 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
         LogUtils.i("Cities table created");
     }
 
+    private static void createTimersTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TIMERS_TABLE_NAME + " (" +
+                ClockContract.TimersColumns._ID + " INTEGER PRIMARY KEY," +
+                ClockContract.TimersColumns.START_TIME + " INTEGER NOT NULL, " +
+                ClockContract.TimersColumns.TIME_LEFT + " INTEGER NOT NULL, " +
+                ClockContract.TimersColumns.ORIGINAL_LENGTH + " INTEGER NOT NULL, " +
+                ClockContract.TimersColumns.SETUP_LENGTH + " INTEGER NOT NULL, " +
+                ClockContract.TimersColumns.STATE + " INTEGER NOT NULL, " +
+                ClockContract.TimersColumns.LABEL + " TEXT, " +
+                ClockContract.TimersColumns.DELETE_AFTER_USE + " INTEGER NOT NULL DEFAULT 0);");
+        LogUtils.i("Timers table created");
+    }
+
+    /**
+     * Copy the timers kept in the default shared preferences into the timers
+     * table. The keys are only dropped by {@link #dropMigratedTimerPrefs} once
+     * the table was committed, since this runs within the create or upgrade
+     * transaction, which may still be rolled back.
+     */
+    private void migrateTimersFromSharedPrefs(SQLiteDatabase db) {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        final Set<String> timerIds = prefs.getStringSet(PREF_TIMERS_LIST, null);
+        if (timerIds == null) {
+            return;
+        }
+
+        final ContentValues values = new ContentValues(8);
+        for (String id : timerIds) {
+            values.clear();
+            values.put(ClockContract.TimersColumns._ID, Integer.parseInt(id));
+            values.put(ClockContract.TimersColumns.START_TIME,
+                    prefs.getLong(PREF_START_TIME + id, 0));
+            values.put(ClockContract.TimersColumns.TIME_LEFT,
+                    prefs.getLong(PREF_TIME_LEFT + id, 0));
+            values.put(ClockContract.TimersColumns.ORIGINAL_LENGTH,
+                    prefs.getLong(PREF_ORIGINAL_TIME + id, 0));
+            values.put(ClockContract.TimersColumns.SETUP_LENGTH,
+                    prefs.getLong(PREF_SETUP_TIME + id, 0));
+            values.put(ClockContract.TimersColumns.STATE, prefs.getInt(PREF_STATE + id, 0));
+            values.put(ClockContract.TimersColumns.LABEL, prefs.getString(PREF_LABEL + id, ""));
+            values.put(ClockContract.TimersColumns.DELETE_AFTER_USE,
+                    prefs.getBoolean(PREF_DELETE_AFTER_USE + id, false) ? 1 : 0);
+            db.insertWithOnConflict(TIMERS_TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+        }
+        LogUtils.i("Migrated " + timerIds.size() + " timers from shared preferences");
+    }
+
+    /**
+     * Drop the legacy timer keys of all timers that made it into the timers table.
+     */
+    private void dropMigratedTimerPrefs(SQLiteDatabase db) {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        final Set<String> timerIds = prefs.getStringSet(PREF_TIMERS_LIST, null);
+        if (timerIds == null) {
+            return;
+        }
+
+        final SharedPreferences.Editor editor = prefs.edit();
+        boolean allMigrated = true;
+        for (String id : timerIds) {
+            if (DatabaseUtils.queryNumEntries(db, TIMERS_TABLE_NAME,
+                    ClockContract.TimersColumns._ID + "=?", new String[] { id }) == 0) {
+                allMigrated = false;
+                continue;
+            }
+            editor.remove(PREF_TIMER_ID + id);
+            editor.remove(PREF_START_TIME + id);
+            editor.remove(PREF_TIME_LEFT + id);
+            editor.remove(PREF_ORIGINAL_TIME + id);
+            editor.remove(PREF_SETUP_TIME + id);
+            editor.remove(PREF_STATE + id);
+            editor.remove(PREF_LABEL + id);
+            editor.remove(PREF_DELETE_AFTER_USE + id);
+        }
+        if (allMigrated) {
+            editor.remove(PREF_TIMERS_LIST);
+        }
+        editor.apply();
+    }
+
     private Context mContext;
 
     public ClockDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, VERSION_9);
+        super(context, DATABASE_NAME, null, VERSION_12);
         mContext = context;
     }
 
@@ -140,6 +293,15 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
         createAlarmsTable(db);
         createInstanceTable(db);
         createCitiesTable(db);
+        createTimersTable(db);
+        migrateTimersFromSharedPrefs(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Create and upgrade are committed by now
+        dropMigratedTimerPrefs(db);
     }
 
     @Override
@@ -258,6 +420,21 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
                     + " ADD COLUMN " + ClockContract.InstancesColumns.PRE_ALARM_RINGTONE_NAME
                     + " TEXT;");
         }
+
+        // Tables recreated above already contain the alarm time column
+        if (oldVersion > VERSION_6 && oldVersion < VERSION_10) {
+            db.execSQL("ALTER TABLE " + INSTANCES_TABLE_NAME
+                    + " ADD COLUMN " + ClockContract.InstancesColumns.ALARM_TIME
+                    + " INTEGER NOT NULL DEFAULT 0;");
+            updateInstanceAlarmTimes(db);
+        }
+        if (oldVersion > VERSION_6 && oldVersion < VERSION_11) {
+            createInstanceIndexes(db);
+        }
+        if (oldVersion < VERSION_12) {
+            createTimersTable(db);
+            migrateTimersFromSharedPrefs(db);
+        }
     }
 
     long fixAlarmInsert(ContentValues values) {
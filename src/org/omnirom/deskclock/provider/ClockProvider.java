@@ -17,8 +17,11 @@
 package org.omnirom.deskclock.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -28,6 +31,9 @@ import android.text.TextUtils;
 
 import org.omnirom.deskclock.LogUtils;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
 public class ClockProvider extends ContentProvider {
     private ClockDatabaseHelper mOpenHelper;
     private static final String LOGTAG = ClockProvider.class.getSimpleName();
@@ -38,6 +44,9 @@ public class ClockProvider extends ContentProvider {
     private static final int INSTANCES_ID = 4;
     private static final int CITIES = 5;
     private static final int CITIES_ID = 6;
+    private static final int INSTANCES_NEXT = 7;
+    private static final int TIMERS = 8;
+    private static final int TIMERS_ID = 9;
 
     private static final UriMatcher sURLMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     static {
@@ -45,10 +54,16 @@ public class ClockProvider extends ContentProvider {
         sURLMatcher.addURI(ClockContract.AUTHORITY, "alarms/#", ALARMS_ID);
         sURLMatcher.addURI(ClockContract.AUTHORITY, "instances", INSTANCES);
         sURLMatcher.addURI(ClockContract.AUTHORITY, "instances/#", INSTANCES_ID);
+        sURLMatcher.addURI(ClockContract.AUTHORITY, "instances/next", INSTANCES_NEXT);
         sURLMatcher.addURI(ClockContract.AUTHORITY, "cities", CITIES);
         sURLMatcher.addURI(ClockContract.AUTHORITY, "cities/*", CITIES_ID);
+        sURLMatcher.addURI(ClockContract.AUTHORITY, "timers", TIMERS);
+        sURLMatcher.addURI(ClockContract.AUTHORITY, "timers/#", TIMERS_ID);
     }
 
+    // Table uris changed by the batch currently applied on this thread, if any
+    private final ThreadLocal<HashSet<Uri>> mBatchChanges = new ThreadLocal<HashSet<Uri>>();
+
     public ClockProvider() {
     }
 
@@ -62,6 +77,7 @@ public class ClockProvider extends ContentProvider {
     public Cursor query(Uri uri, String[] projectionIn, String selection, String[] selectionArgs,
             String sort) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        String limit = null;
 
         // Generate the body of the query
         int match = sURLMatcher.match(uri);
@@ -71,24 +87,40 @@ public class ClockProvider extends ContentProvider {
                 break;
             case ALARMS_ID:
                 qb.setTables(ClockDatabaseHelper.ALARMS_TABLE_NAME);
-                qb.appendWhere(ClockContract.AlarmsColumns._ID + "=");
-                qb.appendWhere(uri.getLastPathSegment());
+                qb.appendWhere(ClockContract.AlarmsColumns._ID + "=?");
+                selectionArgs = prependArg(uri.getLastPathSegment(), selectionArgs);
                 break;
             case INSTANCES:
                 qb.setTables(ClockDatabaseHelper.INSTANCES_TABLE_NAME);
                 break;
             case INSTANCES_ID:
                 qb.setTables(ClockDatabaseHelper.INSTANCES_TABLE_NAME);
-                qb.appendWhere(ClockContract.InstancesColumns._ID + "=");
-                qb.appendWhere(uri.getLastPathSegment());
+                qb.appendWhere(ClockContract.InstancesColumns._ID + "=?");
+                selectionArgs = prependArg(uri.getLastPathSegment(), selectionArgs);
+                break;
+            case INSTANCES_NEXT:
+                // Earliest instance that is not firing yet, served by the alarm time index
+                qb.setTables(ClockDatabaseHelper.INSTANCES_TABLE_NAME);
+                qb.appendWhere(ClockContract.InstancesColumns.ALARM_STATE + "<"
+                        + ClockContract.InstancesColumns.PRE_ALARM_STATE);
+                sort = ClockContract.InstancesColumns.ALARM_TIME + " ASC";
+                limit = "1";
                 break;
             case CITIES:
                 qb.setTables(ClockDatabaseHelper.CITIES_TABLE_NAME);
                 break;
             case CITIES_ID:
                 qb.setTables(ClockDatabaseHelper.CITIES_TABLE_NAME);
-                qb.appendWhere(ClockContract.CitiesColumns.CITY_ID + "=");
-                qb.appendWhere(uri.getLastPathSegment());
+                qb.appendWhere(ClockContract.CitiesColumns.CITY_ID + "=?");
+                selectionArgs = prependArg(uri.getLastPathSegment(), selectionArgs);
+                break;
+            case TIMERS:
+                qb.setTables(ClockDatabaseHelper.TIMERS_TABLE_NAME);
+                break;
+            case TIMERS_ID:
+                qb.setTables(ClockDatabaseHelper.TIMERS_TABLE_NAME);
+                qb.appendWhere(ClockContract.TimersColumns._ID + "=?");
+                selectionArgs = prependArg(uri.getLastPathSegment(), selectionArgs);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URL " + uri);
@@ -96,7 +128,7 @@ public class ClockProvider extends ContentProvider {
 
         SQLiteDatabase db = mOpenHelper.getReadableDatabase();
         Cursor ret = qb.query(db, projectionIn, selection, selectionArgs,
-                              null, null, sort);
+                              null, null, sort, limit);
 
         if (ret == null) {
             LogUtils.e(LOGTAG, "Alarms.query: failed");
@@ -118,11 +150,16 @@ public class ClockProvider extends ContentProvider {
             case INSTANCES:
                 return "vnd.android.cursor.dir/instances";
             case INSTANCES_ID:
+            case INSTANCES_NEXT:
                 return "vnd.android.cursor.item/instances";
             case CITIES:
                 return "vnd.android.cursor.dir/cities";
             case CITIES_ID:
                 return "vnd.android.cursor.item/cities";
+            case TIMERS:
+                return "vnd.android.cursor.dir/timers";
+            case TIMERS_ID:
+                return "vnd.android.cursor.item/timers";
             default:
                 throw new IllegalArgumentException("Unknown URL");
         }
@@ -132,41 +169,54 @@ public class ClockProvider extends ContentProvider {
     public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
         int count;
         String alarmId;
+        long rowId = Alarm.INVALID_ID;
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        switch (sURLMatcher.match(uri)) {
+        int match = sURLMatcher.match(uri);
+        switch (match) {
             case ALARMS_ID:
                 alarmId = uri.getLastPathSegment();
+                rowId = Long.parseLong(alarmId);
                 count = db.update(ClockDatabaseHelper.ALARMS_TABLE_NAME, values,
-                        ClockContract.AlarmsColumns._ID + "=" + alarmId,
-                        null);
+                        ClockContract.AlarmsColumns._ID + "=?",
+                        new String[]{alarmId});
                 break;
             case INSTANCES_ID:
                 alarmId = uri.getLastPathSegment();
+                rowId = Long.parseLong(alarmId);
                 count = db.update(ClockDatabaseHelper.INSTANCES_TABLE_NAME, values,
-                        ClockContract.InstancesColumns._ID + "=" + alarmId,
-                        null);
+                        ClockContract.InstancesColumns._ID + "=?",
+                        new String[]{alarmId});
                 break;
             case CITIES_ID:
                 alarmId = uri.getLastPathSegment();
                 count = db.update(ClockDatabaseHelper.CITIES_TABLE_NAME, values,
-                        ClockContract.CitiesColumns.CITY_ID + "=" + alarmId,
-                        null);
+                        ClockContract.CitiesColumns.CITY_ID + "=?",
+                        new String[]{alarmId});
+                break;
+            case TIMERS_ID:
+                alarmId = uri.getLastPathSegment();
+                count = db.update(ClockDatabaseHelper.TIMERS_TABLE_NAME, values,
+                        ClockContract.TimersColumns._ID + "=?",
+                        new String[]{alarmId});
                 break;
             default: {
                 throw new UnsupportedOperationException(
                         "Cannot update URL: " + uri);
             }
         }
+        invalidateCache(match, rowId);
         LogUtils.v(LOGTAG, "notifyChange() id: " + alarmId + " url " + uri);
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return count;
     }
 
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
         long rowId;
+        Uri tableUri = ClockContract.AlarmsColumns.CONTENT_URI;
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        switch (sURLMatcher.match(uri)) {
+        int match = sURLMatcher.match(uri);
+        switch (match) {
             case ALARMS:
                 rowId = mOpenHelper.fixAlarmInsert(initialValues);
                 break;
@@ -176,12 +226,19 @@ public class ClockProvider extends ContentProvider {
             case CITIES:
                 rowId = db.insert(ClockDatabaseHelper.CITIES_TABLE_NAME, null, initialValues);
                 break;
+            case TIMERS:
+                // Timers carry their own id, writing an existing one replaces its row
+                rowId = db.insertWithOnConflict(ClockDatabaseHelper.TIMERS_TABLE_NAME, null,
+                        initialValues, SQLiteDatabase.CONFLICT_REPLACE);
+                tableUri = ClockContract.TimersColumns.CONTENT_URI;
+                break;
             default:
                 throw new IllegalArgumentException("Cannot insert from URL: " + uri);
         }
 
-        Uri uriResult = ContentUris.withAppendedId(ClockContract.AlarmsColumns.CONTENT_URI, rowId);
-        getContext().getContentResolver().notifyChange(uriResult, null);
+        invalidateCache(match, rowId);
+        Uri uriResult = ContentUris.withAppendedId(tableUri, rowId);
+        notifyChange(uriResult);
         return uriResult;
     }
 
@@ -189,19 +246,22 @@ public class ClockProvider extends ContentProvider {
     public int delete(Uri uri, String where, String[] whereArgs) {
         int count;
         String primaryKey;
+        long rowId = Alarm.INVALID_ID;
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        switch (sURLMatcher.match(uri)) {
+        int match = sURLMatcher.match(uri);
+        switch (match) {
             case ALARMS:
                 count = db.delete(ClockDatabaseHelper.ALARMS_TABLE_NAME, where, whereArgs);
                 break;
             case ALARMS_ID:
                 primaryKey = uri.getLastPathSegment();
                 if (TextUtils.isEmpty(where)) {
-                    where = ClockContract.AlarmsColumns._ID + "=" + primaryKey;
+                    where = ClockContract.AlarmsColumns._ID + "=?";
                 } else {
-                    where = ClockContract.AlarmsColumns._ID + "=" + primaryKey +
-                            " AND (" + where + ")";
+                    where = ClockContract.AlarmsColumns._ID + "=? AND (" + where + ")";
                 }
+                whereArgs = prependArg(primaryKey, whereArgs);
+                rowId = Long.parseLong(primaryKey);
                 count = db.delete(ClockDatabaseHelper.ALARMS_TABLE_NAME, where, whereArgs);
                 break;
             case INSTANCES:
@@ -210,11 +270,12 @@ public class ClockProvider extends ContentProvider {
             case INSTANCES_ID:
                 primaryKey = uri.getLastPathSegment();
                 if (TextUtils.isEmpty(where)) {
-                    where = ClockContract.InstancesColumns._ID + "=" + primaryKey;
+                    where = ClockContract.InstancesColumns._ID + "=?";
                 } else {
-                    where = ClockContract.InstancesColumns._ID + "=" + primaryKey +
-                            " AND (" + where + ")";
+                    where = ClockContract.InstancesColumns._ID + "=? AND (" + where + ")";
                 }
+                whereArgs = prependArg(primaryKey, whereArgs);
+                rowId = Long.parseLong(primaryKey);
                 count = db.delete(ClockDatabaseHelper.INSTANCES_TABLE_NAME, where, whereArgs);
                 break;
             case CITIES:
@@ -223,18 +284,152 @@ public class ClockProvider extends ContentProvider {
             case CITIES_ID:
                 primaryKey = uri.getLastPathSegment();
                 if (TextUtils.isEmpty(where)) {
-                    where = ClockContract.CitiesColumns.CITY_ID + "=" + primaryKey;
+                    where = ClockContract.CitiesColumns.CITY_ID + "=?";
                 } else {
-                    where = ClockContract.CitiesColumns.CITY_ID +"=" + primaryKey +
-                            " AND (" + where + ")";
+                    where = ClockContract.CitiesColumns.CITY_ID + "=? AND (" + where + ")";
                 }
+                whereArgs = prependArg(primaryKey, whereArgs);
                 count = db.delete(ClockDatabaseHelper.CITIES_TABLE_NAME, where, whereArgs);
                 break;
+            case TIMERS:
+                count = db.delete(ClockDatabaseHelper.TIMERS_TABLE_NAME, where, whereArgs);
+                break;
+            case TIMERS_ID:
+                primaryKey = uri.getLastPathSegment();
+                if (TextUtils.isEmpty(where)) {
+                    where = ClockContract.TimersColumns._ID + "=?";
+                } else {
+                    where = ClockContract.TimersColumns._ID + "=? AND (" + where + ")";
+                }
+                whereArgs = prependArg(primaryKey, whereArgs);
+                count = db.delete(ClockDatabaseHelper.TIMERS_TABLE_NAME, where, whereArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot delete from URL: " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        invalidateCache(match, rowId);
+        notifyChange(uri);
+        return count;
+    }
+
+    /**
+     * Apply all operations in a single transaction. Change notifications are
+     * held back until the transaction has been committed and then sent once
+     * per changed table.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final HashSet<Uri> changes = new HashSet<Uri>();
+        ContentProviderResult[] results;
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mBatchChanges.set(changes);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+        }
+
+        notifyBatchChanges(changes);
+        return results;
+    }
+
+    /**
+     * Insert all rows in a single transaction with one change notification.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final HashSet<Uri> changes = new HashSet<Uri>();
+        int count = 0;
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mBatchChanges.set(changes);
+        db.beginTransaction();
+        try {
+            for (ContentValues rowValues : values) {
+                if (insert(uri, rowValues) != null) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+        }
+
+        notifyBatchChanges(changes);
         return count;
     }
+
+    private void notifyBatchChanges(HashSet<Uri> changes) {
+        for (Uri uri : changes) {
+            LogUtils.v(LOGTAG, "notifyChange() batch url " + uri);
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Keep the {@link AlarmRepository} coherent with every write, including
+     * the ones made by other apps through this provider.
+     *
+     * @param rowId of the changed row, or -1 if any row may have changed
+     */
+    private static void invalidateCache(int match, long rowId) {
+        switch (match) {
+            case ALARMS:
+            case ALARMS_ID:
+                AlarmRepository.onAlarmChanged(rowId);
+                break;
+            case INSTANCES:
+            case INSTANCES_ID:
+                AlarmRepository.onInstanceChanged(rowId);
+                break;
+        }
+    }
+
+    /**
+     * Bind the row id from the uri in front of the caller supplied arguments, so
+     * id lookups keep the same SQL and can reuse the prepared statement.
+     */
+    private static String[] prependArg(String arg, String[] args) {
+        if (args == null || args.length == 0) {
+            return new String[]{arg};
+        }
+        String[] result = new String[args.length + 1];
+        result[0] = arg;
+        System.arraycopy(args, 0, result, 1, args.length);
+        return result;
+    }
+
+    private void notifyChange(Uri uri) {
+        final HashSet<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(getTableUri(uri));
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private static Uri getTableUri(Uri uri) {
+        switch (sURLMatcher.match(uri)) {
+            case ALARMS:
+            case ALARMS_ID:
+                return ClockContract.AlarmsColumns.CONTENT_URI;
+            case INSTANCES:
+            case INSTANCES_ID:
+            case INSTANCES_NEXT:
+                return ClockContract.InstancesColumns.CONTENT_URI;
+            case CITIES:
+            case CITIES_ID:
+                return ClockContract.CitiesColumns.CONTENT_URI;
+            case TIMERS:
+            case TIMERS_ID:
+                return ClockContract.TimersColumns.CONTENT_URI;
+            default:
+                return uri;
+        }
+    }
 }
@@ -59,6 +59,26 @@ public final class DaysOfWeek {
         return (bitIndex + 1) % DAYS_IN_A_WEEK + 1;
     }
 
+    /**
+     * Days from a starting day until the next enabled day, indexed by
+     * bitSet * DAYS_IN_A_WEEK + bit index of the starting day.
+     */
+    private static final byte[] DAYS_TO_NEXT = new byte[(ALL_DAYS_SET + 1) * DAYS_IN_A_WEEK];
+
+    static {
+        for (int bitSet = 0; bitSet <= ALL_DAYS_SET; bitSet++) {
+            for (int bitIndex = 0; bitIndex < DAYS_IN_A_WEEK; bitIndex++) {
+                int dayCount = 0;
+                for (; dayCount < DAYS_IN_A_WEEK; dayCount++) {
+                    if ((bitSet & (1 << ((bitIndex + dayCount) % DAYS_IN_A_WEEK))) != 0) {
+                        break;
+                    }
+                }
+                DAYS_TO_NEXT[bitSet * DAYS_IN_A_WEEK + bitIndex] = (byte) dayCount;
+            }
+        }
+    }
+
     // Bitmask of all repeating days
     private int mBitSet;
 
@@ -164,19 +184,80 @@ public final class DaysOfWeek {
      * @param current must be set to today
      */
     public int calculateDaysToNextAlarm(Calendar current) {
+        return calculateDaysToNextAlarm(current.get(Calendar.DAY_OF_WEEK));
+    }
+
+    /**
+     * @param dayOfWeek current {@link Calendar#DAY_OF_WEEK}
+     * @return number of days until the next enabled day, or -1 if not repeating
+     */
+    public int calculateDaysToNextAlarm(int dayOfWeek) {
         if (!isRepeating()) {
             return -1;
         }
+        return daysToNext(convertDayToBitIndex(dayOfWeek));
+    }
 
-        int dayCount = 0;
-        int currentDayBit = convertDayToBitIndex(current.get(Calendar.DAY_OF_WEEK));
-        for (; dayCount < DAYS_IN_A_WEEK; dayCount++) {
-            int nextAlarmBit = (currentDayBit + dayCount) % DAYS_IN_A_WEEK;
-            if (isBitEnabled(nextAlarmBit)) {
-                break;
-            }
+    private int daysToNext(int bitIndex) {
+        return DAYS_TO_NEXT[(mBitSet & ALL_DAYS_SET) * DAYS_IN_A_WEEK + bitIndex];
+    }
+
+    /**
+     * Returns the first time strictly after fromMillis an alarm at the given wall
+     * clock time fires. A non repeating alarm fires on the first day it can.
+     *
+     * A wall clock time skipped by a daylight saving gap fires the gap length later,
+     * one that occurs twice on a fall back day fires on its second occurrence.
+     *
+     * @return the time in millis
+     */
+    public long nextOccurrence(long fromMillis, int hour, int minute) {
+        long day = firstDay(fromMillis, hour, minute);
+        if (isRepeating()) {
+            day += daysToNext(convertDayToBitIndex(LocalTimes.dayOfWeek(day)));
+        }
+        return LocalTimes.toMillis(day, hour, minute);
+    }
+
+    /**
+     * Returns the next times an alarm at the given wall clock time fires, without
+     * creating any instance. See {@link #nextOccurrence} for daylight saving handling.
+     *
+     * @param count of occurrences wanted
+     * @return ascending times in millis, only one for a non repeating alarm
+     */
+    public long[] nextOccurrences(long fromMillis, int hour, int minute, int count) {
+        if (count <= 0) {
+            return new long[0];
+        }
+        long day = firstDay(fromMillis, hour, minute);
+        if (!isRepeating()) {
+            return new long[] { LocalTimes.toMillis(day, hour, minute) };
+        }
+
+        long[] result = new long[count];
+        int bitIndex = convertDayToBitIndex(LocalTimes.dayOfWeek(day));
+        for (int i = 0; i < count; i++) {
+            int addDays = daysToNext(bitIndex);
+            day += addDays;
+            result[i] = LocalTimes.toMillis(day, hour, minute);
+
+            // Continue searching from the following day
+            day++;
+            bitIndex = (bitIndex + addDays + 1) % DAYS_IN_A_WEEK;
+        }
+        return result;
+    }
+
+    /**
+     * @return local day since epoch of the first wall clock time after fromMillis
+     */
+    private static long firstDay(long fromMillis, int hour, int minute) {
+        long day = LocalTimes.toEpochDay(fromMillis);
+        if (LocalTimes.toMillis(day, hour, minute) <= fromMillis) {
+            day++;
         }
-        return dayCount;
+        return day;
     }
 
     public void clearAllDays() {
@@ -0,0 +1,191 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.provider;
+
+import android.text.format.DateUtils;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Allocation free conversions between epoch millis and local wall clock fields
+ * in the default time zone.
+ *
+ * Dates are handled as days since epoch and months are zero based like in
+ * {@link Calendar}. Wall clock times falling into a daylight saving gap are
+ * moved forward and ambiguous ones resolve to the later occurrence, same as a
+ * lenient {@link Calendar} does.
+ *
+ * The zone offset of the last local day looked up is cached as long as that day
+ * has no transition. Call {@link #invalidate()} after the time zone changed.
+ */
+public final class LocalTimes {
+
+    private static TimeZone sZone;
+
+    // UTC range in which sOffset is valid
+    private static long sOffsetStart = Long.MAX_VALUE;
+    private static long sOffsetEnd = Long.MIN_VALUE;
+    private static int sOffset;
+
+    private LocalTimes() {}
+
+    /**
+     * Drop the cached zone and offsets.
+     */
+    public static synchronized void invalidate() {
+        sZone = null;
+        sOffsetStart = Long.MAX_VALUE;
+        sOffsetEnd = Long.MIN_VALUE;
+    }
+
+    /**
+     * @param month zero based month
+     * @return days since epoch of the given date
+     */
+    public static long epochDay(int year, int month, int day) {
+        // Days from civil, counting years from march so the leap day comes last
+        int m = month + 1;
+        long y = m <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Pack the date of a day since epoch as year * 10000 + month * 100 + day,
+     * month being zero based.
+     */
+    public static int toDate(long epochDay) {
+        long z = epochDay + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 2 : mp - 10);
+        int year = (int) (yearOfEra + era * 400 + (month <= Calendar.FEBRUARY ? 1 : 0));
+        return year * 10000 + month * 100 + day;
+    }
+
+    public static int yearOf(int date) {
+        return date / 10000;
+    }
+
+    public static int monthOf(int date) {
+        return date / 100 % 100;
+    }
+
+    public static int dayOf(int date) {
+        return date % 100;
+    }
+
+    /**
+     * @return the {@link Calendar#DAY_OF_WEEK} of a day since epoch
+     */
+    public static int dayOfWeek(long epochDay) {
+        // 1970-01-01 was a thursday
+        return (int) floorMod(epochDay + Calendar.THURSDAY - Calendar.SUNDAY, 7)
+                + Calendar.SUNDAY;
+    }
+
+    /**
+     * @return epoch millis of the wall clock time on the given day
+     */
+    public static long toMillis(long epochDay, int hour, int minute) {
+        long local = epochDay * DateUtils.DAY_IN_MILLIS + hour * DateUtils.HOUR_IN_MILLIS
+                + minute * DateUtils.MINUTE_IN_MILLIS;
+        synchronized (LocalTimes.class) {
+            int offset = getOffset(local - getZone().getRawOffset());
+            long millis = local - offset;
+            int actual = getOffset(millis);
+            if (actual != offset) {
+                // Wall clock time falls into a transition
+                millis = local - actual;
+            }
+            return millis;
+        }
+    }
+
+    /**
+     * @param month zero based month
+     * @return epoch millis of the wall clock time on the given date
+     */
+    public static long toMillis(int year, int month, int day, int hour, int minute) {
+        return toMillis(epochDay(year, month, day), hour, minute);
+    }
+
+    /**
+     * @return the wall clock time of millis, as millis since local epoch
+     */
+    public static synchronized long toLocalMillis(long millis) {
+        return millis + getOffset(millis);
+    }
+
+    /**
+     * @return the local day since epoch of millis
+     */
+    public static long toEpochDay(long millis) {
+        return floorDiv(toLocalMillis(millis), DateUtils.DAY_IN_MILLIS);
+    }
+
+    /**
+     * @return the local minute of the day of millis
+     */
+    public static int toMinuteOfDay(long millis) {
+        return (int) (floorMod(toLocalMillis(millis), DateUtils.DAY_IN_MILLIS)
+                / DateUtils.MINUTE_IN_MILLIS);
+    }
+
+    private static TimeZone getZone() {
+        if (sZone == null) {
+            sZone = TimeZone.getDefault();
+        }
+        return sZone;
+    }
+
+    private static int getOffset(long millis) {
+        if (millis >= sOffsetStart && millis < sOffsetEnd) {
+            return sOffset;
+        }
+
+        TimeZone zone = getZone();
+        int offset = zone.getOffset(millis);
+        long start = floorDiv(millis + offset, DateUtils.DAY_IN_MILLIS)
+                * DateUtils.DAY_IN_MILLIS - offset;
+        long end = start + DateUtils.DAY_IN_MILLIS;
+        if (zone.getOffset(start) == offset && zone.getOffset(end - 1) == offset) {
+            sOffsetStart = start;
+            sOffsetEnd = end;
+            sOffset = offset;
+        }
+        return offset;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
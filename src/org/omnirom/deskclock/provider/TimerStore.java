@@ -0,0 +1,125 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.omnirom.deskclock.timer.TimerObj;
+
+import java.util.List;
+
+/**
+ * Persistence of {@link TimerObj} in the timers table, one row per timer.
+ */
+public final class TimerStore implements ClockContract.TimersColumns {
+
+    private static final String[] QUERY_COLUMNS = {
+            _ID,
+            START_TIME,
+            TIME_LEFT,
+            ORIGINAL_LENGTH,
+            SETUP_LENGTH,
+            STATE,
+            LABEL,
+            DELETE_AFTER_USE
+    };
+
+    /**
+     * These save calls to cursor.getColumnIndexOrThrow()
+     * THEY MUST BE KEPT IN SYNC WITH ABOVE QUERY COLUMNS
+     */
+    private static final int ID_INDEX = 0;
+    private static final int START_TIME_INDEX = 1;
+    private static final int TIME_LEFT_INDEX = 2;
+    private static final int ORIGINAL_LENGTH_INDEX = 3;
+    private static final int SETUP_LENGTH_INDEX = 4;
+    private static final int STATE_INDEX = 5;
+    private static final int LABEL_INDEX = 6;
+    private static final int DELETE_AFTER_USE_INDEX = 7;
+
+    private static final int COLUMN_COUNT = DELETE_AFTER_USE_INDEX + 1;
+
+    private TimerStore() {}
+
+    public static Uri getUri(int timerId) {
+        return ContentUris.withAppendedId(CONTENT_URI, timerId);
+    }
+
+    public static ContentValues createContentValues(TimerObj timer) {
+        ContentValues values = new ContentValues(COLUMN_COUNT);
+        values.put(_ID, timer.mTimerId);
+        values.put(START_TIME, timer.mStartTime);
+        values.put(TIME_LEFT, timer.mTimeLeft);
+        values.put(ORIGINAL_LENGTH, timer.mOriginalLength);
+        values.put(SETUP_LENGTH, timer.mSetupLength);
+        values.put(STATE, timer.mState);
+        values.put(LABEL, timer.mLabel);
+        values.put(DELETE_AFTER_USE, timer.mDeleteAfterUse ? 1 : 0);
+        return values;
+    }
+
+    private static TimerObj createTimer(Cursor c) {
+        TimerObj timer = new TimerObj(c.getLong(SETUP_LENGTH_INDEX), c.getInt(ID_INDEX));
+        timer.mStartTime = c.getLong(START_TIME_INDEX);
+        timer.mTimeLeft = c.getLong(TIME_LEFT_INDEX);
+        timer.mOriginalLength = c.getLong(ORIGINAL_LENGTH_INDEX);
+        timer.mState = c.getInt(STATE_INDEX);
+        timer.mLabel = c.isNull(LABEL_INDEX) ? "" : c.getString(LABEL_INDEX);
+        timer.mDeleteAfterUse = c.getInt(DELETE_AFTER_USE_INDEX) == 1;
+        return timer;
+    }
+
+    /**
+     * Add all timers ordered by id to the list.
+     */
+    public static void getTimers(ContentResolver cr, List<TimerObj> timers) {
+        Cursor cursor = cr.query(CONTENT_URI, QUERY_COLUMNS, null, null, _ID + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                timers.add(createTimer(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write all timers in a single transaction.
+     */
+    public static void writeTimers(ContentResolver cr, List<TimerObj> timers) {
+        if (timers.isEmpty()) {
+            return;
+        }
+        ContentValues[] values = new ContentValues[timers.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createContentValues(timers.get(i));
+        }
+        cr.bulkInsert(CONTENT_URI, values);
+    }
+
+    public static boolean deleteTimer(ContentResolver cr, int timerId) {
+        return cr.delete(getUri(timerId), "", null) == 1;
+    }
+}
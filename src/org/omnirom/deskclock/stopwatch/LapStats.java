@@ -0,0 +1,162 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.stopwatch;
+
+import java.util.Arrays;
+
+/**
+ * Running statistics over the completed stopwatch laps.
+ *
+ * Each lap updates the fastest and slowest lap, the mean, the variance using
+ * Welford's method and the moving average of the most recent laps in constant
+ * time, so none of them ever needs another pass over the laps.
+ */
+public final class LapStats {
+    /** Number of most recent laps the moving average is taken over. */
+    public static final int MOVING_AVERAGE_LAPS = 5;
+
+    private int mCount;
+    private long mTotal;
+
+    private int mFastestLap = -1;
+    private long mFastestLapTime;
+    private int mSlowestLap = -1;
+    private long mSlowestLapTime;
+
+    private double mMean;
+    // Sum of squared differences from the mean
+    private double mM2;
+
+    // Ring of the most recent lap times and their sum
+    private final long[] mRecent = new long[MOVING_AVERAGE_LAPS];
+    private long mRecentSum;
+
+    /**
+     * Add the next completed lap.
+     *
+     * @param lapTime length of the lap in milliseconds
+     */
+    public void add(long lapTime) {
+        int lap = mCount++;
+        mTotal += lapTime;
+
+        // An empty lap is no achievement, it is never the fastest
+        if (lapTime != 0 && (mFastestLap == -1 || lapTime < mFastestLapTime)) {
+            mFastestLap = lap;
+            mFastestLapTime = lapTime;
+        }
+        if (mSlowestLap == -1 || lapTime > mSlowestLapTime) {
+            mSlowestLap = lap;
+            mSlowestLapTime = lapTime;
+        }
+
+        double delta = lapTime - mMean;
+        mMean += delta / mCount;
+        mM2 += delta * (lapTime - mMean);
+
+        int slot = lap % MOVING_AVERAGE_LAPS;
+        mRecentSum += lapTime - mRecent[slot];
+        mRecent[slot] = lapTime;
+    }
+
+    public void clear() {
+        mCount = 0;
+        mTotal = 0;
+        mFastestLap = mSlowestLap = -1;
+        mFastestLapTime = mSlowestLapTime = 0;
+        mMean = mM2 = 0;
+        Arrays.fill(mRecent, 0);
+        mRecentSum = 0;
+    }
+
+    /**
+     * Copy the state of other into this instance.
+     */
+    public void set(LapStats other) {
+        mCount = other.mCount;
+        mTotal = other.mTotal;
+        mFastestLap = other.mFastestLap;
+        mFastestLapTime = other.mFastestLapTime;
+        mSlowestLap = other.mSlowestLap;
+        mSlowestLapTime = other.mSlowestLapTime;
+        mMean = other.mMean;
+        mM2 = other.mM2;
+        System.arraycopy(other.mRecent, 0, mRecent, 0, MOVING_AVERAGE_LAPS);
+        mRecentSum = other.mRecentSum;
+    }
+
+    /**
+     * @return number of completed laps
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return total time at the end of the last completed lap
+     */
+    public long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * @return index of the fastest lap, 0 is the first lap, -1 if there is none
+     */
+    public int getFastestLap() {
+        return mFastestLap;
+    }
+
+    public long getFastestLapTime() {
+        return mFastestLapTime;
+    }
+
+    /**
+     * @return index of the slowest lap, 0 is the first lap, -1 if there is none
+     */
+    public int getSlowestLap() {
+        return mSlowestLap;
+    }
+
+    public long getSlowestLapTime() {
+        return mSlowestLapTime;
+    }
+
+    public long getMean() {
+        return Math.round(mMean);
+    }
+
+    /**
+     * @return sample variance of the lap times, 0 with less than two laps
+     */
+    public double getVariance() {
+        return mCount > 1 ? mM2 / (mCount - 1) : 0;
+    }
+
+    public long getStandardDeviation() {
+        return Math.round(Math.sqrt(getVariance()));
+    }
+
+    /**
+     * @return average of the last {@link #MOVING_AVERAGE_LAPS} laps, or of all laps
+     * while there are fewer
+     */
+    public long getMovingAverage() {
+        int laps = Math.min(mCount, MOVING_AVERAGE_LAPS);
+        return laps == 0 ? 0 : Math.round((double) mRecentSum / laps);
+    }
+}
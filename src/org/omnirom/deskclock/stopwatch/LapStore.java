@@ -0,0 +1,223 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.stopwatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import org.omnirom.deskclock.LogUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only log of the completed stopwatch laps.
+ *
+ * Every completed lap is one fixed-width record holding the total elapsed time at
+ * the end of that lap, oldest first. Adding a lap writes a single record at the end
+ * of the file and any range of laps is read back with one bulk read, so the cost
+ * of either does not grow with the number of laps. The running lap is not stored,
+ * it always starts at the total of the last record.
+ *
+ * The {@link LapStats} of the stored laps are kept up to date with every append,
+ * the file is only read in full once per process to set them up.
+ */
+public final class LapStore {
+    private static final String LOGTAG = LapStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "stopwatch_laps";
+
+    // Size in bytes of one lap record
+    private static final int RECORD_SIZE = 8;
+
+    private static LapStore sInstance;
+
+    private final File mFile;
+
+    // Number of complete records in the file, a torn trailing record is overwritten
+    private int mCount;
+
+    private final LapStats mStats = new LapStats();
+
+    public static synchronized LapStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LapStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private LapStore(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        if (mFile.exists()) {
+            mCount = (int) (mFile.length() / RECORD_SIZE);
+            long[] totals = readAll();
+            mCount = totals.length;
+            long prevLapElapsedTime = 0;
+            for (long total : totals) {
+                mStats.add(total - prevLapElapsedTime);
+                prevLapElapsedTime = total;
+            }
+        } else {
+            migrateLapsFromSharedPrefs(context);
+        }
+    }
+
+    /**
+     * Move laps saved by older versions, one preference per lap, into the log.
+     * The last of those preferences was the running lap and is dropped.
+     */
+    private void migrateLapsFromSharedPrefs(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, 0);
+        if (numLaps == 0) {
+            return;
+        }
+
+        SharedPreferences.Editor editor = prefs.edit();
+        for (int i = 1; i <= numLaps; i++) {
+            String key = Stopwatches.PREF_LAP_TIME + Integer.toString(i);
+            if (i < numLaps) {
+                append(prefs.getLong(key, 0));
+            }
+            editor.remove(key);
+        }
+        editor.remove(Stopwatches.PREF_LAP_NUM);
+        editor.apply();
+        LogUtils.i(LOGTAG, "Migrated " + mCount + " laps from preferences");
+    }
+
+    /**
+     * @return number of completed laps
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Copy the statistics of the completed laps.
+     *
+     * @param stats receiving the statistics
+     */
+    public synchronized void getStats(LapStats stats) {
+        stats.set(mStats);
+    }
+
+    /**
+     * Add a completed lap.
+     *
+     * @param totalTime elapsed stopwatch time at the end of the lap
+     */
+    public synchronized void append(long totalTime) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(totalTime).flip();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            FileChannel channel = file.getChannel();
+            long position = (long) mCount * RECORD_SIZE;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            mCount++;
+            mStats.add(totalTime - mStats.getTotal());
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to append lap", e);
+        } finally {
+            close(file);
+        }
+    }
+
+    /**
+     * Read the end totals of a range of completed laps.
+     *
+     * @param from index of the first lap to read, 0 is the oldest lap
+     * @param dest array receiving the totals
+     * @param offset in dest of the first total
+     * @param count maximum number of laps to read
+     * @return number of laps read
+     */
+    public synchronized int read(int from, long[] dest, int offset, int count) {
+        count = Math.min(count, mCount - from);
+        if (count <= 0) {
+            return 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(count * RECORD_SIZE);
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            FileChannel channel = file.getChannel();
+            long position = (long) from * RECORD_SIZE;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to read laps", e);
+            return 0;
+        } finally {
+            close(file);
+        }
+        buffer.flip();
+        count = buffer.remaining() / RECORD_SIZE;
+        buffer.asLongBuffer().get(dest, offset, count);
+        return count;
+    }
+
+    /**
+     * @return the end totals of all completed laps, oldest first
+     */
+    public synchronized long[] readAll() {
+        long[] totals = new long[mCount];
+        int count = read(0, totals, 0, mCount);
+        if (count < totals.length) {
+            long[] result = new long[count];
+            System.arraycopy(totals, 0, result, 0, count);
+            return result;
+        }
+        return totals;
+    }
+
+    /**
+     * Remove all laps.
+     */
+    public synchronized void clear() {
+        if (mFile.exists() && !mFile.delete()) {
+            LogUtils.e(LOGTAG, "Failed to delete " + mFile);
+        }
+        mCount = 0;
+        mStats.clear();
+    }
+
+    private static void close(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
@@ -20,13 +20,10 @@ import android.animation.LayoutTransition;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.res.Configuration;
 import android.os.Bundle;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
-import android.preference.PreferenceManager;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -46,14 +43,13 @@ import org.omnirom.deskclock.LogUtils;
 import org.omnirom.deskclock.Utils;
 import org.omnirom.deskclock.timer.CountingTimerView;
 
-import java.util.ArrayList;
+import java.text.DecimalFormatSymbols;
 
 public class StopwatchFragment extends DeskClockFragment
-        implements OnSharedPreferenceChangeListener {
+        implements StopwatchStateStore.Listener {
     private static final boolean DEBUG = false;
 
     private static final String TAG = "StopwatchFragment";
-    private static final int STOPWATCH_REFRESH_INTERVAL_MILLIS = 25;
 
     int mState = Stopwatches.STOPWATCH_RESET;
 
@@ -89,15 +85,19 @@ public class StopwatchFragment extends DeskClockFragment
         public void updateView() {
             View lapInfo = mLapsList.findViewWithTag(this);
             if (lapInfo != null) {
-                mLapsAdapter.setTimeText(lapInfo, this);
+                mLapsAdapter.setRunningTimeText(lapInfo, this);
             }
         }
     }
 
-    // Adapter for the ListView that shows the lap times.
+    // Adapter for the ListView that shows the lap times. The completed laps are paged in
+    // from the lap store, only the running lap at the top of the list is kept in memory.
     class LapsListAdapter extends BaseAdapter {
 
-        ArrayList<Lap> mLaps = new ArrayList<Lap>();
+        // Number of completed laps read from the store at once
+        private static final int PAGE_SIZE = 64;
+
+        private final LapStore mStore;
         private final LayoutInflater mInflater;
         private final String[] mFormats;
         private final String[] mLapFormatSet;
@@ -118,7 +118,22 @@ public class StopwatchFragment extends DeskClockFragment
         private int mLapMaxColor;
         private int mLapDefaultColor;
 
+        // The running lap, shown on top once the first lap was taken
+        private final Lap mCurrentLap = new Lap(0, 0, 0);
+        private final RunningTimeText mRunningLapText = new RunningTimeText();
+        private final RunningTimeText mRunningTotalText = new RunningTimeText();
+        private int mLapCount;
+
+        // Totals of the completed laps starting two before mPageStart, the lap time and
+        // difference of the first laps on the page depend on the two laps before them
+        private final long[] mPage = new long[PAGE_SIZE + 2];
+        private int mPageStart = -1;
+
+        // Statistics of the completed laps, copied from the store whenever laps change
+        private final LapStats mStats = new LapStats();
+
         public LapsListAdapter(Context context) {
+            mStore = LapStore.getInstance(context);
             mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
             mFormats = context.getResources().getStringArray(org.omnirom.deskclock.R.array.stopwatch_format_set);
             mLapFormatSet = context.getResources().getStringArray(org.omnirom.deskclock.R.array.sw_lap_number_set);
@@ -137,7 +152,7 @@ public class StopwatchFragment extends DeskClockFragment
 
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
-            if (mLaps.size() == 0 || position >= mLaps.size()) {
+            if (position >= getCount()) {
                 return null;
             }
             Lap lap = getItem(position);
@@ -150,12 +165,13 @@ public class StopwatchFragment extends DeskClockFragment
             }
             lapInfo.setTag(lap);
             TextView count = (TextView)lapInfo.findViewById(org.omnirom.deskclock.R.id.lap_number);
-            count.setText(String.format(mLapFormat, mLaps.size() - position).toUpperCase());
+            count.setText(String.format(mLapFormat, getCount() - position).toUpperCase());
             setTimeText(lapInfo, lap);
 
-            if (position != 0 && getMaxLapTimeIndex() == position) {
+            int lapIndex = mLapCount - position;
+            if (position != 0 && mStats.getSlowestLap() == lapIndex) {
                 setTimeColor(lapInfo, mLapTextColor, mLapMaxColor);
-            } else if (position != 0 && getMinLapTimeIndex() == position) {
+            } else if (position != 0 && mStats.getFastestLap() == lapIndex) {
                 setTimeColor(lapInfo, mLapTextColor, mLapMinColor);
             } else {
                 setTimeColor(lapInfo, mLapDefaultTextColor, mLapDefaultColor);
@@ -173,6 +189,22 @@ public class StopwatchFragment extends DeskClockFragment
             timeDiff.setText(Stopwatches.formatTimeText(lap.mTimeDiff, mFormats[mTotalIndex]));
         }
 
+        /**
+         * Print the times of the running lap on every tick. Its difference stays empty until
+         * the lap is completed, the lap and total time are only written when the hundredths
+         * shown have changed.
+         */
+        protected void setRunningTimeText(View lapInfo, Lap lap) {
+            if (mRunningLapText.update(lap.mLapTime, mFormats[mLapIndex])) {
+                mRunningLapText.applyTo(
+                        (TextView) lapInfo.findViewById(org.omnirom.deskclock.R.id.lap_time));
+            }
+            if (mRunningTotalText.update(lap.mTotalTime, mFormats[mTotalIndex])) {
+                mRunningTotalText.applyTo(
+                        (TextView) lapInfo.findViewById(org.omnirom.deskclock.R.id.lap_total));
+            }
+        }
+
         protected void setTimeColor(View lapInfo, int textColor, int lineColor) {
             View lapLine = lapInfo.findViewById(org.omnirom.deskclock.R.id.lap_line);
             TextView lapTime = (TextView)lapInfo.findViewById(org.omnirom.deskclock.R.id.lap_time);
@@ -188,20 +220,52 @@ public class StopwatchFragment extends DeskClockFragment
 
         @Override
         public int getCount() {
-            return mLaps.size();
+            // The running lap is only shown after the first lap was taken
+            return mLapCount == 0 ? 0 : mLapCount + 1;
         }
 
         @Override
         public Lap getItem(int position) {
-            if (mLaps.size() == 0 || position >= mLaps.size()) {
+            if (position >= getCount()) {
                 return null;
             }
-            return mLaps.get(position);
+            if (position == 0) {
+                return mCurrentLap;
+            }
+            return getCompletedLap(mLapCount - position);
+        }
+
+        private Lap getCompletedLap(int index) {
+            int pageStart = index - index % PAGE_SIZE;
+            if (pageStart != mPageStart) {
+                int from = Math.max(0, pageStart - 2);
+                mStore.read(from, mPage, from - pageStart + 2, pageStart + PAGE_SIZE - from);
+                mPageStart = pageStart;
+            }
+            int i = index - pageStart + 2;
+            long total = mPage[i];
+            long prevTotal = index > 0 ? mPage[i - 1] : 0;
+            long lapTime = total - prevTotal;
+            long lapDiff = 0;
+            if (index > 0) {
+                lapDiff = lapTime - (prevTotal - (index > 1 ? mPage[i - 2] : 0));
+            }
+            return new Lap(lapTime, total, lapDiff);
+        }
+
+        /**
+         * @return total time at the end of the last completed lap
+         */
+        public long getLastLapTotal() {
+            return mStats.getTotal();
+        }
+
+        public LapStats getStats() {
+            return mStats;
         }
 
         private void updateLapFormat() {
-            // Note Stopwatches.MAX_LAPS < 100
-            mLapFormat = mLapFormatSet[mLaps.size() < 10 ? 0 : 1];
+            mLapFormat = mLapFormatSet[getCount() < 10 ? 0 : 1];
         }
 
         private void resetTimeFormats() {
@@ -218,121 +282,82 @@ public class StopwatchFragment extends DeskClockFragment
          * @return true if this lap exceeded either threshold and a format was updated.
          */
         public boolean updateTimeFormats(Lap lap) {
+            return updateTimeFormats(lap.mLapTime, lap.mTotalTime);
+        }
+
+        private boolean updateTimeFormats(long lapTime, long totalTime) {
             boolean formatChanged = false;
-            while (mLapIndex + 1 < mThresholds.length && lap.mLapTime >= mThresholds[mLapIndex]) {
+            while (mLapIndex + 1 < mThresholds.length && lapTime >= mThresholds[mLapIndex]) {
                 mLapIndex++;
                 formatChanged = true;
             }
             while (mTotalIndex + 1 < mThresholds.length &&
-                lap.mTotalTime >= mThresholds[mTotalIndex]) {
+                totalTime >= mThresholds[mTotalIndex]) {
                 mTotalIndex++;
                 formatChanged = true;
             }
             return formatChanged;
         }
 
-        public void addLap(Lap l) {
-            mLaps.add(0, l);
-            // for efficiency caller also calls notifyDataSetChanged()
-            updateColors();
+        /**
+         * Complete the running lap and start a new one.
+         * for efficiency caller also calls notifyDataSetChanged()
+         *
+         * @param totalTime elapsed time at the end of the lap
+         * @return the time of the completed lap
+         */
+        public long addLap(long totalTime) {
+            long lapTime = totalTime - mStats.getTotal();
+            mStore.append(totalTime);
+            mStore.getStats(mStats);
+            updateTimeFormats(lapTime, totalTime);
+            mLapCount = mStats.getCount();
+            mCurrentLap.mLapTime = 0;
+            mCurrentLap.mTotalTime = totalTime;
+            mCurrentLap.mTimeDiff = 0;
+            mPageStart = -1;
+            updateLapFormat();
+            return lapTime;
         }
 
         public void clearLaps() {
-            mLaps.clear();
+            mLapCount = 0;
+            mCurrentLap.mLapTime = mCurrentLap.mTotalTime = mCurrentLap.mTimeDiff = 0;
+            mPageStart = -1;
+            mStats.clear();
             updateLapFormat();
             resetTimeFormats();
             notifyDataSetChanged();
         }
 
-        // Helper function used to get the lap data to be stored in the activity's bundle
-        public long [] getLapTimes() {
-            int size = mLaps.size();
-            if (size == 0) {
-                return null;
-            }
-            long [] laps = new long[size];
-            for (int i = 0; i < size; i ++) {
-                laps[i] = mLaps.get(i).mTotalTime;
-            }
-            return laps;
+        /**
+         * @return true if laps were added or removed in the store by someone else
+         */
+        public boolean isStale() {
+            return mStore.getCount() != mLapCount;
         }
 
-        // Helper function to restore adapter's data from the activity's bundle
-        public void setLapTimes(long [] laps) {
-            if (laps == null || laps.length == 0) {
-                return;
-            }
-
-            int size = laps.length;
-            mLaps.clear();
-            for (long lap : laps) {
-                mLaps.add(new Lap(lap, 0, 0));
-            }
-            long totalTime = 0;
-            for (int i = size -1; i >= 0; i --) {
-                totalTime += laps[i];
-                long lapDiff = 0;
-                if (i < size - 1 && i > 0) {
-                    lapDiff = mLaps.get(i).mLapTime - mLaps.get(i + 1).mLapTime;
-                }
-                mLaps.get(i).mTotalTime = totalTime;
-                mLaps.get(i).mTimeDiff = lapDiff;
-                updateTimeFormats(mLaps.get(i));
-            }
+        // Restore adapter's data from the lap store, the rows themselves are paged in later
+        public void loadLaps() {
+            mStore.getStats(mStats);
+            mLapCount = mStats.getCount();
+            mPageStart = -1;
+            // The slowest lap and the last total decide the formats of all laps
+            resetTimeFormats();
+            updateTimeFormats(mStats.getSlowestLapTime(), mStats.getTotal());
+            mCurrentLap.mLapTime = mCurrentLap.mTimeDiff = 0;
+            mCurrentLap.mTotalTime = mStats.getTotal();
             updateLapFormat();
             showLaps();
-            updateColors();
             notifyDataSetChanged();
         }
 
-        public int getMinLapTimeIndex() {
-            int size = mLaps.size();
-            if (size == 0) {
-                return -1;
-            }
-            long minLapTime = Integer.MAX_VALUE;
-            int minLapIndex = -1;
-            for (int i = size -1; i > 0; i --) {
-                long time = mLaps.get(i).mLapTime;
-                if (time != 0 && time < minLapTime) {
-                    minLapIndex = i;
-                    minLapTime = mLaps.get(i).mLapTime;
-                }
-            }
-            return minLapIndex;
-        }
-
-        public int getMaxLapTimeIndex() {
-            int size = mLaps.size();
-            if (size == 0) {
-                return -1;
-            }
-            long maxLapTime = Integer.MIN_VALUE;
-            int maxLapIndex = -1;
-            for (int i = size -1; i > 0; i --) {
-                if (mLaps.get(i).mLapTime > maxLapTime) {
-                    maxLapIndex = i;
-                    maxLapTime = mLaps.get(i).mLapTime;
-                }
-            }
-            return maxLapIndex;
-        }
-
-        private void updateColors() {
-            int size = mLaps.size();
-            for (int i = size -1; i >= 0; i --) {
-                Lap l = mLaps.get(i);
-                View lapInfo = mLapsList.findViewWithTag(l);
-                if (lapInfo != null) {
-                    if (i != size - 1 && getMaxLapTimeIndex() == i) {
-                        setTimeColor(lapInfo, mLapTextColor, mLapMaxColor);
-                    } else if (i != size - 1 && getMinLapTimeIndex() == i) {
-                        setTimeColor(lapInfo, mLapTextColor, mLapMinColor);
-                    } else {
-                        setTimeColor(lapInfo, mLapDefaultTextColor, mLapDefaultColor);
-                    }
-                }
+        // Lap times for sharing, the running lap first
+        public long[] getShareLapTimes() {
+            if (mLapCount == 0) {
+                return null;
             }
+            return Stopwatches.getLapTimes(mStore.readAll(), mCurrentLap.mTotalTime);
         }
     }
 
@@ -495,10 +520,12 @@ public class StopwatchFragment extends DeskClockFragment
     @Override
     public void onResume() {
         super.onResume();
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        prefs.registerOnSharedPreferenceChangeListener(this);
-        readFromSharedPref(prefs);
-        mTime.readFromSharedPref(prefs, "sw");
+        StopwatchStateStore stateStore = StopwatchStateStore.getInstance(getActivity());
+        stateStore.addListener(this);
+        StopwatchState state = new StopwatchState();
+        stateStore.get(state);
+        readFromState(state);
+        mTime.readFromState(state);
         mTime.postInvalidate();
 
         setFabAppearance();
@@ -534,11 +561,9 @@ public class StopwatchFragment extends DeskClockFragment
             }
         }
         // The stopwatch must keep running even if the user closes the app so save stopwatch state
-        // in shared prefs
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        prefs.unregisterOnSharedPreferenceChangeListener(this);
-        writeToSharedPref(prefs);
-        mTime.writeToSharedPref(prefs, "sw");
+        StopwatchStateStore stateStore = StopwatchStateStore.getInstance(getActivity());
+        stateStore.removeListener(this);
+        writeToState(stateStore);
         mTimeText.blinkTimeStr(false);
         ((DeskClock)getActivity()).unregisterPageChangedListener(this);
         releaseWakeLock();
@@ -590,10 +615,7 @@ public class StopwatchFragment extends DeskClockFragment
 
     private void doReset() {
         if (DEBUG) LogUtils.v("StopwatchFragment.doReset");
-        SharedPreferences prefs =
-                PreferenceManager.getDefaultSharedPreferences(getActivity());
-        Utils.clearSwSharedPref(prefs);
-        mTime.clearSharedPref(prefs, "sw");
+        Utils.clearStopwatchState(getActivity());
         mAccumulatedTime = 0;
         mLapsAdapter.clearLaps();
         showLaps();
@@ -615,7 +637,7 @@ public class StopwatchFragment extends DeskClockFragment
                 Stopwatches.getShareTitle(context.getApplicationContext()));
         shareIntent.putExtra(Intent.EXTRA_TEXT, Stopwatches.buildShareResults(
                 getActivity().getApplicationContext(), mTimeText.getTimeString(),
-                getLapShareTimes(mLapsAdapter.getLapTimes())));
+                mLapsAdapter.getShareLapTimes(), mLapsAdapter.getStats()));
 
         final Intent launchIntent = Intent.createChooser(shareIntent,
                 context.getString(org.omnirom.deskclock.R.string.sw_share_button));
@@ -626,24 +648,6 @@ public class StopwatchFragment extends DeskClockFragment
         }
     }
 
-    /** Turn laps as they would be saved in prefs into format for sharing. **/
-    private long[] getLapShareTimes(long[] input) {
-        if (input == null) {
-            return null;
-        }
-
-        int numLaps = input.length;
-        long[] output = new long[numLaps];
-        long prevLapElapsedTime = 0;
-        for (int lap_i = numLaps - 1; lap_i >= 0; lap_i--) {
-            long lap = input[lap_i];
-            LogUtils.v("lap " + lap_i + ": " + lap);
-            output[lap_i] = lap - prevLapElapsedTime;
-            prevLapElapsedTime = lap;
-        }
-        return output;
-    }
-
     private boolean reachedMaxLaps() {
         return mLapsAdapter.getCount() >= Stopwatches.MAX_LAPS;
     }
@@ -655,29 +659,13 @@ public class StopwatchFragment extends DeskClockFragment
     private void addLapTime(long time) {
         // The total elapsed time
         final long curTime = time - mStartTime + mAccumulatedTime;
-        int size = mLapsAdapter.getCount();
-        if (size == 0) {
-            // Create and add the first lap
-            Lap firstLap = new Lap(curTime, curTime, 0);
-            mLapsAdapter.addLap(firstLap);
-            // Create the first active lap
-            mLapsAdapter.addLap(new Lap(0, curTime, 0));
-            // Update the interval on the clock and check the lap and total time formatting
+        final long lapTime = mLapsAdapter.addLap(curTime);
+        if (mLapsAdapter.getCount() == 2) {
+            // Update the interval on the clock with the first lap
             mTime.setIntervalTime(curTime);
-            mLapsAdapter.updateTimeFormats(firstLap);
         } else {
-            // Finish active lap
-            final long lapTime = curTime - mLapsAdapter.getItem(1).mTotalTime;
-            final long lapDiff = lapTime - mLapsAdapter.getItem(1).mLapTime;
-
-            mLapsAdapter.getItem(0).mLapTime = lapTime;
-            mLapsAdapter.getItem(0).mTotalTime = curTime;
-            mLapsAdapter.getItem(0).mTimeDiff = lapDiff;
-            // Create a new active lap
-            mLapsAdapter.addLap(new Lap(0, curTime, 0));
-            // Update marker on clock and check that formatting for the lap number
+            // Update marker on clock
             mTime.setMarkerTime(lapTime);
-            mLapsAdapter.updateLapFormat();
         }
         // Repaint the laps list
         mLapsAdapter.notifyDataSetChanged();
@@ -689,11 +677,61 @@ public class StopwatchFragment extends DeskClockFragment
         }
     }
 
+    // Formatted time of the running lap kept in a char buffer. The text is only formatted
+    // again once the seconds change, in between just the hundredths digits are rewritten.
+    static class RunningTimeText {
+        private char[] mText = new char[16];
+        private int mLength;
+        // Index of the hundredths digits in mText, -1 if they could not be found
+        private int mHundredthsIndex = -1;
+        private long mSeconds = -1;
+        private long mHundredths = -1;
+        private String mFormat;
+        private char mZeroDigit;
+
+        /**
+         * @return true if the text has changed
+         */
+        public boolean update(long time, String format) {
+            final long seconds = time / 1000;
+            final long hundredths = (time - seconds * 1000) / 10;
+            if (seconds == mSeconds && format == mFormat && mHundredthsIndex >= 0) {
+                if (hundredths == mHundredths) {
+                    return false;
+                }
+                mText[mHundredthsIndex] = (char) (mZeroDigit + hundredths / 10);
+                mText[mHundredthsIndex + 1] = (char) (mZeroDigit + hundredths % 10);
+                mHundredths = hundredths;
+                return true;
+            }
+
+            final String text = Stopwatches.formatTimeText(time, format);
+            mLength = text.length();
+            if (mText.length < mLength) {
+                mText = new char[mLength];
+            }
+            text.getChars(0, mLength, mText, 0);
+            final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+            final int separator = text.lastIndexOf(symbols.getDecimalSeparator());
+            mHundredthsIndex = time > 0 && separator >= 0 && separator + 2 < mLength
+                    ? separator + 1 : -1;
+            mZeroDigit = symbols.getZeroDigit();
+            mSeconds = seconds;
+            mHundredths = hundredths;
+            mFormat = format;
+            return true;
+        }
+
+        public void applyTo(TextView view) {
+            view.setText(mText, 0, mLength);
+        }
+    }
+
     private void updateCurrentLap(long totalTime) {
         // There are either 0, 2 or more Laps in the list See {@link #addLapTime}
         if (mLapsAdapter.getCount() > 0) {
             Lap curLap = mLapsAdapter.getItem(0);
-            curLap.mLapTime = totalTime - mLapsAdapter.getItem(1).mTotalTime;
+            curLap.mLapTime = totalTime - mLapsAdapter.getLastLapTotal();
             curLap.mTotalTime = totalTime;
             // If this lap has caused a change in the format for total and/or lap time, all of
             // the rows need a fresh print. The simplest way to refresh all of the rows is
@@ -747,80 +785,54 @@ public class StopwatchFragment extends DeskClockFragment
     }
 
     private void startUpdateThread() {
-        mTime.post(mTimeUpdateThread);
+        // The time text counts on its own, in step with the display
+        mTimeText.startCounting(mStartTime - mAccumulatedTime, mTimeTickListener);
     }
 
     private void stopUpdateThread() {
-        mTime.removeCallbacks(mTimeUpdateThread);
+        mTimeText.stopCounting();
     }
 
-    Runnable mTimeUpdateThread = new Runnable() {
+    private final CountingTimerView.OnTickListener mTimeTickListener =
+            new CountingTimerView.OnTickListener() {
         @Override
-        public void run() {
-            long curTime = Utils.getTimeNow();
-            long totalTime = mAccumulatedTime + (curTime - mStartTime);
-            if (mTime != null) {
-                mTimeText.setTime(totalTime, true, true);
-            }
+        public void onTick(long totalTime) {
             if (mLapsAdapter.getCount() > 0) {
                 updateCurrentLap(totalTime);
             }
-            mTime.postDelayed(mTimeUpdateThread, STOPWATCH_REFRESH_INTERVAL_MILLIS);
         }
     };
 
-    private void writeToSharedPref(SharedPreferences prefs) {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putLong (Stopwatches.PREF_START_TIME, mStartTime);
-        editor.putLong (Stopwatches.PREF_ACCUM_TIME, mAccumulatedTime);
-        editor.putInt (Stopwatches.PREF_STATE, mState);
-        if (mLapsAdapter != null) {
-            long [] laps = mLapsAdapter.getLapTimes();
-            if (laps != null) {
-                editor.putInt (Stopwatches.PREF_LAP_NUM, laps.length);
-                for (int i = 0; i < laps.length; i++) {
-                    String key = Stopwatches.PREF_LAP_TIME + Integer.toString(laps.length - i);
-                    editor.putLong (key, laps[i]);
-                }
-            }
-        }
+    private void writeToState(StopwatchStateStore stateStore) {
+        StopwatchState state = new StopwatchState();
+        state.startTime = mStartTime;
+        state.accumulatedTime = mAccumulatedTime;
+        state.state = mState;
         if (mState == Stopwatches.STOPWATCH_RUNNING) {
-            editor.putLong(Stopwatches.NOTIF_CLOCK_BASE, mStartTime-mAccumulatedTime);
-            editor.putLong(Stopwatches.NOTIF_CLOCK_ELAPSED, -1);
-            editor.putBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, true);
+            state.notifClockBase = mStartTime - mAccumulatedTime;
+            state.notifClockElapsed = -1;
+            state.notifClockRunning = true;
         } else if (mState == Stopwatches.STOPWATCH_STOPPED) {
-            editor.putLong(Stopwatches.NOTIF_CLOCK_ELAPSED, mAccumulatedTime);
-            editor.putLong(Stopwatches.NOTIF_CLOCK_BASE, -1);
-            editor.putBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, false);
-        } else if (mState == Stopwatches.STOPWATCH_RESET) {
-            editor.remove(Stopwatches.NOTIF_CLOCK_BASE);
-            editor.remove(Stopwatches.NOTIF_CLOCK_RUNNING);
-            editor.remove(Stopwatches.NOTIF_CLOCK_ELAPSED);
-        }
-        editor.putBoolean(Stopwatches.PREF_UPDATE_CIRCLE, false);
-        editor.apply();
+            state.notifClockElapsed = mAccumulatedTime;
+            state.notifClockBase = -1;
+            state.notifClockRunning = false;
+        }
+        state.updateCircle = false;
+        mTime.writeToState(state);
+        stateStore.commit(state);
     }
 
-    private void readFromSharedPref(SharedPreferences prefs) {
-        mStartTime = prefs.getLong(Stopwatches.PREF_START_TIME, 0);
-        mAccumulatedTime = prefs.getLong(Stopwatches.PREF_ACCUM_TIME, 0);
-        mState = prefs.getInt(Stopwatches.PREF_STATE, Stopwatches.STOPWATCH_RESET);
-        int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, Stopwatches.STOPWATCH_RESET);
-        if (mLapsAdapter != null) {
-            long[] oldLaps = mLapsAdapter.getLapTimes();
-            if (oldLaps == null || oldLaps.length < numLaps) {
-                long[] laps = new long[numLaps];
-                long prevLapElapsedTime = 0;
-                for (int lap_i = 0; lap_i < numLaps; lap_i++) {
-                    String key = Stopwatches.PREF_LAP_TIME + Integer.toString(lap_i + 1);
-                    long lap = prefs.getLong(key, 0);
-                    laps[numLaps - lap_i - 1] = lap - prevLapElapsedTime;
-                    prevLapElapsedTime = lap;
-                }
-                mLapsAdapter.setLapTimes(laps);
-            }
-        }
-        if (prefs.getBoolean(Stopwatches.PREF_UPDATE_CIRCLE, true)) {
+    private void readFromState(StopwatchState state) {
+        mStartTime = state.startTime;
+        mAccumulatedTime = state.accumulatedTime;
+        mState = state.state;
+        if (mLapsAdapter != null && mLapsAdapter.isStale()) {
+            // Laps were taken from the notification
+            mLapsAdapter.loadLaps();
+            updateCurrentLap(mState == Stopwatches.STOPWATCH_RUNNING
+                    ? mAccumulatedTime + (Utils.getTimeNow() - mStartTime) : mAccumulatedTime);
+        }
+        if (state.updateCircle) {
             if (mState == Stopwatches.STOPWATCH_STOPPED) {
                 doStop();
             } else if (mState == Stopwatches.STOPWATCH_RUNNING) {
@@ -832,15 +844,10 @@ public class StopwatchFragment extends DeskClockFragment
     }
 
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
-        if (prefs.equals(PreferenceManager.getDefaultSharedPreferences(getActivity()))) {
-            if (! (key.equals(Stopwatches.PREF_LAP_NUM) ||
-                    key.startsWith(Stopwatches.PREF_LAP_TIME))) {
-                readFromSharedPref(prefs);
-                if (prefs.getBoolean(Stopwatches.PREF_UPDATE_CIRCLE, true)) {
-                    mTime.readFromSharedPref(prefs, "sw");
-                }
-            }
+    public void onStopwatchStateChanged(StopwatchState state) {
+        readFromState(state);
+        if (state.updateCircle) {
+            mTime.readFromState(state);
         }
     }
 
@@ -7,14 +7,11 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.os.IBinder;
-import android.preference.PreferenceManager;
 import android.view.View;
 import android.widget.RemoteViews;
 
-import org.omnirom.deskclock.CircleTimerView;
 import org.omnirom.deskclock.DeskClock;
 import org.omnirom.deskclock.Utils;
 
@@ -24,10 +21,11 @@ import org.omnirom.deskclock.Utils;
 public class StopwatchService extends Service {
     // Member fields
     private int mNumLaps;
-    private long mElapsedTime;
-    private long mStartTime;
     private boolean mLoadApp;
     private NotificationManager mNotificationManager;
+    private LapStore mLapStore;
+    private StopwatchStateStore mStateStore;
+    private final StopwatchState mState = new StopwatchState();
 
     // Constants for intent information
     // Make this a large number to avoid the alarm ID's which seem to be 1, 2, ...
@@ -41,11 +39,11 @@ public class StopwatchService extends Service {
 
     @Override
     public void onCreate() {
-        mNumLaps = 0;
-        mElapsedTime = 0;
-        mStartTime = 0;
         mLoadApp = false;
         mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        mLapStore = LapStore.getInstance(this);
+        mStateStore = StopwatchStateStore.getInstance(this);
+        mNumLaps = getNumLaps();
     }
 
     @Override
@@ -54,49 +52,52 @@ public class StopwatchService extends Service {
             return Service.START_NOT_STICKY;
         }
 
-        if (mStartTime == 0 || mElapsedTime == 0 || mNumLaps == 0) {
-            // May not have the most recent values.
-            readFromSharedPrefs();
-        }
+        // The app may have changed the state since the last command
+        mStateStore.get(mState);
+        mNumLaps = getNumLaps();
 
         String actionType = intent.getAction();
         long actionTime = intent.getLongExtra(Stopwatches.MESSAGE_TIME, Utils.getTimeNow());
         boolean showNotif = intent.getBooleanExtra(Stopwatches.SHOW_NOTIF, true);
         boolean updateCircle = showNotif; // Don't save updates to the cirle if we're in the app.
         if (actionType.equals(Stopwatches.START_STOPWATCH)) {
-            mStartTime = actionTime;
-            writeSharedPrefsStarted(mStartTime, updateCircle);
+            setStarted(actionTime, updateCircle);
             if (showNotif) {
-                setNotification(mStartTime - mElapsedTime, true, mNumLaps);
+                setNotification(mState.startTime - mState.accumulatedTime, true, mNumLaps);
             } else {
-                saveNotification(mStartTime - mElapsedTime, true, mNumLaps);
+                saveNotification(mState.startTime - mState.accumulatedTime, true);
             }
+            mStateStore.commit(mState);
         } else if (actionType.equals(Stopwatches.LAP_STOPWATCH)) {
-            mNumLaps++;
-            long lapTimeElapsed = actionTime - mStartTime + mElapsedTime;
-            writeSharedPrefsLap(lapTimeElapsed, updateCircle);
+            // The app stores the laps taken in it itself
+            if (updateCircle && getNumLaps() < Stopwatches.MAX_LAPS) {
+                mLapStore.append(actionTime - mState.startTime + mState.accumulatedTime);
+            }
+            mNumLaps = getNumLaps();
+            setLap(updateCircle);
             if (showNotif) {
-                setNotification(mStartTime - mElapsedTime, true, mNumLaps);
+                setNotification(mState.startTime - mState.accumulatedTime, true, mNumLaps);
             } else {
-                saveNotification(mStartTime - mElapsedTime, true, mNumLaps);
+                saveNotification(mState.startTime - mState.accumulatedTime, true);
             }
+            mStateStore.commit(mState);
         } else if (actionType.equals(Stopwatches.STOP_STOPWATCH)) {
-            mElapsedTime = mElapsedTime + (actionTime - mStartTime);
-            writeSharedPrefsStopped(mElapsedTime, updateCircle);
+            setStopped(mState.accumulatedTime + (actionTime - mState.startTime), updateCircle);
             if (showNotif) {
-                setNotification(actionTime - mElapsedTime, false, mNumLaps);
+                setNotification(actionTime - mState.accumulatedTime, false, mNumLaps);
             } else {
-                saveNotification(mElapsedTime, false, mNumLaps);
+                saveNotification(mState.accumulatedTime, false);
             }
+            mStateStore.commit(mState);
         } else if (actionType.equals(Stopwatches.RESET_STOPWATCH)) {
             mLoadApp = false;
-            writeSharedPrefsReset(updateCircle);
-            clearSavedNotification();
+            setReset(updateCircle);
+            mStateStore.commit(mState);
             stopSelf();
         } else if (actionType.equals(Stopwatches.RESET_AND_LAUNCH_STOPWATCH)) {
             mLoadApp = true;
-            writeSharedPrefsReset(updateCircle);
-            clearSavedNotification();
+            setReset(updateCircle);
+            mStateStore.commit(mState);
             closeNotificationShade();
             stopSelf();
         } else if (actionType.equals(Stopwatches.SHARE_STOPWATCH)) {
@@ -105,8 +106,11 @@ public class StopwatchService extends Service {
             shareIntent.setType("text/plain");
             shareIntent.putExtra(
                     Intent.EXTRA_SUBJECT, Stopwatches.getShareTitle(getApplicationContext()));
+            LapStats stats = new LapStats();
+            mLapStore.getStats(stats);
             shareIntent.putExtra(Intent.EXTRA_TEXT, Stopwatches.buildShareResults(
-                    getApplicationContext(), mElapsedTime, readLapsFromPrefs()));
+                    getApplicationContext(), mState.accumulatedTime,
+                    Stopwatches.getLapTimes(mLapStore.readAll(), mState.accumulatedTime), stats));
             Intent chooserIntent = Intent.createChooser(shareIntent, null);
             chooserIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             getApplication().startActivity(chooserIntent);
@@ -130,8 +134,6 @@ public class StopwatchService extends Service {
         mNotificationManager.cancel(NOTIFICATION_ID);
         clearSavedNotification();
         mNumLaps = 0;
-        mElapsedTime = 0;
-        mStartTime = 0;
         if (mLoadApp) {
             Intent activityIntent = new Intent(getApplicationContext(), DeskClock.class);
             activityIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
@@ -364,40 +366,32 @@ public class StopwatchService extends Service {
     /**
      * Save the notification to be shown when the app is closed.
      **/
-    private void saveNotification(long clockTime, boolean clockRunning, int numLaps) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                getApplicationContext());
-        SharedPreferences.Editor editor = prefs.edit();
+    private void saveNotification(long clockTime, boolean clockRunning) {
         if (clockRunning) {
-            editor.putLong(Stopwatches.NOTIF_CLOCK_BASE, clockTime);
-            editor.putLong(Stopwatches.NOTIF_CLOCK_ELAPSED, -1);
-            editor.putBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, true);
+            mState.notifClockBase = clockTime;
+            mState.notifClockElapsed = -1;
         } else {
-            editor.putLong(Stopwatches.NOTIF_CLOCK_ELAPSED, clockTime);
-            editor.putLong(Stopwatches.NOTIF_CLOCK_BASE, -1);
-            editor.putBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, false);
+            mState.notifClockElapsed = clockTime;
+            mState.notifClockBase = -1;
         }
-        editor.putBoolean(Stopwatches.PREF_UPDATE_CIRCLE, false);
-        editor.apply();
+        mState.notifClockRunning = clockRunning;
+        mState.updateCircle = false;
     }
 
     /**
      * Show the most recently saved notification.
      **/
     private boolean showSavedNotification() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                getApplicationContext());
-        long clockBaseTime = prefs.getLong(Stopwatches.NOTIF_CLOCK_BASE, -1);
-        long clockElapsedTime = prefs.getLong(Stopwatches.NOTIF_CLOCK_ELAPSED, -1);
-        boolean clockRunning = prefs.getBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, false);
-        int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, -1);
+        long clockBaseTime = mState.notifClockBase;
+        long clockElapsedTime = mState.notifClockElapsed;
+        boolean clockRunning = mState.notifClockRunning;
+        int numLaps = getNumLaps();
         if (clockBaseTime == -1) {
             if (clockElapsedTime == -1) {
                 return false;
             } else {
                 // We don't have a clock base time, so the clock is stopped.
                 // Use the elapsed time to figure out what time to show.
-                mElapsedTime = clockElapsedTime;
                 clockBaseTime = Utils.getTimeNow() - clockElapsedTime;
             }
         }
@@ -406,13 +400,12 @@ public class StopwatchService extends Service {
     }
 
     private void clearSavedNotification() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                getApplicationContext());
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.remove(Stopwatches.NOTIF_CLOCK_BASE);
-        editor.remove(Stopwatches.NOTIF_CLOCK_RUNNING);
-        editor.remove(Stopwatches.NOTIF_CLOCK_ELAPSED);
-        editor.apply();
+        mStateStore.get(mState);
+        if (mState.hasNotification()) {
+            mState.clearNotification();
+            mState.updateCircle = false;
+            mStateStore.commit(mState);
+        }
     }
 
     private void closeNotificationShade() {
@@ -421,135 +414,62 @@ public class StopwatchService extends Service {
         sendBroadcast(intent);
     }
 
-    private void readFromSharedPrefs() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                getApplicationContext());
-        mStartTime = prefs.getLong(Stopwatches.PREF_START_TIME, 0);
-        mElapsedTime = prefs.getLong(Stopwatches.PREF_ACCUM_TIME, 0);
-        mNumLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, Stopwatches.STOPWATCH_RESET);
+    // Number of laps including the running one, none until the first lap was taken
+    private int getNumLaps() {
+        int count = mLapStore.getCount();
+        return count == 0 ? 0 : count + 1;
     }
 
-    private long[] readLapsFromPrefs() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                getApplicationContext());
-        int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, Stopwatches.STOPWATCH_RESET);
-        long[] laps = new long[numLaps];
-        long prevLapElapsedTime = 0;
-        for (int lap_i = 0; lap_i < numLaps; lap_i++) {
-            String key = Stopwatches.PREF_LAP_TIME + Integer.toString(lap_i + 1);
-            long lap = prefs.getLong(key, 0);
-            if (lap == prevLapElapsedTime && lap_i == numLaps - 1) {
-                lap = mElapsedTime;
-            }
-            laps[numLaps - lap_i - 1] = lap - prevLapElapsedTime;
-            prevLapElapsedTime = lap;
+    private void setStarted(long startTime, boolean updateCircle) {
+        mState.startTime = startTime;
+        mState.state = Stopwatches.STOPWATCH_RUNNING;
+        mState.updateCircle = updateCircle;
+        if (updateCircle && mState.circleIntervalStartTime != -1) {
+            mState.circleIntervalStartTime = Utils.getTimeNow();
+            mState.circlePaused = false;
         }
-        return laps;
     }
 
-    private void writeToSharedPrefs(Long startTime, Long lapTimeElapsed, Long elapsedTime,
-                                    Integer state, boolean updateCircle) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                getApplicationContext());
-        SharedPreferences.Editor editor = prefs.edit();
-        if (startTime != null) {
-            editor.putLong(Stopwatches.PREF_START_TIME, startTime);
-            mStartTime = startTime;
-        }
-        if (lapTimeElapsed != null) {
-            int numLaps = prefs.getInt(Stopwatches.PREF_LAP_NUM, 0);
-            if (numLaps == 0) {
-                mNumLaps++;
-                numLaps++;
-            }
-            editor.putLong(Stopwatches.PREF_LAP_TIME + Integer.toString(numLaps), lapTimeElapsed);
-            numLaps++;
-            editor.putLong(Stopwatches.PREF_LAP_TIME + Integer.toString(numLaps), lapTimeElapsed);
-            editor.putInt(Stopwatches.PREF_LAP_NUM, numLaps);
-        }
-        if (elapsedTime != null) {
-            editor.putLong(Stopwatches.PREF_ACCUM_TIME, elapsedTime);
-            mElapsedTime = elapsedTime;
-        }
-        if (state != null) {
-            if (state == Stopwatches.STOPWATCH_RESET) {
-                editor.putInt(Stopwatches.PREF_STATE, Stopwatches.STOPWATCH_RESET);
-            } else if (state == Stopwatches.STOPWATCH_RUNNING) {
-                editor.putInt(Stopwatches.PREF_STATE, Stopwatches.STOPWATCH_RUNNING);
-            } else if (state == Stopwatches.STOPWATCH_STOPPED) {
-                editor.putInt(Stopwatches.PREF_STATE, Stopwatches.STOPWATCH_STOPPED);
-            }
-        }
-        editor.putBoolean(Stopwatches.PREF_UPDATE_CIRCLE, updateCircle);
-        editor.apply();
-    }
-
-    private void writeSharedPrefsStarted(long startTime, boolean updateCircle) {
-        writeToSharedPrefs(startTime, null, null, Stopwatches.STOPWATCH_RUNNING, updateCircle);
-        if (updateCircle) {
-            long time = Utils.getTimeNow();
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                    getApplicationContext());
-            long intervalStartTime = prefs.getLong(
-                    Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL_START, -1);
-            if (intervalStartTime != -1) {
-                intervalStartTime = time;
-                SharedPreferences.Editor editor = prefs.edit();
-                editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL_START,
-                        intervalStartTime);
-                editor.putBoolean(Stopwatches.KEY + CircleTimerView.PREF_CTV_PAUSED, false);
-                editor.apply();
-            }
-        }
-    }
-
-    private void writeSharedPrefsLap(long lapTimeElapsed, boolean updateCircle) {
-        writeToSharedPrefs(null, lapTimeElapsed, null, null, updateCircle);
-        if (updateCircle) {
-            long time = Utils.getTimeNow();
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                    getApplicationContext());
-            SharedPreferences.Editor editor = prefs.edit();
-            long laps[] = readLapsFromPrefs();
-            int numLaps = laps.length;
-            long lapTime = laps[1];
-            if (numLaps == 2) { // Have only hit lap once.
-                editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL, lapTime);
+    private void setLap(boolean updateCircle) {
+        mState.updateCircle = updateCircle;
+        if (updateCircle && mNumLaps > 0) {
+            // Only the last two totals are needed for the time of the last completed lap
+            long[] totals = new long[2];
+            int read = mLapStore.read(Math.max(0, mNumLaps - 3), totals, 0, 2);
+            long lapTime = read == 2 ? totals[1] - totals[0] : totals[0];
+            if (mNumLaps == 2) { // Have only hit lap once.
+                mState.circleIntervalTime = lapTime;
             } else {
-                editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_MARKER_TIME, lapTime);
+                mState.circleMarkerTime = lapTime;
             }
-            editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_ACCUM_TIME, 0);
-            if (numLaps < Stopwatches.MAX_LAPS) {
-                editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL_START, time);
-                editor.putBoolean(Stopwatches.KEY + CircleTimerView.PREF_CTV_PAUSED, false);
+            mState.circleAccumulatedTime = 0;
+            if (mNumLaps < Stopwatches.MAX_LAPS) {
+                mState.circleIntervalStartTime = Utils.getTimeNow();
+                mState.circlePaused = false;
             } else {
-                editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL_START, -1);
+                mState.circleIntervalStartTime = -1;
             }
-            editor.apply();
         }
     }
 
-    private void writeSharedPrefsStopped(long elapsedTime, boolean updateCircle) {
-        writeToSharedPrefs(null, null, elapsedTime, Stopwatches.STOPWATCH_STOPPED, updateCircle);
+    private void setStopped(long accumulatedTime, boolean updateCircle) {
+        mState.accumulatedTime = accumulatedTime;
+        mState.state = Stopwatches.STOPWATCH_STOPPED;
+        mState.updateCircle = updateCircle;
         if (updateCircle) {
-            long time = Utils.getTimeNow();
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
-                    getApplicationContext());
-            long accumulatedTime = prefs.getLong(
-                    Stopwatches.KEY + CircleTimerView.PREF_CTV_ACCUM_TIME, 0);
-            long intervalStartTime = prefs.getLong(
-                    Stopwatches.KEY + CircleTimerView.PREF_CTV_INTERVAL_START, -1);
-            accumulatedTime += time - intervalStartTime;
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.putLong(Stopwatches.KEY + CircleTimerView.PREF_CTV_ACCUM_TIME, accumulatedTime);
-            editor.putBoolean(Stopwatches.KEY + CircleTimerView.PREF_CTV_PAUSED, true);
-            editor.putLong(
-                    Stopwatches.KEY + CircleTimerView.PREF_CTV_CURRENT_INTERVAL, accumulatedTime);
-            editor.apply();
+            if (mState.circleIntervalStartTime != -1) {
+                mState.circleAccumulatedTime +=
+                        Utils.getTimeNow() - mState.circleIntervalStartTime;
+            }
+            mState.circlePaused = true;
+            mState.circleCurrentIntervalTime = mState.circleAccumulatedTime;
         }
     }
 
-    private void writeSharedPrefsReset(boolean updateCircle) {
-        writeToSharedPrefs(null, null, null, Stopwatches.STOPWATCH_RESET, updateCircle);
+    private void setReset(boolean updateCircle) {
+        mLapStore.clear();
+        mNumLaps = 0;
+        mState.reset();
+        mState.updateCircle = updateCircle;
     }
 }
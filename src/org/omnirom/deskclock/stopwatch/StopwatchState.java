@@ -0,0 +1,113 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.stopwatch;
+
+/**
+ * Everything the stopwatch keeps across processes, apart from the laps which
+ * live in the {@link LapStore}. Saved and restored as one record through the
+ * {@link StopwatchStateStore}, so the fields can never be seen half written.
+ */
+public final class StopwatchState {
+    /** One of the Stopwatches.STOPWATCH_* states. */
+    public int state;
+    /** Elapsed realtime the stopwatch was last started at. */
+    public long startTime;
+    /** Time accumulated before the last start. */
+    public long accumulatedTime;
+    /** True if the state was changed from the notification and the app should follow. */
+    public boolean updateCircle;
+
+    // Notification shown once the app is left, base is -1 while the clock is
+    // stopped and elapsed is -1 while it is running, both -1 if there is none
+    public long notifClockBase;
+    public long notifClockElapsed;
+    public boolean notifClockRunning;
+
+    // Lap circle of the stopwatch, see CircleTimerView
+    public boolean circlePaused;
+    public long circleIntervalTime;
+    public long circleIntervalStartTime;
+    public long circleCurrentIntervalTime;
+    public long circleAccumulatedTime;
+    public long circleMarkerTime;
+
+    public StopwatchState() {
+        reset();
+    }
+
+    /**
+     * Set to the state of a stopwatch that was never started.
+     */
+    public void reset() {
+        state = Stopwatches.STOPWATCH_RESET;
+        startTime = 0;
+        accumulatedTime = 0;
+        updateCircle = false;
+        clearNotification();
+        circlePaused = false;
+        circleIntervalTime = 0;
+        circleIntervalStartTime = -1;
+        circleCurrentIntervalTime = 0;
+        circleAccumulatedTime = 0;
+        circleMarkerTime = -1;
+    }
+
+    public void clearNotification() {
+        notifClockBase = -1;
+        notifClockElapsed = -1;
+        notifClockRunning = false;
+    }
+
+    public boolean hasNotification() {
+        return notifClockBase != -1 || notifClockElapsed != -1;
+    }
+
+    public void set(StopwatchState other) {
+        state = other.state;
+        startTime = other.startTime;
+        accumulatedTime = other.accumulatedTime;
+        updateCircle = other.updateCircle;
+        notifClockBase = other.notifClockBase;
+        notifClockElapsed = other.notifClockElapsed;
+        notifClockRunning = other.notifClockRunning;
+        circlePaused = other.circlePaused;
+        circleIntervalTime = other.circleIntervalTime;
+        circleIntervalStartTime = other.circleIntervalStartTime;
+        circleCurrentIntervalTime = other.circleCurrentIntervalTime;
+        circleAccumulatedTime = other.circleAccumulatedTime;
+        circleMarkerTime = other.circleMarkerTime;
+    }
+
+    @Override
+    public String toString() {
+        return "StopwatchState{state=" + state
+                + ", startTime=" + startTime
+                + ", accumulatedTime=" + accumulatedTime
+                + ", updateCircle=" + updateCircle
+                + ", notifClockBase=" + notifClockBase
+                + ", notifClockElapsed=" + notifClockElapsed
+                + ", notifClockRunning=" + notifClockRunning
+                + ", circlePaused=" + circlePaused
+                + ", circleIntervalTime=" + circleIntervalTime
+                + ", circleIntervalStartTime=" + circleIntervalStartTime
+                + ", circleCurrentIntervalTime=" + circleCurrentIntervalTime
+                + ", circleAccumulatedTime=" + circleAccumulatedTime
+                + ", circleMarkerTime=" + circleMarkerTime
+                + "}";
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.stopwatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+
+import org.omnirom.deskclock.CircleTimerView;
+import org.omnirom.deskclock.LogUtils;
+import org.omnirom.deskclock.SettingsActivity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the {@link StopwatchState}.
+ *
+ * Every commit appends the whole state as one fixed-width, checksummed record,
+ * so a process or power loss in the middle of a write only ever loses that
+ * record and the previous state is read back instead. The file is read once per
+ * process, after that the latest state is served from memory. Once the journal
+ * holds {@link #MAX_RECORDS} records it is compacted into a new file holding just
+ * the latest one, which then replaces the journal in a single rename.
+ *
+ * A commit updates the state in memory right away, the record is written on a
+ * thread of its own in commit order, so callers on the main thread never wait
+ * for the disk. How often records are forced to disk is decided by the sync
+ * policy, see {@link #setSyncPolicy(int)}.
+ */
+public final class StopwatchStateStore {
+    private static final String LOGTAG = StopwatchStateStore.class.getSimpleName();
+
+    public interface Listener {
+        /**
+         * Called on the main thread for every committed state, in commit order.
+         *
+         * @param state copy of the committed state
+         */
+        void onStopwatchStateChanged(StopwatchState state);
+    }
+
+    /** Never force records to disk, leave writing them back to the kernel. */
+    public static final int SYNC_NEVER = 0;
+    /** Force records to disk when the stopwatch is started, stopped or reset. */
+    public static final int SYNC_ON_STATE_CHANGE = 1;
+    /** Force every record to disk. */
+    public static final int SYNC_ALWAYS = 2;
+
+    private static final String FILE_NAME = "stopwatch_state";
+    private static final String COMPACT_FILE_NAME = "stopwatch_state.tmp";
+
+    private static final int MAGIC = 0x53574a4c;
+    private static final int VERSION = 1;
+
+    // magic, version, state, flags, nine times, checksum
+    private static final int RECORD_SIZE = 4 * 4 + 9 * 8 + 4;
+
+    private static final int MAX_RECORDS = 64;
+
+    // Seconds the writer thread is kept around without records to write
+    private static final long THREAD_KEEP_ALIVE = 30;
+
+    private static final int FLAG_UPDATE_CIRCLE = 1;
+    private static final int FLAG_NOTIF_CLOCK_RUNNING = 1 << 1;
+    private static final int FLAG_CIRCLE_PAUSED = 1 << 2;
+
+    private static StopwatchStateStore sInstance;
+
+    private final File mFile;
+    private final File mCompactFile;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Runs all journal writes, one at a time in commit order
+    private final ThreadPoolExecutor mWriter;
+
+    // Guarded by this
+    private final StopwatchState mState = new StopwatchState();
+    private final CRC32 mChecksum = new CRC32();
+    private int mSyncPolicy;
+
+    // Number of valid records in the journal, the file is cut to them when loaded.
+    // Only touched by the writer once loaded.
+    private int mCount;
+
+    // Only touched on the main thread
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+
+    public static synchronized StopwatchStateStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StopwatchStateStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private StopwatchStateStore(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mCompactFile = new File(context.getFilesDir(), COMPACT_FILE_NAME);
+        mWriter = new ThreadPoolExecutor(1, 1, THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mWriter.allowCoreThreadTimeOut(true);
+        mSyncPolicy = getSyncPolicy(context);
+        if (mFile.exists()) {
+            load();
+        } else {
+            migrateFromSharedPrefs(context);
+        }
+    }
+
+    private void load() {
+        ByteBuffer buffer;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            FileChannel channel = file.getChannel();
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading
+            }
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to read stopwatch state", e);
+            return;
+        } finally {
+            close(file);
+        }
+
+        buffer.flip();
+        while (buffer.remaining() >= RECORD_SIZE && decode(buffer, mState)) {
+            mCount++;
+        }
+        if (buffer.hasRemaining()) {
+            LogUtils.w(LOGTAG, "Dropped torn stopwatch state record after " + mCount);
+            // Stale records behind the torn one would be read back once the next
+            // append filled the gap, cut them off
+            final long size = (long) mCount * RECORD_SIZE;
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    truncate(size);
+                }
+            });
+        }
+    }
+
+    private void truncate(long size) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            FileChannel channel = file.getChannel();
+            channel.truncate(size);
+            channel.force(false);
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to truncate stopwatch state", e);
+        } finally {
+            close(file);
+        }
+    }
+
+    /**
+     * Move the state saved by older versions, spread over several preferences,
+     * into the journal.
+     */
+    private void migrateFromSharedPrefs(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final String circleKey = Stopwatches.KEY;
+        if (prefs.contains(Stopwatches.PREF_STATE)) {
+            mState.state = prefs.getInt(Stopwatches.PREF_STATE, Stopwatches.STOPWATCH_RESET);
+            mState.startTime = prefs.getLong(Stopwatches.PREF_START_TIME, 0);
+            mState.accumulatedTime = prefs.getLong(Stopwatches.PREF_ACCUM_TIME, 0);
+            mState.updateCircle = prefs.getBoolean(Stopwatches.PREF_UPDATE_CIRCLE, false);
+            mState.notifClockBase = prefs.getLong(Stopwatches.NOTIF_CLOCK_BASE, -1);
+            mState.notifClockElapsed = prefs.getLong(Stopwatches.NOTIF_CLOCK_ELAPSED, -1);
+            mState.notifClockRunning = prefs.getBoolean(Stopwatches.NOTIF_CLOCK_RUNNING, false);
+            mState.circlePaused = prefs.getBoolean(
+                    circleKey + CircleTimerView.PREF_CTV_PAUSED, false);
+            mState.circleIntervalTime = prefs.getLong(
+                    circleKey + CircleTimerView.PREF_CTV_INTERVAL, 0);
+            mState.circleIntervalStartTime = prefs.getLong(
+                    circleKey + CircleTimerView.PREF_CTV_INTERVAL_START, -1);
+            mState.circleCurrentIntervalTime = prefs.getLong(
+                    circleKey + CircleTimerView.PREF_CTV_CURRENT_INTERVAL, 0);
+            mState.circleAccumulatedTime = prefs.getLong(
+                    circleKey + CircleTimerView.PREF_CTV_ACCUM_TIME, 0);
+            mState.circleMarkerTime = prefs.getLong(
+                    circleKey + CircleTimerView.PREF_CTV_MARKER_TIME, -1);
+            LogUtils.i(LOGTAG, "Migrated stopwatch state from preferences");
+        }
+
+        // Write the first record even without anything to migrate, so this runs once
+        append(encode(mState), true);
+
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.remove(Stopwatches.PREF_STATE);
+        editor.remove(Stopwatches.PREF_START_TIME);
+        editor.remove(Stopwatches.PREF_ACCUM_TIME);
+        editor.remove(Stopwatches.PREF_UPDATE_CIRCLE);
+        editor.remove(Stopwatches.NOTIF_CLOCK_BASE);
+        editor.remove(Stopwatches.NOTIF_CLOCK_ELAPSED);
+        editor.remove(Stopwatches.NOTIF_CLOCK_RUNNING);
+        editor.remove(circleKey + CircleTimerView.PREF_CTV_PAUSED);
+        editor.remove(circleKey + CircleTimerView.PREF_CTV_INTERVAL);
+        editor.remove(circleKey + CircleTimerView.PREF_CTV_INTERVAL_START);
+        editor.remove(circleKey + CircleTimerView.PREF_CTV_CURRENT_INTERVAL);
+        editor.remove(circleKey + CircleTimerView.PREF_CTV_ACCUM_TIME);
+        editor.remove(circleKey + CircleTimerView.PREF_CTV_MARKER_TIME);
+        editor.remove(circleKey + CircleTimerView.PREF_CTV_TIMER_MODE);
+        editor.apply();
+    }
+
+    /**
+     * @return the sync policy chosen in the settings
+     */
+    private static int getSyncPolicy(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return Integer.parseInt(prefs.getString(SettingsActivity.KEY_STOPWATCH_SYNC_POLICY,
+                String.valueOf(SYNC_ON_STATE_CHANGE)));
+    }
+
+    /**
+     * Choose when records are forced to disk. Records that are not forced
+     * survive the process being killed once written, they can only be lost if
+     * the device loses power before they were written back.
+     *
+     * @param policy one of {@link #SYNC_NEVER}, {@link #SYNC_ON_STATE_CHANGE}
+     *               or {@link #SYNC_ALWAYS}
+     */
+    public synchronized void setSyncPolicy(int policy) {
+        mSyncPolicy = policy;
+    }
+
+    /**
+     * Copy the latest committed state.
+     *
+     * @param state receiving the state
+     */
+    public synchronized void get(StopwatchState state) {
+        state.set(mState);
+    }
+
+    /**
+     * Replace the saved state by the given one, as a single journal record.
+     *
+     * @param state the complete new state
+     */
+    public void commit(StopwatchState state) {
+        synchronized (this) {
+            boolean stateChanged = state.state != mState.state;
+            boolean sync = mSyncPolicy == SYNC_ALWAYS
+                    || (mSyncPolicy == SYNC_ON_STATE_CHANGE && stateChanged);
+            mState.set(state);
+            // Queued under the lock, so records are written in commit order
+            append(encode(mState), sync);
+        }
+        notifyListeners(state);
+    }
+
+    /**
+     * Commit the state of a stopwatch that was never started.
+     */
+    public void reset() {
+        commit(new StopwatchState());
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void notifyListeners(StopwatchState state) {
+        final StopwatchState committed = new StopwatchState();
+        committed.set(state);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                    listener.onStopwatchStateChanged(committed);
+                }
+            }
+        });
+    }
+
+    private void append(final ByteBuffer record, final boolean sync) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(record, sync);
+            }
+        });
+    }
+
+    // Only called by the writer
+    private void write(ByteBuffer record, boolean sync) {
+        if (mCount >= MAX_RECORDS && compact(record)) {
+            return;
+        }
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            FileChannel channel = file.getChannel();
+            long position = (long) mCount * RECORD_SIZE;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+            mCount++;
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to write stopwatch state", e);
+        } finally {
+            close(file);
+        }
+    }
+
+    /**
+     * Replace the journal by one holding just the given record. The new file is
+     * always forced to disk before the rename, so the rename can never expose a
+     * journal whose record was not written yet.
+     *
+     * @return true if the journal was replaced
+     */
+    private boolean compact(ByteBuffer record) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mCompactFile, "rw");
+            FileChannel channel = file.getChannel();
+            channel.truncate(0);
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            LogUtils.e(LOGTAG, "Failed to compact stopwatch state", e);
+            record.rewind();
+            return false;
+        } finally {
+            close(file);
+        }
+
+        if (!mCompactFile.renameTo(mFile)) {
+            LogUtils.e(LOGTAG, "Failed to replace " + mFile);
+            record.rewind();
+            return false;
+        }
+        mCount = 1;
+        return true;
+    }
+
+    private ByteBuffer encode(StopwatchState state) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        int flags = 0;
+        if (state.updateCircle) {
+            flags |= FLAG_UPDATE_CIRCLE;
+        }
+        if (state.notifClockRunning) {
+            flags |= FLAG_NOTIF_CLOCK_RUNNING;
+        }
+        if (state.circlePaused) {
+            flags |= FLAG_CIRCLE_PAUSED;
+        }
+        record.putInt(MAGIC);
+        record.putInt(VERSION);
+        record.putInt(state.state);
+        record.putInt(flags);
+        record.putLong(state.startTime);
+        record.putLong(state.accumulatedTime);
+        record.putLong(state.notifClockBase);
+        record.putLong(state.notifClockElapsed);
+        record.putLong(state.circleIntervalTime);
+        record.putLong(state.circleIntervalStartTime);
+        record.putLong(state.circleCurrentIntervalTime);
+        record.putLong(state.circleAccumulatedTime);
+        record.putLong(state.circleMarkerTime);
+        mChecksum.reset();
+        mChecksum.update(record.array(), 0, record.position());
+        record.putInt((int) mChecksum.getValue());
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Read the next record into the state. The state is left untouched if the
+     * record is torn or of an unknown version.
+     *
+     * @return true if the record was valid
+     */
+    private boolean decode(ByteBuffer buffer, StopwatchState state) {
+        int start = buffer.position();
+        mChecksum.reset();
+        mChecksum.update(buffer.array(), buffer.arrayOffset() + start, RECORD_SIZE - 4);
+        if (buffer.getInt(start + RECORD_SIZE - 4) != (int) mChecksum.getValue()
+                || buffer.getInt(start) != MAGIC || buffer.getInt(start + 4) != VERSION) {
+            return false;
+        }
+
+        buffer.position(start + 8);
+        state.state = buffer.getInt();
+        int flags = buffer.getInt();
+        state.updateCircle = (flags & FLAG_UPDATE_CIRCLE) != 0;
+        state.notifClockRunning = (flags & FLAG_NOTIF_CLOCK_RUNNING) != 0;
+        state.circlePaused = (flags & FLAG_CIRCLE_PAUSED) != 0;
+        state.startTime = buffer.getLong();
+        state.accumulatedTime = buffer.getLong();
+        state.notifClockBase = buffer.getLong();
+        state.notifClockElapsed = buffer.getLong();
+        state.circleIntervalTime = buffer.getLong();
+        state.circleIntervalStartTime = buffer.getLong();
+        state.circleCurrentIntervalTime = buffer.getLong();
+        state.circleAccumulatedTime = buffer.getLong();
+        state.circleMarkerTime = buffer.getLong();
+        buffer.getInt();
+        return true;
+    }
+
+    private static void close(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+}
@@ -35,22 +35,24 @@ public class Stopwatches {
     public static final String MESSAGE_TIME = "message_time";
     public static final String SHOW_NOTIF = "show_notification";
     public static final String KILL_NOTIF = "kill_notification";
+    // State was kept in preferences by older versions, see StopwatchStateStore
     public static final String PREF_START_TIME  = "sw_start_time";
     public static final String PREF_ACCUM_TIME = "sw_accum_time";
     public static final String PREF_STATE = "sw_state";
-    public static final String PREF_LAP_NUM = "sw_lap_num";
-    public static final String PREF_LAP_TIME = "sw_lap_time_";
     public static final String PREF_UPDATE_CIRCLE = "sw_update_circle";
     public static final String NOTIF_CLOCK_BASE = "notif_clock_base";
     public static final String NOTIF_CLOCK_ELAPSED = "notif_clock_elapsed";
     public static final String NOTIF_CLOCK_RUNNING = "notif_clock_running";
+    // Laps were kept in preferences by older versions, see LapStore
+    public static final String PREF_LAP_NUM = "sw_lap_num";
+    public static final String PREF_LAP_TIME = "sw_lap_time_";
     public static final String KEY = "sw";
 
     public static final int STOPWATCH_RESET = 0;
     public static final int STOPWATCH_RUNNING = 1;
     public static final int STOPWATCH_STOPPED = 2;
 
-    public static final int MAX_LAPS = 99;
+    public static final int MAX_LAPS = 9999;
     public static final int NO_LAP_NUMBER = -1;
 
     /**
@@ -63,14 +65,37 @@ public class Stopwatches {
         return mLabels[(int)(Math.random() * mLabels.length)];
     }
 
+    /**
+     * Turn the lap totals of the lap store into lap times
+     * @param totals total time at the end of each completed lap, oldest first
+     * @param currentTotal total time of the running lap
+     * @return lap times, the running lap first
+     */
+    public static long[] getLapTimes(long[] totals, long currentTotal) {
+        int count = totals.length;
+        if (count == 0) {
+            return new long[0];
+        }
+        long[] laps = new long[count + 1];
+        laps[0] = currentTotal - totals[count - 1];
+        long prevLapElapsedTime = 0;
+        for (int lap_i = 0; lap_i < count; lap_i++) {
+            laps[count - lap_i] = totals[lap_i] - prevLapElapsedTime;
+            prevLapElapsedTime = totals[lap_i];
+        }
+        return laps;
+    }
+
     /**
      * Create a multi-line text with the stopwatch lap data
      * @param context context with resources
      * @param time total elapsed time
      * @param laps array of times
+     * @param stats of the completed laps
      * @return formatted text
      */
-    public static String buildShareResults(Context context, String time, long[] laps) {
+    public static String buildShareResults(Context context, String time, long[] laps,
+            LapStats stats) {
         StringBuilder b = new StringBuilder (context.getString(org.omnirom.deskclock.R.string.sw_share_main, time));
         b.append("\n");
 
@@ -79,6 +104,25 @@ public class Stopwatches {
             return b.toString();
         }
 
+        if (stats.getCount() > 1) {
+            b.append(context.getString(org.omnirom.deskclock.R.string.sw_share_fastest,
+                    getTimeText(context, stats.getFastestLapTime(), NO_LAP_NUMBER)));
+            b.append("\n");
+            b.append(context.getString(org.omnirom.deskclock.R.string.sw_share_slowest,
+                    getTimeText(context, stats.getSlowestLapTime(), NO_LAP_NUMBER)));
+            b.append("\n");
+            b.append(context.getString(org.omnirom.deskclock.R.string.sw_share_average,
+                    getTimeText(context, stats.getMean(), NO_LAP_NUMBER),
+                    getTimeText(context, stats.getStandardDeviation(), NO_LAP_NUMBER)));
+            b.append("\n");
+            if (stats.getCount() > LapStats.MOVING_AVERAGE_LAPS) {
+                b.append(context.getString(org.omnirom.deskclock.R.string.sw_share_moving_average,
+                        LapStats.MOVING_AVERAGE_LAPS,
+                        getTimeText(context, stats.getMovingAverage(), NO_LAP_NUMBER)));
+                b.append("\n");
+            }
+        }
+
         b.append(context.getString(org.omnirom.deskclock.R.string.sw_share_laps));
         b.append("\n");
         for (int i = 1; i <= lapsNum; i ++) {
@@ -93,10 +137,12 @@ public class Stopwatches {
      * @param context context with resources
      * @param time total elapsed time
      * @param laps array of times
+     * @param stats of the completed laps
      * @return formatted text
      */
-    public static String buildShareResults(Context context, long time, long[] laps) {
-        return buildShareResults(context, getTimeText(context, time, NO_LAP_NUMBER), laps);
+    public static String buildShareResults(Context context, long time, long[] laps,
+            LapStats stats) {
+        return buildShareResults(context, getTimeText(context, time, NO_LAP_NUMBER), laps, stats);
     }
 
     /***
@@ -24,6 +24,7 @@ import android.graphics.Typeface;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.TypedValue;
+import android.view.Choreographer;
 import android.view.View;
 
 import org.omnirom.deskclock.CircleTimerView;
@@ -36,17 +37,14 @@ import org.omnirom.deskclock.Utils;
  * This class manages and sums the work of the four members mBigHours, mBigMinutes,
  * mBigSeconds and mMedHundredths. Those members are each tasked with measuring, sizing and
  * drawing digits (and optional label) of the time set in {@link #setTime(long, boolean, boolean)}
+ *
+ * The digits are kept in char buffers and drawn from them glyph by glyph, so updating the
+ * time allocates nothing and only invalidates the view when a glyph actually changed. In
+ * counting mode, see {@link #startCounting(long, OnTickListener)}, the view updates itself
+ * on every display frame.
  */
 public class CountingTimerView extends View {
-    private static final String TWO_DIGITS = "%02d";
-    private static final String TWO_DIGITS_COLON = "%02d:";
-    private static final String TWO_DIGITS_POINT = ".%02d";
-    private static final String ONE_DIGIT = "%01d";
-    private static final String ONE_DIGIT_COLON = "%01d:";
-    private static final String NEG_TWO_DIGITS = "-%02d";
-    private static final String NEG_TWO_DIGITS_COLON = "-%02d:";
-    private static final String NEG_ONE_DIGIT = "-%01d";
-    private static final String NEG_ONE_DIGIT_COLON = "-%01d:";
+    private static final char NO_CHAR = 0;
     private static final float TEXT_SIZE_TO_WIDTH_RATIO = 0.85f;
     // This is the ratio of the font height needed to vertically offset the font for alignment
     // from the center.
@@ -58,7 +56,49 @@ public class CountingTimerView extends View {
     // Radial offset of the enclosing circle
     private final float mRadiusOffset;
 
-    private String mHours, mMinutes, mSeconds, mHundredths;
+    // Time segments as drawn, at most "-999:", "-59:", "59" and ".99"
+    private final char[] mHours = new char[5];
+    private final char[] mMinutes = new char[4];
+    private final char[] mSeconds = new char[2];
+    private final char[] mHundredths = new char[3];
+    // Number of chars used in each segment, 0 if the segment is not shown
+    private int mHoursLength, mMinutesLength, mSecondsLength, mHundredthsLength;
+    // Set while writing the segments if any char differs from what is drawn
+    private boolean mTimeChanged;
+    // The ten digits of the default locale
+    private final char[] mDigits;
+    // Time spoken by accessibility, only rebuilt when it changes
+    private long mDescribedTime = Long.MIN_VALUE;
+
+    // Elapsed realtime of time zero while counting
+    private long mCountingBase;
+    private boolean mCounting;
+    private OnTickListener mTickListener;
+
+    /**
+     * Called on every display frame while counting.
+     */
+    public interface OnTickListener {
+        /**
+         * @param time now shown, in milliseconds
+         */
+        void onTick(long time);
+    }
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mCounting) {
+                return;
+            }
+            long time = Utils.getTimeNow() - mCountingBase;
+            setTime(time, true, true);
+            if (mTickListener != null) {
+                mTickListener.onTick(time);
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
 
     private boolean mShowTimeStr = true;
     private final Paint mPaintBigThin = new Paint();
@@ -128,19 +168,19 @@ public class CountingTimerView extends View {
             this.mSpacingRatio = spacingRatio;
         }
 
-        protected void updateWidth(final String time) {
+        protected void updateWidth(final char[] time, int length) {
             mEm = mPaint.measureText(mWidest);
             mLabelWidth = mSpacingRatio * mEm;
-            mWidth = time.length() * mEm;
+            mWidth = length * mEm;
         }
 
         protected void resetWidth() {
             mWidth = mLabelWidth = 0;
         }
 
-        public float calcTotalWidth(final String time) {
-            if (time != null) {
-                updateWidth(time);
+        public float calcTotalWidth(final char[] time, int length) {
+            if (length != 0) {
+                updateWidth(time, length);
                 return mWidth + mLabelWidth;
             } else {
                 resetWidth();
@@ -156,16 +196,18 @@ public class CountingTimerView extends View {
          * Draws each character with a fixed spacing from time starting at ii.
          * @param canvas the canvas on which the time segment will be drawn
          * @param time time segment
+         * @param length number of characters in time
          * @param ii what character to start the draw
          * @param x offset
          * @param y offset
          * @return X location for the next segment
          */
-        protected float drawTime(Canvas canvas, final String time, int ii, float x, float y) {
+        protected float drawTime(Canvas canvas, final char[] time, int length, int ii,
+                float x, float y) {
             float textEm  = mEm / 2f;
-            while (ii < time.length()) {
+            while (ii < length) {
                 x += textEm;
-                canvas.drawText(time.substring(ii, ii + 1), x, y, mPaint);
+                canvas.drawText(time, ii, 1, x, y, mPaint);
                 x += textEm;
                 ii++;
             }
@@ -176,12 +218,13 @@ public class CountingTimerView extends View {
          * Draw this time segment and append the intra-segment spacing to the x
          * @param canvas the canvas on which the time segment will be drawn
          * @param time time segment
+         * @param length number of characters in time
          * @param x offset
          * @param y offset
          * @return X location for the next segment
          */
-        public float draw(Canvas canvas, final String time, float x, float y) {
-            return drawTime(canvas, time, 0, x, y) + getLabelWidth();
+        public float draw(Canvas canvas, final char[] time, int length, float x, float y) {
+            return drawTime(canvas, time, length, 0, x, y) + getLabelWidth();
         }
     }
 
@@ -195,11 +238,11 @@ public class CountingTimerView extends View {
 
         /**
          * Draw this time segment after prepending the intra-segment spacing to the x location.
-         * {@link UnsignedTime#draw(android.graphics.Canvas, String, float, float)}
+         * {@link UnsignedTime#draw(android.graphics.Canvas, char[], int, float, float)}
          */
         @Override
-        public float draw(Canvas canvas, final String time, float x, float y) {
-            return drawTime(canvas, time, 0, x + getLabelWidth(), y);
+        public float draw(Canvas canvas, final char[] time, int length, float x, float y) {
+            return drawTime(canvas, time, length, 0, x + getLabelWidth(), y);
         }
     }
 
@@ -214,9 +257,9 @@ public class CountingTimerView extends View {
         }
 
         @Override
-        protected void updateWidth(final String time) {
-            super.updateWidth(time);
-            if (time.contains("-")) {
+        protected void updateWidth(final char[] time, int length) {
+            super.updateWidth(time, length);
+            if (length > 0 && time[0] == '-') {
                 mMinusWidth = mPaint.measureText("-");
                 mWidth += (mMinusWidth - mEm);
             } else {
@@ -233,20 +276,20 @@ public class CountingTimerView extends View {
         /**
          * Draws each character with a fixed spacing from time, handling the special negative
          * number case.
-         * {@link UnsignedTime#draw(android.graphics.Canvas, String, float, float)}
+         * {@link UnsignedTime#draw(android.graphics.Canvas, char[], int, float, float)}
          */
         @Override
-        public float draw(Canvas canvas, final String time, float x, float y) {
+        public float draw(Canvas canvas, final char[] time, int length, float x, float y) {
             int ii = 0;
             if (mMinusWidth != 0f) {
                 float minusWidth = mMinusWidth / 2;
                 x += minusWidth;
                 //TODO:hyphen is too thick when painted
-                canvas.drawText(time.substring(0, 1), x, y, mPaint);
+                canvas.drawText(time, 0, 1, x, y, mPaint);
                 x += minusWidth;
                 ii++;
             }
-            return drawTime(canvas, time, ii, x, y) + getLabelWidth();
+            return drawTime(canvas, time, length, ii, x, y) + getLabelWidth();
         }
     }
 
@@ -282,6 +325,7 @@ public class CountingTimerView extends View {
 
         // allDigits will contain ten digits: "0123456789" in the default locale
         final String allDigits = String.format("%010d", 123456789);
+        mDigits = allDigits.length() == 10 ? allDigits.toCharArray() : "0123456789".toCharArray();
         mBigSeconds = new UnsignedTime(mPaintBigThin, 0.f, allDigits);
         mBigHours = new SignedTime(mBigSeconds, HOURS_MINUTES_SPACING);
         mBigMinutes = new SignedTime(mBigSeconds, HOURS_MINUTES_SPACING);
@@ -314,7 +358,6 @@ public class CountingTimerView extends View {
     public void setTime(long time, boolean showHundredths, boolean update) {
         int oldLength = getDigitsLength();
         boolean neg = false, showNeg = false;
-        String format;
         if (time < 0) {
             time = -time;
             neg = showNeg = true;
@@ -354,34 +397,30 @@ public class CountingTimerView extends View {
             }
         }
 
+        mTimeChanged = false;
+
         // Hours may be empty
-        if (hours >= 10) {
-            format = showNeg ? NEG_TWO_DIGITS_COLON : TWO_DIGITS_COLON;
-            mHours = String.format(format, hours);
-        } else if (hours > 0) {
-            format = showNeg ? NEG_ONE_DIGIT_COLON : ONE_DIGIT_COLON;
-            mHours = String.format(format, hours);
+        if (hours > 0) {
+            mHoursLength = setSegment(mHours, mHoursLength, hours, hours >= 10 ? 2 : 1,
+                    showNeg ? '-' : NO_CHAR, ':');
         } else {
-            mHours = null;
+            mHoursLength = clearSegment(mHoursLength);
         }
 
         // Minutes are never empty and when hours are non-empty, must be two digits
-        if (minutes >= 10 || hours > 0) {
-            format = (showNeg && hours == 0) ? NEG_TWO_DIGITS_COLON : TWO_DIGITS_COLON;
-            mMinutes = String.format(format, minutes);
-        } else {
-            format = (showNeg && hours == 0) ? NEG_ONE_DIGIT_COLON : ONE_DIGIT_COLON;
-            mMinutes = String.format(format, minutes);
-        }
+        mMinutesLength = setSegment(mMinutes, mMinutesLength, minutes,
+                (minutes >= 10 || hours > 0) ? 2 : 1,
+                (showNeg && hours == 0) ? '-' : NO_CHAR, ':');
 
         // Seconds are always two digits
-        mSeconds = String.format(TWO_DIGITS, seconds);
+        mSecondsLength = setSegment(mSeconds, mSecondsLength, seconds, 2, NO_CHAR, NO_CHAR);
 
         // Hundredths are optional and then two digits
         if (showHundredths) {
-            mHundredths = String.format(TWO_DIGITS_POINT, hundreds);
+            mHundredthsLength = setSegment(mHundredths, mHundredthsLength, hundreds, 2,
+                    '.', NO_CHAR);
         } else {
-            mHundredths = null;
+            mHundredthsLength = clearSegment(mHundredthsLength);
         }
 
         int newLength = getDigitsLength();
@@ -392,24 +431,78 @@ public class CountingTimerView extends View {
             mRemeasureText = true;
         }
 
-        if (update) {
-            setContentDescription(getTimeStringForAccessibility((int) hours, (int) minutes,
-                    (int) seconds, showNeg, getResources()));
+        if (update && mTimeChanged) {
+            long describedTime = (hours * 60 + minutes) * 60 + seconds;
+            if (showNeg) {
+                describedTime = -describedTime - 1;
+            }
+            if (describedTime != mDescribedTime) {
+                mDescribedTime = describedTime;
+                setContentDescription(getTimeStringForAccessibility((int) hours, (int) minutes,
+                        (int) seconds, showNeg, getResources()));
+            }
             invalidate();
         }
     }
 
+    /**
+     * Write a time segment in place, noting any change in {@link #mTimeChanged}.
+     *
+     * @param segment buffer of the segment
+     * @param oldLength number of chars the segment used so far
+     * @param value to write, at most three digits
+     * @param minDigits number of digits to pad value with zeros to
+     * @param prefix char before the digits or {@link #NO_CHAR}
+     * @param suffix char after the digits or {@link #NO_CHAR}
+     * @return number of chars the segment uses now
+     */
+    private int setSegment(char[] segment, int oldLength, long value, int minDigits,
+            char prefix, char suffix) {
+        int digits = value >= 100 ? 3 : value >= 10 ? 2 : 1;
+        if (digits < minDigits) {
+            digits = minDigits;
+        }
+        int length = 0;
+        if (prefix != NO_CHAR) {
+            setChar(segment, length++, prefix);
+        }
+        for (int ii = length + digits - 1; ii >= length; ii--) {
+            setChar(segment, ii, mDigits[(int) (value % 10)]);
+            value /= 10;
+        }
+        length += digits;
+        if (suffix != NO_CHAR) {
+            setChar(segment, length++, suffix);
+        }
+        if (length != oldLength) {
+            mTimeChanged = true;
+        }
+        return length;
+    }
+
+    private void setChar(char[] segment, int index, char c) {
+        if (segment[index] != c) {
+            segment[index] = c;
+            mTimeChanged = true;
+        }
+    }
+
+    private int clearSegment(int oldLength) {
+        if (oldLength != 0) {
+            mTimeChanged = true;
+        }
+        return 0;
+    }
+
     private int getDigitsLength() {
-        return ((mHours == null) ? 0 : mHours.length())
-                + ((mMinutes == null) ? 0 : mMinutes.length())
-                + ((mSeconds == null) ? 0 : mSeconds.length())
-                + ((mHundredths == null) ? 0 : mHundredths.length());
+        return mHoursLength + mMinutesLength + mSecondsLength + mHundredthsLength;
     }
 
     private void calcTotalTextWidth() {
-        mTotalTextWidth = mBigHours.calcTotalWidth(mHours) + mBigMinutes.calcTotalWidth(mMinutes)
-                + mBigSeconds.calcTotalWidth(mSeconds)
-                + mMedHundredths.calcTotalWidth(mHundredths);
+        mTotalTextWidth = mBigHours.calcTotalWidth(mHours, mHoursLength)
+                + mBigMinutes.calcTotalWidth(mMinutes, mMinutesLength)
+                + mBigSeconds.calcTotalWidth(mSeconds, mSecondsLength)
+                + mMedHundredths.calcTotalWidth(mHundredths, mHundredthsLength);
     }
 
     /**
@@ -471,17 +564,42 @@ public class CountingTimerView extends View {
     }
 
     public String getTimeString() {
-        // Though only called from Stopwatch Share, so hundredth are never null,
-        // protect the future and check for null mHundredths
-        if (mHundredths == null) {
-            if (mHours == null) {
-                return String.format("%s%s", mMinutes, mSeconds);
-            }
-            return String.format("%s%s%s", mHours, mMinutes, mSeconds);
-        } else if (mHours == null) {
-            return String.format("%s%s%s", mMinutes, mSeconds, mHundredths);
+        return new StringBuilder(getDigitsLength())
+                .append(mHours, 0, mHoursLength)
+                .append(mMinutes, 0, mMinutesLength)
+                .append(mSeconds, 0, mSecondsLength)
+                .append(mHundredths, 0, mHundredthsLength)
+                .toString();
+    }
+
+    /**
+     * Show the time counting up from base, updated on every display frame until
+     * {@link #stopCounting()} is called or the view is detached.
+     *
+     * @param base elapsed realtime at which the shown time is zero
+     * @param listener called after every update, may be null
+     */
+    public void startCounting(long base, OnTickListener listener) {
+        mCountingBase = base;
+        mTickListener = listener;
+        if (!mCounting) {
+            mCounting = true;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
         }
-        return String.format("%s%s%s%s", mHours, mMinutes, mSeconds, mHundredths);
+    }
+
+    public void stopCounting() {
+        if (mCounting) {
+            mCounting = false;
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        }
+        mTickListener = null;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        stopCounting();
     }
 
     private static String getTimeStringForAccessibility(int hours, int minutes, int seconds,
@@ -551,17 +669,19 @@ public class CountingTimerView extends View {
         float xTextStart = xCenter - mTotalTextWidth / 2;
         float yTextStart = yCenter + mTextHeight/2 - (mTextHeight * FONT_VERTICAL_OFFSET);
 
-        if (mHours != null) {
-            xTextStart = mBigHours.draw(canvas, mHours, xTextStart, yTextStart);
+        if (mHoursLength != 0) {
+            xTextStart = mBigHours.draw(canvas, mHours, mHoursLength, xTextStart, yTextStart);
         }
-        if (mMinutes != null) {
-            xTextStart = mBigMinutes.draw(canvas, mMinutes, xTextStart, yTextStart);
+        if (mMinutesLength != 0) {
+            xTextStart = mBigMinutes.draw(canvas, mMinutes, mMinutesLength, xTextStart,
+                    yTextStart);
         }
-        if (mSeconds != null) {
-            xTextStart = mBigSeconds.draw(canvas, mSeconds, xTextStart, yTextStart);
+        if (mSecondsLength != 0) {
+            xTextStart = mBigSeconds.draw(canvas, mSeconds, mSecondsLength, xTextStart,
+                    yTextStart);
         }
-        if (mHundredths != null) {
-            mMedHundredths.draw(canvas, mHundredths, xTextStart, yTextStart);
+        if (mHundredthsLength != 0) {
+            mMedHundredths.draw(canvas, mHundredths, mHundredthsLength, xTextStart, yTextStart);
         }
     }
 
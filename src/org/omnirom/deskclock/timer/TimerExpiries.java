@@ -0,0 +1,87 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Groups the expiries of the running timers, so a cluster of timers going off
+ * close together needs a single wakeup and a single pass through the receiver
+ * instead of one per timer.
+ *
+ * The wakeup of a cluster is the expiry of its last timer, so no timer is ever
+ * reported before it is due. The earlier timers of a cluster go off at most one
+ * coalescing window late.
+ */
+final class TimerExpiries {
+    private static final Comparator<TimerObj> EXPIRY_ORDER = new Comparator<TimerObj>() {
+        @Override
+        public int compare(TimerObj lhs, TimerObj rhs) {
+            int result = Long.compare(lhs.getTimesupTime(), rhs.getTimesupTime());
+            return result != 0 ? result : Integer.compare(lhs.mTimerId, rhs.mTimerId);
+        }
+    };
+
+    private TimerExpiries() {}
+
+    /**
+     * @param window in milliseconds, timers going off no later than that after the
+     *               earliest one share its wakeup
+     * @return elapsed realtime to wake up at for the next cluster of expiries,
+     *         -1 if no timer is running
+     */
+    static long getNextWakeup(List<TimerObj> timers, long window) {
+        long first = Long.MAX_VALUE;
+        for (TimerObj t : timers) {
+            if (t.mState == TimerObj.STATE_RUNNING) {
+                first = Math.min(first, t.getTimesupTime());
+            }
+        }
+        if (first == Long.MAX_VALUE) {
+            return -1;
+        }
+
+        long wakeup = first;
+        for (TimerObj t : timers) {
+            if (t.mState == TimerObj.STATE_RUNNING) {
+                long time = t.getTimesupTime();
+                if (time <= first + window) {
+                    wakeup = Math.max(wakeup, time);
+                }
+            }
+        }
+        return wakeup;
+    }
+
+    /**
+     * @return the running timers due by now in the order they went off, empty if none is due
+     */
+    static List<TimerObj> getDue(List<TimerObj> timers, long now) {
+        List<TimerObj> due = new ArrayList<TimerObj>();
+        for (TimerObj t : timers) {
+            if (t.mState == TimerObj.STATE_RUNNING && t.getTimesupTime() <= now) {
+                due.add(t);
+            }
+        }
+        Collections.sort(due, EXPIRY_ORDER);
+        return due;
+    }
+}
@@ -24,11 +24,9 @@ import android.animation.TimeInterpolator;
 import android.app.NotificationManager;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.res.Resources;
+import android.database.DataSetObserver;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.v4.view.ViewPager;
 import android.text.format.DateUtils;
 import android.transition.AutoTransition;
@@ -40,7 +38,6 @@ import android.view.ViewGroup;
 import android.view.animation.AccelerateDecelerateInterpolator;
 import android.view.animation.AccelerateInterpolator;
 import android.view.animation.DecelerateInterpolator;
-import android.widget.ImageButton;
 import android.widget.ImageView;
 
 import org.omnirom.deskclock.DeskClock;
@@ -49,7 +46,7 @@ import org.omnirom.deskclock.TimerSetupView;
 import org.omnirom.deskclock.Utils;
 import org.omnirom.deskclock.VerticalViewPager;
 
-public class TimerFragment extends DeskClockFragment implements OnSharedPreferenceChangeListener {
+public class TimerFragment extends DeskClockFragment implements TimerModel.Listener {
     public static final long ANIMATION_TIME_MILLIS = DateUtils.SECOND_IN_MILLIS / 3;
 
     private static final String KEY_SETUP_SELECTED = "_setup_selected";
@@ -60,7 +57,6 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
     private static final TimeInterpolator DECELERATE_INTERPOLATOR = new DecelerateInterpolator();
     private static final long ROTATE_ANIM_DURATION_MILIS = 150;
 
-    private boolean mTicking = false;
     private TimerSetupView mSetupView;
     private VerticalViewPager mViewPager;
     private TimerFragmentAdapter mAdapter;
@@ -69,7 +65,6 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
     private View mLastView;
     private ImageView[] mPageIndicators = new ImageView[PAGINATION_DOTS_COUNT];
     private Transition mDeleteTransition;
-    private SharedPreferences mPrefs;
     private Bundle mViewState = null;
     private NotificationManager mNotificationManager;
     private boolean mLeftButtonSticky = false;
@@ -83,33 +78,21 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
                 }
             };
 
-    private final Runnable mClockTick = new Runnable() {
-        boolean mVisible = true;
-        final static int TIME_PERIOD_MS = 1000;
-        final static int TIME_DELAY_MS = 20;
-        final static int SPLIT = TIME_PERIOD_MS / 2;
-
+    private final TimerTicker mTicker = new TimerTicker(new TimerTicker.Client() {
         @Override
-        public void run() {
-            // Setup for blinking
-            final boolean visible = Utils.getTimeNow() % TIME_PERIOD_MS < SPLIT;
-            final boolean toggle = mVisible != visible;
-            mVisible = visible;
+        public long onTick(long now) {
+            final boolean visible = TimerTicker.isBlinkVisible(now);
+            long next = TimerTicker.NEVER;
             for (int i = 0; i < mAdapter.getCount(); i++) {
                 final TimerObj t = mAdapter.getTimerAt(i);
-                if (t.mState == TimerObj.STATE_RUNNING || t.mState == TimerObj.STATE_TIMESUP) {
+                if (t.isTicking()) {
                     final long timeLeft = t.updateTimeLeft(false);
                     if (t.mView != null) {
                         t.mView.setTime(timeLeft, false);
-                        // Update button every 1/2 second
-                        if (toggle) {
-                            final ImageButton addMinuteButton = (ImageButton)
-                                    t.mView.findViewById(org.omnirom.deskclock.R.id.reset_add);
-                            final boolean canAddMinute = TimerObj.MAX_TIMER_LENGTH - t.mTimeLeft
-                                    > TimerObj.MINUTE_IN_MILLIS;
-                            addMinuteButton.setEnabled(canAddMinute);
-                        }
+                        t.mView.setCanAddMinute(TimerObj.MAX_TIMER_LENGTH - timeLeft
+                                > TimerObj.MINUTE_IN_MILLIS);
                     }
+                    next = Math.min(next, TimerTicker.nextSecondChange(now, timeLeft));
                 }
                 if (t.mTimeLeft <= 0 && t.mState != TimerObj.STATE_DONE
                         && t.mState != TimerObj.STATE_RESTART) {
@@ -119,16 +102,24 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
                     }
                 }
                 // The blinking
-                if (toggle && t.mView != null) {
+                if (t.mView != null) {
                     if (t.mState == TimerObj.STATE_TIMESUP) {
-                        t.mView.setCircleBlink(mVisible);
-                    }
-                    if (t.mState == TimerObj.STATE_STOPPED) {
-                        t.mView.setTextBlink(mVisible);
+                        t.mView.setCircleBlink(visible);
+                        next = Math.min(next, TimerTicker.nextBlinkToggle(now));
+                    } else if (t.mState == TimerObj.STATE_STOPPED) {
+                        t.mView.setTextBlink(visible);
+                        next = Math.min(next, TimerTicker.nextBlinkToggle(now));
                     }
                 }
             }
-            mTimerView.postDelayed(mClockTick, TIME_DELAY_MS);
+            return next;
+        }
+    });
+
+    private final DataSetObserver mTimersObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            mTicker.update();
         }
     };
 
@@ -161,7 +152,6 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
         final Context context = getActivity();
-        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         mNotificationManager = (NotificationManager) context.getSystemService(Context
                 .NOTIFICATION_SERVICE);
     }
@@ -174,25 +164,15 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
         activity.registerPageChangedListener(this);
 
         if (mAdapter == null) {
-            mAdapter = new TimerFragmentAdapter(getChildFragmentManager(), mPrefs);
+            mAdapter = new TimerFragmentAdapter(getChildFragmentManager(), activity);
+            mAdapter.registerDataSetObserver(mTimersObserver);
         }
-        mAdapter.populateTimersFromPref();
+        mAdapter.populateTimersFromModel();
 
         // xxx
         mViewPager.setAdapter(mAdapter);
         mViewPager.setOnPageChangeListener(mOnPageChangeListener);
-        mPrefs.registerOnSharedPreferenceChangeListener(this);
-
-        // Clear the flag set in the notification and alert because the adapter was just
-        // created and is thus in sync with the database
-        final SharedPreferences.Editor editor = mPrefs.edit();
-        if (mPrefs.getBoolean(Timers.FROM_NOTIFICATION, false)) {
-            editor.putBoolean(Timers.FROM_NOTIFICATION, false);
-        }
-        if (mPrefs.getBoolean(Timers.FROM_ALERT, false)) {
-            editor.putBoolean(Timers.FROM_ALERT, false);
-        }
-        editor.apply();
+        TimerModel.getInstance(activity).addListener(this);
 
         boolean goToSetUpView;
         // Process extras that were sent to the app and were intended for the timer fragment
@@ -242,9 +222,9 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
         if (getActivity() instanceof DeskClock) {
             ((DeskClock) getActivity()).unregisterPageChangedListener(this);
         }
-        mPrefs.unregisterOnSharedPreferenceChangeListener(this);
+        TimerModel.getInstance(getActivity()).removeListener(this);
         if (mAdapter != null) {
-            mAdapter.saveTimersToSharedPrefs();
+            mAdapter.saveTimersToModel();
         }
         stopClockTicks();
     }
@@ -253,7 +233,7 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         if (mAdapter != null) {
-            mAdapter.saveTimersToSharedPrefs();
+            mAdapter.saveTimersToModel();
         }
         if (mSetupView != null) {
             outState.putBoolean(KEY_SETUP_SELECTED, mSetupView.getVisibility() == View.VISIBLE);
@@ -281,16 +261,12 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
 
     // Starts the ticks that animate the timers.
     private void startClockTicks() {
-        mTimerView.postDelayed(mClockTick, 20);
-        mTicking = true;
+        mTicker.start();
     }
 
     // Stops the ticks that animate the timers.
     private void stopClockTicks() {
-        if (mTicking) {
-            mViewPager.removeCallbacks(mClockTick);
-            mTicking = false;
-        }
+        mTicker.stop();
     }
 
     private void goToPagerView() {
@@ -320,8 +296,9 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
                 goToSetUpView();
             }
         } else {
-            t.writeToSharedPref(mPrefs);
+            TimerModel.getInstance(getActivity()).updateTimer(t);
         }
+        mTicker.update();
         final Intent i = new Intent();
         i.setAction(action);
         i.putExtra(Timers.TIMER_INTENT_EXTRA, t.mTimerId);
@@ -612,29 +589,19 @@ public class TimerFragment extends DeskClockFragment implements OnSharedPreferen
     }
 
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
-        if (prefs.equals(mPrefs)) {
-            if ((key.equals(Timers.FROM_ALERT) && prefs.getBoolean(Timers.FROM_ALERT, false))
-                    || (key.equals(Timers.FROM_NOTIFICATION)
-                    && prefs.getBoolean(Timers.FROM_NOTIFICATION, false))) {
-                // The data-changed flag was set in the alert or notification so the adapter needs
-                // to re-sync with the database
-                SharedPreferences.Editor editor = mPrefs.edit();
-                editor.putBoolean(key, false);
-                editor.apply();
-                mAdapter.populateTimersFromPref();
-                mViewPager.setAdapter(mAdapter);
-                if (mViewState != null) {
-                    final int currPage = mViewState.getInt(CURR_PAGE);
-                    mViewPager.setCurrentItem(currPage);
-                    highlightPageIndicator(currPage);
-                } else {
-                    highlightPageIndicator(0);
-                }
-                setFabAppearance();
-                return;
-            }
+    public void onTimersChanged() {
+        // The alert or notification changed the timers so the adapter needs
+        // to re-sync with the model
+        mAdapter.populateTimersFromModel();
+        mViewPager.setAdapter(mAdapter);
+        if (mViewState != null) {
+            final int currPage = mViewState.getInt(CURR_PAGE);
+            mViewPager.setCurrentItem(currPage);
+            highlightPageIndicator(currPage);
+        } else {
+            highlightPageIndicator(0);
         }
+        setFabAppearance();
     }
 
     public void setLabel(TimerObj timer, String label) {
@@ -27,11 +27,9 @@ import android.app.FragmentTransaction;
 import android.app.NotificationManager;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.database.DataSetObserver;
 import android.os.Bundle;
 import android.os.Handler;
-import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -67,7 +65,7 @@ import java.util.LinkedList;
 // TODO: This class is renamed from TimerFragment to TimerFullScreenFragment with no change. It
 // is responsible for the timer list in full screen timer alert and should be deprecated shortly.
 public class TimerFullScreenFragment extends DeskClockFragment
-        implements OnClickListener, OnSharedPreferenceChangeListener {
+        implements OnClickListener, TimerModel.Listener {
 
     private static final String TAG = "TimerFragment1";
     private static final String KEY_ENTRY_STATE = "entry_state";
@@ -82,8 +80,6 @@ public class TimerFullScreenFragment extends DeskClockFragment
     private ImageButton mFab;
     private TimerSetupView mTimerSetup;
     private TimersListAdapter mAdapter;
-    private boolean mTicking = false;
-    private SharedPreferences mPrefs;
     private NotificationManager mNotificationManager;
     private OnEmptyListListener mOnEmptyListListener;
     private View mLastVisibleView = null;  // used to decide if to set the view or animate to it.
@@ -108,28 +104,31 @@ public class TimerFullScreenFragment extends DeskClockFragment
         public void onListChanged();
     }
 
-    TimersListAdapter createAdapter(Context context, SharedPreferences prefs) {
+    TimersListAdapter createAdapter(Context context) {
+        final TimersListAdapter adapter;
         if (mOnEmptyListListener == null) {
-            return new TimersListAdapter(context, prefs);
+            adapter = new TimersListAdapter(context);
         } else {
-            return new TimesUpListAdapter(context, prefs);
+            adapter = new TimesUpListAdapter(context);
         }
+        adapter.registerDataSetObserver(mTimersObserver);
+        return adapter;
     }
 
     private class TimersListAdapter extends GridAdapter {
 
         ArrayList<TimerObj> mTimers = new ArrayList<TimerObj>();
         Context mContext;
-        SharedPreferences mmPrefs;
+        TimerModel mmModel;
 
         private void clear() {
             mTimers.clear();
             notifyDataSetChanged();
         }
 
-        public TimersListAdapter(Context context, SharedPreferences prefs) {
+        public TimersListAdapter(Context context) {
             mContext = context;
-            mmPrefs = prefs;
+            mmModel = TimerModel.getInstance(context);
         }
 
         @Override
@@ -163,7 +162,7 @@ public class TimerFullScreenFragment extends DeskClockFragment
                     if (t.mView != null) {
                         ((TimerListItem) t.mView).stop();
                     }
-                    t.deleteFromSharedPref(mmPrefs);
+                    mmModel.deleteTimer(id);
                     mTimers.remove(i);
                     if (mTimers.size() == 1 && mColumnCount > 1) {
                         // If we're going from two timers to one (in the same row), we don't want to
@@ -285,16 +284,16 @@ public class TimerFullScreenFragment extends DeskClockFragment
         }
 
         public void onSaveInstanceState(Bundle outState) {
-            TimerObj.putTimersInSharedPrefs(mmPrefs, mTimers);
+            mmModel.updateTimers(mTimers);
         }
 
         public void onRestoreInstanceState(Bundle outState) {
-            TimerObj.getTimersFromSharedPrefs(mmPrefs, mTimers);
+            mmModel.getTimers(mTimers);
             sort();
         }
 
         public void saveGlobalState() {
-            TimerObj.putTimersInSharedPrefs(mmPrefs, mTimers);
+            mmModel.updateTimers(mTimers);
         }
 
         public void sort() {
@@ -338,8 +337,8 @@ public class TimerFullScreenFragment extends DeskClockFragment
 
     private class TimesUpListAdapter extends TimersListAdapter {
 
-        public TimesUpListAdapter(Context context, SharedPreferences prefs) {
-            super(context, prefs);
+        public TimesUpListAdapter(Context context) {
+            super(context);
         }
 
         @Override
@@ -357,7 +356,7 @@ public class TimerFullScreenFragment extends DeskClockFragment
         @Override
         public void onRestoreInstanceState(Bundle outState) {
             // This adapter loads a subset
-            TimerObj.getTimersFromSharedPrefs(mmPrefs, mTimers, TimerObj.STATE_TIMESUP);
+            mmModel.getTimers(mTimers, TimerObj.STATE_TIMESUP);
 
             if (getCount() == 0) {
                 mOnEmptyListListener.onEmptyList();
@@ -372,24 +371,22 @@ public class TimerFullScreenFragment extends DeskClockFragment
         }
     }
 
-    private final Runnable mClockTick = new Runnable() {
-        boolean mVisible = true;
-        final static int TIME_PERIOD_MS = 1000;
-        final static int SPLIT = TIME_PERIOD_MS / 2;
-
+    private final TimerTicker mTicker = new TimerTicker(new TimerTicker.Client() {
         @Override
-        public void run() {
-            // Setup for blinking
-            boolean visible = Utils.getTimeNow() % TIME_PERIOD_MS < SPLIT;
-            boolean toggle = mVisible != visible;
-            mVisible = visible;
+        public long onTick(long now) {
+            if (mAdapter == null) {
+                return TimerTicker.NEVER;
+            }
+            final boolean visible = TimerTicker.isBlinkVisible(now);
+            long next = TimerTicker.NEVER;
             for (int i = 0; i < mAdapter.getCount(); i++) {
                 TimerObj t = mAdapter.getItem(i);
-                if (t.mState == TimerObj.STATE_RUNNING || t.mState == TimerObj.STATE_TIMESUP) {
+                if (t.isTicking()) {
                     long timeLeft = t.updateTimeLeft(false);
                     if (t.mView != null) {
                         ((TimerListItem) (t.mView)).setTime(timeLeft, false);
                     }
+                    next = Math.min(next, TimerTicker.nextSecondChange(now, timeLeft));
                 }
                 if (t.mTimeLeft <= 0 && t.mState != TimerObj.STATE_DONE
                         && t.mState != TimerObj.STATE_RESTART) {
@@ -400,17 +397,25 @@ public class TimerFullScreenFragment extends DeskClockFragment
                 }
 
                 // The blinking
-                if (toggle && t.mView != null) {
+                if (t.mView != null) {
                     /*if (t.mState == TimerObj.STATE_TIMESUP) {
-                        ((TimerListItem) (t.mView)).setCircleBlink(mVisible);
+                        ((TimerListItem) (t.mView)).setCircleBlink(visible);
                     }*/
                     if (t.mState == TimerObj.STATE_STOPPED ||
                             t.mState == TimerObj.STATE_TIMESUP) {
-                        ((TimerListItem) (t.mView)).setTextBlink(mVisible);
+                        ((TimerListItem) (t.mView)).setTextBlink(visible);
+                        next = Math.min(next, TimerTicker.nextBlinkToggle(now));
                     }
                 }
             }
-            mTimersList.postDelayed(mClockTick, 20);
+            return next;
+        }
+    });
+
+    private final DataSetObserver mTimersObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            mTicker.update();
         }
     };
 
@@ -454,7 +459,6 @@ public class TimerFullScreenFragment extends DeskClockFragment
         mTimersListPage = v.findViewById(org.omnirom.deskclock.R.id.timers_list_page);
         mTimerSetup = (TimerSetupView) v.findViewById(org.omnirom.deskclock.R.id.timer_setup);
 
-        mPrefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
         mNotificationManager = (NotificationManager)
                 getActivity().getSystemService(Context.NOTIFICATION_SERVICE);
 
@@ -478,9 +482,9 @@ public class TimerFullScreenFragment extends DeskClockFragment
             newIntent = activity.getIntent();
         }
         super.onResume();
-        mPrefs.registerOnSharedPreferenceChangeListener(this);
+        TimerModel.getInstance(getActivity()).addListener(this);
 
-        mAdapter = createAdapter(getActivity(), mPrefs);
+        mAdapter = createAdapter(getActivity());
         mAdapter.onRestoreInstanceState(null);
 
         LayoutParams params;
@@ -498,21 +502,6 @@ public class TimerFullScreenFragment extends DeskClockFragment
             mAdapter.setFooterView(footerView);
         }
 
-        if (mPrefs.getBoolean(Timers.FROM_NOTIFICATION, false)) {
-            // Clear the flag set in the notification because the adapter was just
-            // created and is thus in sync with the database
-            SharedPreferences.Editor editor = mPrefs.edit();
-            editor.putBoolean(Timers.FROM_NOTIFICATION, false);
-            editor.apply();
-        }
-        if (mPrefs.getBoolean(Timers.FROM_ALERT, false)) {
-            // Clear the flag set in the alert because the adapter was just
-            // created and is thus in sync with the database
-            SharedPreferences.Editor editor = mPrefs.edit();
-            editor.putBoolean(Timers.FROM_ALERT, false);
-            editor.apply();
-        }
-
         mTimersList.setAdapter(mAdapter);
         mLastVisibleView = null;   // Force a non animation setting of the view
         setPage();
@@ -591,7 +580,7 @@ public class TimerFullScreenFragment extends DeskClockFragment
         if (mAdapter != null) {
             mAdapter.saveGlobalState();
         }
-        mPrefs.unregisterOnSharedPreferenceChangeListener(this);
+        TimerModel.getInstance(getActivity()).removeListener(this);
         // This is called because the lock screen was activated, the window stay
         // active under it and when we unlock the screen, we see the old time for
         // a fraction of a second.
@@ -680,9 +669,7 @@ public class TimerFullScreenFragment extends DeskClockFragment
         }
 
         if (notifyChange) {
-            SharedPreferences.Editor editor = mPrefs.edit();
-            editor.putBoolean(Timers.FROM_ALERT, true);
-            editor.apply();
+            TimerModel.getInstance(getActivity()).notifyTimersChanged();
         }
     }
 
@@ -861,25 +848,22 @@ public class TimerFullScreenFragment extends DeskClockFragment
 
     // Starts the ticks that animate the timers.
     private void startClockTicks() {
-        mTimersList.postDelayed(mClockTick, 20);
-        mTicking = true;
+        mTicker.start();
     }
 
     // Stops the ticks that animate the timers.
     private void stopClockTicks() {
-        if (mTicking) {
-            mTimersList.removeCallbacks(mClockTick);
-            mTicking = false;
-        }
+        mTicker.stop();
     }
 
     private void updateTimersState(TimerObj t, String action) {
         if (Timers.DELETE_TIMER.equals(action)) {
             LogUtils.e("~~ update timer state");
-            t.deleteFromSharedPref(mPrefs);
+            TimerModel.getInstance(getActivity()).deleteTimer(t.mTimerId);
         } else {
-            t.writeToSharedPref(mPrefs);
+            TimerModel.getInstance(getActivity()).updateTimer(t);
         }
+        mTicker.update();
         Intent i = new Intent();
         i.setAction(action);
         i.putExtra(Timers.TIMER_INTENT_EXTRA, t.mTimerId);
@@ -907,7 +891,7 @@ public class TimerFullScreenFragment extends DeskClockFragment
     }
 
     public void restartAdapter() {
-        mAdapter = createAdapter(getActivity(), mPrefs);
+        mAdapter = createAdapter(getActivity());
         mAdapter.onRestoreInstanceState(null);
     }
 
@@ -921,21 +905,12 @@ public class TimerFullScreenFragment extends DeskClockFragment
     }
 
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
-        if (prefs.equals(mPrefs)) {
-            if ((key.equals(Timers.FROM_ALERT) && prefs.getBoolean(Timers.FROM_ALERT, false))
-                    || (key.equals(Timers.FROM_NOTIFICATION)
-                    && prefs.getBoolean(Timers.FROM_NOTIFICATION, false))) {
-                // The data-changed flag was set in the alert or notification so the adapter needs
-                // to re-sync with the database
-                SharedPreferences.Editor editor = mPrefs.edit();
-                editor.putBoolean(key, false);
-                editor.apply();
-                mAdapter = createAdapter(getActivity(), mPrefs);
-                mAdapter.onRestoreInstanceState(null);
-                mTimersList.setAdapter(mAdapter);
-            }
-        }
+    public void onTimersChanged() {
+        // The alert or notification changed the timers so the adapter needs
+        // to re-sync with the model
+        mAdapter = createAdapter(getActivity());
+        mAdapter.onRestoreInstanceState(null);
+        mTimersList.setAdapter(mAdapter);
     }
 
     /*@Override
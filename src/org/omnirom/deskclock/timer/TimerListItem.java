@@ -53,7 +53,8 @@ public class TimerListItem extends LinearLayout {
         super.onFinishInflate();
         mTimerText = (CountingTimerView) findViewById(org.omnirom.deskclock.R.id.timer_time_text);
         mCircleView = (CircleTimerView) findViewById(org.omnirom.deskclock.R.id.timer_time);
-        mCircleView.setBackgroundResource(Utils.getCircleViewBackgroundResourceId(getContext()));        mResetAddButton = (ImageView) findViewById(org.omnirom.deskclock.R.id.reset_add);
+        mCircleView.setBackgroundResource(Utils.getCircleViewBackgroundResourceId(getContext()));
+        mResetAddButton = (ImageView) findViewById(org.omnirom.deskclock.R.id.reset_add);
         mCircleView.setTimerMode(true);
     }
 
@@ -127,6 +128,12 @@ public class TimerListItem extends LinearLayout {
         mResetAddButton.setOnClickListener(listener);
     }
 
+    public void setCanAddMinute(boolean canAddMinute) {
+        if (mResetAddButton.isEnabled() != canAddMinute) {
+            mResetAddButton.setEnabled(canAddMinute);
+        }
+    }
+
     public void setTime(long time, boolean forceUpdate) {
         if (mTimerText == null) {
             mTimerText = (CountingTimerView) findViewById(org.omnirom.deskclock.R.id.timer_time_text);
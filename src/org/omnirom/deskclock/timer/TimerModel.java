@@ -0,0 +1,239 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.timer;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import org.omnirom.deskclock.AsyncExecutor;
+import org.omnirom.deskclock.LogUtils;
+import org.omnirom.deskclock.provider.TimerStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process wide model of all timers, shared by the timer UI, its receiver and
+ * notifications.
+ *
+ * The timers are read from the database once. Changes are applied to the model
+ * right away and written to the database in the background, so reading timers
+ * never touches the disk after the first load.
+ *
+ * Callers always get their own copies and hand changed timers back through
+ * {@link #updateTimer(TimerObj)}. Components that keep copies around register a
+ * {@link Listener} to learn when someone else changed the timers.
+ */
+public final class TimerModel {
+    private static final String LOGTAG = TimerModel.class.getSimpleName();
+
+    private static final String PERSIST_KEY = "timer_model_persist";
+
+    public interface Listener {
+        /**
+         * Called on the main thread after timers were changed outside of the
+         * listener, the listener should read them again.
+         */
+        void onTimersChanged();
+    }
+
+    private static TimerModel sInstance;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Guarded by this
+    private final SparseArray<TimerObj> mTimers = new SparseArray<TimerObj>();
+    private final SparseBooleanArray mDirty = new SparseBooleanArray();
+    private boolean mLoaded;
+
+    // Held while writing, so a later snapshot of the changes is never written
+    // before an earlier one
+    private final Object mPersistLock = new Object();
+
+    // Only touched on the main thread
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+
+    public static synchronized TimerModel getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TimerModel(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TimerModel(Context context) {
+        mContext = context;
+    }
+
+    private void ensureLoaded() {
+        if (!mLoaded) {
+            ArrayList<TimerObj> timers = new ArrayList<TimerObj>();
+            TimerStore.getTimers(mContext.getContentResolver(), timers);
+            for (TimerObj timer : timers) {
+                mTimers.put(timer.mTimerId, timer);
+            }
+            mLoaded = true;
+            LogUtils.v(LOGTAG, "Loaded " + timers.size() + " timers");
+        }
+    }
+
+    /**
+     * Add copies of all timers ordered by id to the list.
+     */
+    public synchronized void getTimers(List<TimerObj> timers) {
+        ensureLoaded();
+        for (int i = 0; i < mTimers.size(); i++) {
+            timers.add(mTimers.valueAt(i).copy());
+        }
+    }
+
+    /**
+     * Add copies of all timers in the given state ordered by id to the list.
+     */
+    public synchronized void getTimers(List<TimerObj> timers, int state) {
+        ensureLoaded();
+        for (int i = 0; i < mTimers.size(); i++) {
+            TimerObj timer = mTimers.valueAt(i);
+            if (timer.mState == state) {
+                timers.add(timer.copy());
+            }
+        }
+    }
+
+    public synchronized void updateTimer(TimerObj timer) {
+        ensureLoaded();
+        putTimer(timer);
+        schedulePersist();
+    }
+
+    public synchronized void updateTimers(List<TimerObj> timers) {
+        ensureLoaded();
+        for (TimerObj timer : timers) {
+            putTimer(timer);
+        }
+        schedulePersist();
+    }
+
+    public synchronized void deleteTimer(int timerId) {
+        ensureLoaded();
+        mTimers.remove(timerId);
+        mDirty.put(timerId, true);
+        if (mTimers.size() == 0) {
+            PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                    .remove(TimerObj.KEY_NEXT_TIMER_ID).apply();
+        }
+        schedulePersist();
+    }
+
+    /**
+     * Put all timers back to their setup length, used after a reboot.
+     */
+    public synchronized void resetTimers() {
+        ensureLoaded();
+        for (int i = 0; i < mTimers.size(); i++) {
+            TimerObj timer = mTimers.valueAt(i);
+            timer.mState = TimerObj.STATE_RESTART;
+            timer.mTimeLeft = timer.mOriginalLength = timer.mSetupLength;
+            mDirty.put(timer.mTimerId, true);
+        }
+        schedulePersist();
+    }
+
+    private void putTimer(TimerObj timer) {
+        mTimers.put(timer.mTimerId, timer.copy());
+        mDirty.put(timer.mTimerId, true);
+    }
+
+    private void schedulePersist() {
+        AsyncExecutor.postCoalesced(AsyncExecutor.PRIORITY_DEFAULT, PERSIST_KEY, new Runnable() {
+            @Override
+            public void run() {
+                persist();
+            }
+        });
+    }
+
+    /**
+     * Write pending changes right away instead of waiting for the background
+     * write. Receivers call this before they return, since nothing keeps the
+     * process running afterwards.
+     */
+    public void flush() {
+        persist();
+    }
+
+    /**
+     * Write every timer changed since the last run, in one transaction for
+     * updates. Runs without holding the model lock.
+     */
+    private void persist() {
+        synchronized (mPersistLock) {
+            final ArrayList<TimerObj> updated = new ArrayList<TimerObj>();
+            final ArrayList<Integer> deleted = new ArrayList<Integer>();
+            synchronized (this) {
+                if (mDirty.size() == 0) {
+                    return;
+                }
+                for (int i = 0; i < mDirty.size(); i++) {
+                    final int timerId = mDirty.keyAt(i);
+                    final TimerObj timer = mTimers.get(timerId);
+                    if (timer != null) {
+                        updated.add(timer.copy());
+                    } else {
+                        deleted.add(timerId);
+                    }
+                }
+                mDirty.clear();
+            }
+
+            final ContentResolver cr = mContext.getContentResolver();
+            TimerStore.writeTimers(cr, updated);
+            for (int timerId : deleted) {
+                TimerStore.deleteTimer(cr, timerId);
+            }
+        }
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Tell all listeners that the timers changed, for changes made outside of
+     * the timer UI.
+     */
+    public void notifyTimersChanged() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                    listener.onTimersChanged();
+                }
+            }
+        });
+    }
+}
@@ -31,11 +31,13 @@ import android.view.View;
 import android.widget.RemoteViews;
 
 import org.omnirom.deskclock.DeskClock;
+import org.omnirom.deskclock.SettingsActivity;
 import org.omnirom.deskclock.TimerRingService;
 import org.omnirom.deskclock.Utils;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 public class TimerReceiver extends BroadcastReceiver {
     private static final String TAG = "TimerReceiver";
@@ -44,11 +46,28 @@ public class TimerReceiver extends BroadcastReceiver {
     // Must also be different than StopwatchService.NOTIFICATION_ID
     private static final int IN_USE_NOTIFICATION_ID = Integer.MAX_VALUE - 2;
     private static final int RESET_ALL_TIMERS_BROADCAST_ID = Integer.MAX_VALUE - 3;
+    private static final int TIMES_UP_SUMMARY_NOTIFICATION_ID = Integer.MAX_VALUE - 4;
+
+    // Bundles the times-up notifications of timers that went off together
+    private static final String TIMES_UP_GROUP = "timers_times_up";
+
+    // Milliseconds, timers going off within it after the earliest one share its wakeup
+    private static final String DEFAULT_COALESCE_WINDOW = "1000";
 
     ArrayList<TimerObj> mTimers;
 
     @Override
     public void onReceive(final Context context, final Intent intent) {
+        try {
+            handleIntent(context, intent);
+        } finally {
+            // The process may be frozen as soon as the broadcast is done, so the
+            // changes must not wait for the background write
+            TimerModel.getInstance(context).flush();
+        }
+    }
+
+    private void handleIntent(final Context context, final Intent intent) {
         if (Timers.LOGGING) {
             Log.v(TAG, "Received intent " + intent.toString());
         }
@@ -63,8 +82,10 @@ public class TimerReceiver extends BroadcastReceiver {
         if (mTimers == null) {
             mTimers = new ArrayList<TimerObj>();
         }
+        mTimers.clear();
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        TimerObj.getTimersFromSharedPrefs(prefs, mTimers);
+        final TimerModel model = TimerModel.getInstance(context);
+        model.getTimers(mTimers);
 
         // These actions do not provide a timer ID, but do use the timers data
         if (Timers.NOTIF_IN_USE_SHOW.equals(actionType)) {
@@ -72,6 +93,15 @@ public class TimerReceiver extends BroadcastReceiver {
             return;
         } else if (Timers.NOTIF_TIMES_UP_SHOW.equals(actionType)) {
             showTimesUpNotification(context);
+            updateTimesUpSummary(context);
+            return;
+        }
+
+        // Expiries are batched, so the times up alarm does not name a single timer
+        if (Timers.TIMES_UP.equals(actionType)) {
+            expireDueTimers(context, model);
+            updateNextTimesup(context);
+            updateTimesUpSummary(context);
             return;
         }
 
@@ -90,32 +120,7 @@ public class TimerReceiver extends BroadcastReceiver {
 
         TimerObj t = Timers.findTimer(mTimers, timerId);
 
-        if (Timers.TIMES_UP.equals(actionType)) {
-            // Find the timer (if it doesn't exists, it was probably deleted).
-            if (t == null) {
-                Log.d(TAG, " timer not found in list - do nothing");
-                return;
-            }
-
-            t.mState = TimerObj.STATE_TIMESUP;
-            t.writeToSharedPref(prefs);
-            // Play ringtone by using TimerRingService service with a default alarm.
-            Log.d(TAG, "playing ringtone");
-            Intent si = new Intent();
-            si.setClass(context, TimerRingService.class);
-            context.startService(si);
-
-            // Update the in-use notification
-            if (getNextRunningTimer(mTimers, false, Utils.getTimeNow()) == null) {
-                // Found no running timers.
-                cancelInUseNotification(context);
-            } else {
-                showInUseNotification(context);
-            }
-
-            cancelTimesUpNotification(context, t);
-            showTimesUpNotification(context, t);
-        } else if (Timers.TIMER_RESET.equals(actionType)
+        if (Timers.TIMER_RESET.equals(actionType)
                 || Timers.DELETE_TIMER.equals(actionType)
                 || Timers.TIMER_DONE.equals(actionType)) {
             // Stop Ringtone if all timers are not in times-up status
@@ -133,16 +138,16 @@ public class TimerReceiver extends BroadcastReceiver {
             // Update timer state
             t.mState = t.getDeleteAfterUse() ? TimerObj.STATE_DELETED : TimerObj.STATE_RESTART;
             t.mTimeLeft = t.mOriginalLength = t.mSetupLength;
-            t.writeToSharedPref(prefs);
+            model.updateTimer(t);
 
-            // Flag to tell DeskClock to re-sync with the database
-            prefs.edit().putBoolean(Timers.FROM_NOTIFICATION, true).apply();
+            // Tell DeskClock to re-sync with the model
+            model.notifyTimersChanged();
 
             cancelTimesUpNotification(context, t);
 
             // Done with timer - delete from data base
             if (t.getDeleteAfterUse()) {
-                t.deleteFromSharedPref(prefs);
+                model.deleteTimer(t.mTimerId);
             }
 
             // Stop Ringtone if no timers are in times-up status
@@ -161,10 +166,10 @@ public class TimerReceiver extends BroadcastReceiver {
             t.mState = TimerObj.STATE_RUNNING;
             t.mStartTime = Utils.getTimeNow();
             t.mTimeLeft = t.mOriginalLength = TimerObj.MINUTE_IN_MILLIS;
-            t.writeToSharedPref(prefs);
+            model.updateTimer(t);
 
-            // Flag to tell DeskClock to re-sync with the database
-            prefs.edit().putBoolean(Timers.FROM_NOTIFICATION, true).apply();
+            // Tell DeskClock to re-sync with the model
+            model.notifyTimersChanged();
 
             cancelTimesUpNotification(context, t);
 
@@ -184,9 +189,8 @@ public class TimerReceiver extends BroadcastReceiver {
 
             // Refresh buzzing notification
             if (t.mState == TimerObj.STATE_TIMESUP) {
-                // Must cancel the previous notification to get all updates displayed correctly
-                cancelTimesUpNotification(context, t);
-                showTimesUpNotification(context, t);
+                // Replace the notification in place, so the update does not alert again
+                showTimesUpNotification(context, t, false);
             }
         } else if (Timers.NOTIF_DELETE_TIMER.equals(actionType)) {
             if (t == null) {
@@ -194,7 +198,7 @@ public class TimerReceiver extends BroadcastReceiver {
                 return;
             }
             t.mState = TimerObj.STATE_DELETED;
-            t.deleteFromSharedPref(prefs);
+            model.deleteTimer(t.mTimerId);
             clearInUseNotification(context);
         } else if (Timers.NOTIF_TOGGLE_STATE.equals(actionType)) {
             if (t == null) {
@@ -209,7 +213,7 @@ public class TimerReceiver extends BroadcastReceiver {
                 t.mStartTime = Utils.getTimeNow() - (t.mOriginalLength - t.mTimeLeft);
             }
 
-            t.writeToSharedPref(prefs);
+            model.updateTimer(t);
             updateUseNotification(context, t);
         } else if (Timers.NOTIF_RESET_TIMER.equals(actionType)) {
             if (t == null) {
@@ -218,7 +222,7 @@ public class TimerReceiver extends BroadcastReceiver {
             }
             t.mState = TimerObj.STATE_RESTART;
             t.mTimeLeft = t.mOriginalLength = t.mSetupLength;
-            t.writeToSharedPref(prefs);
+            model.updateTimer(t);
             clearInUseNotification(context);
         } else if (Timers.NOTIF_RESET_ALL_TIMER.equals(actionType)) {
             resetAllTimers(context, mTimers);
@@ -226,6 +230,47 @@ public class TimerReceiver extends BroadcastReceiver {
         }
         // Update the next "Times up" alarm
         updateNextTimesup(context);
+        updateTimesUpSummary(context);
+    }
+
+    // Move every timer due by now to times up in one batch, then ring and notify once
+    // for all of them.
+    private void expireDueTimers(final Context context, TimerModel model) {
+        List<TimerObj> expired = TimerExpiries.getDue(mTimers, Utils.getTimeNow());
+        if (expired.isEmpty()) {
+            Log.d(TAG, "no timer due - do nothing");
+            return;
+        }
+
+        for (TimerObj t : expired) {
+            t.mState = TimerObj.STATE_TIMESUP;
+        }
+        model.updateTimers(expired);
+        if (Timers.LOGGING) {
+            Log.v(TAG, expired.size() + " timers expired");
+        }
+
+        // Play ringtone by using TimerRingService service with a default alarm.
+        Log.d(TAG, "playing ringtone");
+        Intent si = new Intent();
+        si.setClass(context, TimerRingService.class);
+        context.startService(si);
+
+        // Update the in-use notification
+        if (getNextRunningTimer(mTimers, false, Utils.getTimeNow()) == null) {
+            // Found no running timers.
+            cancelInUseNotification(context);
+        } else {
+            showInUseNotification(context);
+        }
+
+        // Only the first timer of the batch may take over the screen
+        boolean fullScreen = true;
+        for (TimerObj t : expired) {
+            cancelTimesUpNotification(context, t);
+            showTimesUpNotification(context, t, fullScreen);
+            fullScreen = false;
+        }
     }
 
     private void stopRingtoneIfNoTimesup(final Context context) {
@@ -238,24 +283,23 @@ public class TimerReceiver extends BroadcastReceiver {
         }
     }
 
-    // Scan all timers and find the one that will expire next.
-    // Tell AlarmManager to send a "Time's up" message to this receiver when this timer expires.
-    // If no timer exists, clear "time's up" message.
+    // Find the earliest running timer and the ones going off within the coalescing
+    // window after it. Tell AlarmManager to send a "Time's up" message to this receiver
+    // when the last of them expires, so all of them are expired by the same message.
+    // If no timer is running, clear "time's up" message.
     private void updateNextTimesup(Context context) {
-        TimerObj t = getNextRunningTimer(mTimers, false, Utils.getTimeNow());
-        long nextTimesup = (t == null) ? -1 : t.getTimesupTime();
-        int timerId = (t == null) ? -1 : t.mTimerId;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long window = Long.parseLong(prefs.getString(
+                SettingsActivity.KEY_TIMER_COALESCE_WINDOW, DEFAULT_COALESCE_WINDOW));
+        long nextTimesup = TimerExpiries.getNextWakeup(mTimers, window);
 
         Intent intent = new Intent();
         intent.setAction(Timers.TIMES_UP);
         intent.setClass(context, TimerReceiver.class);
-        if (!mTimers.isEmpty()) {
-            intent.putExtra(Timers.TIMER_INTENT_EXTRA, timerId);
-        }
         AlarmManager mngr = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
         PendingIntent p = PendingIntent.getBroadcast(context,
                 0, intent, PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_UPDATE_CURRENT);
-        if (t != null) {
+        if (nextTimesup != -1) {
             mngr.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, nextTimesup, p);
             if (Timers.LOGGING) {
                 Log.d(TAG, "Setting times up to " + nextTimesup);
@@ -279,7 +323,6 @@ public class TimerReceiver extends BroadcastReceiver {
         }
 
         String title, contentText;
-        Long nextBroadcastTime = null;
         long now = Utils.getTimeNow();
         if (timersInUse.size() == 1) {
             TimerObj timer = timersInUse.get(0);
@@ -288,12 +331,10 @@ public class TimerReceiver extends BroadcastReceiver {
             title = timerIsTicking ? label : context.getString(org.omnirom.deskclock.R.string.timer_stopped);
             long timeLeft = timerIsTicking ? timer.getTimesupTime() - now : timer.mTimeLeft;
             contentText = buildTimeRemaining(context, timeLeft);
-            if (timerIsTicking && timeLeft > TimerObj.MINUTE_IN_MILLIS) {
-                nextBroadcastTime = getUpdateBroadcastTime(now);
-            }
-            showCollapsedNotificationWithNext(context, timer, title, contentText, nextBroadcastTime);
+            showCollapsedNotification(context, timer, title, contentText, -1);
         } else {
             TimerObj timer = getNextRunningTimer(timersInUse, false, now);
+            long countdownTo = -1;
             if (timer == null) {
                 // No running timers.
                 title = String.format(
@@ -301,24 +342,13 @@ public class TimerReceiver extends BroadcastReceiver {
                 contentText = context.getString(org.omnirom.deskclock.R.string.all_timers_stopped_notif);
             } else {
                 // We have at least one timer running and other timers stopped.
+                // The system counts down to the next one, so the text needs no refresh
                 title = String.format(
                         context.getString(org.omnirom.deskclock.R.string.timers_in_use), numTimersInUse);
-                long completionTime = timer.getTimesupTime();
-                long timeLeft = completionTime - now;
-                contentText = String.format(context.getString(org.omnirom.deskclock.R.string.next_timer_notif),
-                        buildTimeRemaining(context, timeLeft));
-                if (timeLeft <= TimerObj.MINUTE_IN_MILLIS) {
-                    TimerObj timerWithUpdate = getNextRunningTimer(timersInUse, true, now);
-                    if (timerWithUpdate != null) {
-                        completionTime = timerWithUpdate.getTimesupTime();
-                        timeLeft = completionTime - now;
-                        nextBroadcastTime = getUpdateBroadcastTime(now);
-                    }
-                } else {
-                    nextBroadcastTime = getUpdateBroadcastTime(now);
-                }
+                contentText = timer.getLabelOrDefault(context);
+                countdownTo = timer.getTimesupTime();
             }
-            showCollapsedNotificationWithNext(context, null, title, contentText, nextBroadcastTime);
+            showCollapsedNotification(context, null, title, contentText, countdownTo);
         }
     }
 
@@ -331,7 +361,6 @@ public class TimerReceiver extends BroadcastReceiver {
         }
 
         String title, contentText;
-        Long nextBroadcastTime = null;
         long now = Utils.getTimeNow();
 
         boolean timerIsTicking = timer.isTicking();
@@ -339,10 +368,7 @@ public class TimerReceiver extends BroadcastReceiver {
         title = timerIsTicking ? label : context.getString(org.omnirom.deskclock.R.string.timer_stopped);
         long timeLeft = timerIsTicking ? timer.getTimesupTime() - now : timer.mTimeLeft;
         contentText = buildTimeRemaining(context, timeLeft);
-        if (timerIsTicking && timeLeft > TimerObj.MINUTE_IN_MILLIS) {
-            nextBroadcastTime = getUpdateBroadcastTime(now);
-        }
-        showCollapsedNotificationWithNext(context, timer, title, contentText, nextBroadcastTime);
+        showCollapsedNotification(context, timer, title, contentText, -1);
     }
 
     private void clearInUseNotification(final Context context) {
@@ -352,158 +378,28 @@ public class TimerReceiver extends BroadcastReceiver {
         notificationManager.cancel(IN_USE_NOTIFICATION_ID);
     }
 
-    // notification will be updated every minute
-    private long getUpdateBroadcastTime(long now) {
-        return now + TimerObj.MINUTE_IN_MILLIS;
-    }
-
-    private void showCollapsedNotificationWithNext(
-            final Context context, TimerObj timer, String title, String text, Long nextBroadcastTime) {
+    /**
+     * Post the in-use notification. Remaining times are shown by chronometers
+     * ticked by the system UI, so the notification is only posted again when
+     * the timers change state.
+     *
+     * @param countdownTo elapsed realtime the notification header counts down
+     *                    to, or -1 for none
+     */
+    private void showCollapsedNotification(
+            final Context context, TimerObj timer, String title, String text, long countdownTo) {
         Intent activityIntent = new Intent(context, DeskClock.class);
         activityIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
         activityIntent.putExtra(DeskClock.SELECT_TAB_INTENT_EXTRA, DeskClock.TIMER_TAB_INDEX);
         PendingIntent pendingActivityIntent = PendingIntent.getActivity(context, 0, activityIntent,
                 PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_UPDATE_CURRENT);
-        if (Utils.isNougatOrLater()) {
-            showCollapsedNotificationNew(context, timer, title, text, Notification.PRIORITY_HIGH,
-                    pendingActivityIntent, IN_USE_NOTIFICATION_ID, false);
-        } else {
-            showCollapsedNotificationOld(context, timer, title, text, Notification.PRIORITY_HIGH,
-                    pendingActivityIntent, IN_USE_NOTIFICATION_ID, false);
-        }
-
-        if (nextBroadcastTime == null) {
-            return;
-        }
-        Intent nextBroadcast = new Intent();
-        nextBroadcast.setAction(Timers.NOTIF_IN_USE_SHOW);
-        PendingIntent pendingNextBroadcast =
-                PendingIntent.getBroadcast(context, 0, nextBroadcast, 0);
-        AlarmManager alarmManager =
-                (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, nextBroadcastTime, pendingNextBroadcast);
+        showCollapsedNotification(context, timer, title, text, Notification.PRIORITY_HIGH,
+                pendingActivityIntent, IN_USE_NOTIFICATION_ID, false, countdownTo);
     }
 
-    private static void showCollapsedNotificationOld(final Context context, TimerObj timer, String title, String text,
-                                                     int priority, PendingIntent pendingIntent, int notificationId, boolean showTicker) {
-
-        Notification.Builder builder = new Notification.Builder(context)
-                .setAutoCancel(false)
-                .setContentTitle(title)
-                .setContentText(text)
-                .setDeleteIntent(pendingIntent)
-                .setOngoing(true)
-                .setPriority(priority)
-                .setShowWhen(false)
-                .setSmallIcon(org.omnirom.deskclock.R.drawable.ic_notify_timer)
-                .setCategory(Notification.CATEGORY_ALARM)
-                .setVisibility(Notification.VISIBILITY_PUBLIC)
-                .setLocalOnly(true)
-                .setColor(context.getResources().getColor(org.omnirom.deskclock.R.color.primary));
-
-        if (showTicker) {
-            builder.setTicker(text);
-        }
-
-        Notification notification = null;
-
-        // only for a single timer show notifiction buttons
-        if (timer != null) {
-            // Set up remoteviews for the notification.
-            RemoteViews remoteViewsCollapsed = new RemoteViews(context.getPackageName(),
-                    org.omnirom.deskclock.R.layout.custom_notif_collapsed);
-            remoteViewsCollapsed.setViewVisibility(org.omnirom.deskclock.R.id.collapsed_chronometer, View.GONE);
-            remoteViewsCollapsed.setTextViewText(org.omnirom.deskclock.R.id.collapsed_title, title);
-            remoteViewsCollapsed.setViewVisibility(org.omnirom.deskclock.R.id.collapsed_title, View.VISIBLE);
-            remoteViewsCollapsed.setTextViewText(org.omnirom.deskclock.R.id.collapsed_text, text);
-            remoteViewsCollapsed.setViewVisibility(org.omnirom.deskclock.R.id.collapsed_text, View.VISIBLE);
-            remoteViewsCollapsed.
-                    setImageViewResource(org.omnirom.deskclock.R.id.notification_icon, org.omnirom.deskclock.R.drawable.ic_notify_timer);
-
-            RemoteViews remoteViewsExpanded = new RemoteViews(context.getPackageName(),
-                    org.omnirom.deskclock.R.layout.custom_notif_expanded);
-            remoteViewsExpanded.setViewVisibility(org.omnirom.deskclock.R.id.expanded_chronometer, View.GONE);
-            remoteViewsExpanded.setTextViewText(org.omnirom.deskclock.R.id.expanded_title, title);
-            remoteViewsExpanded.setViewVisibility(org.omnirom.deskclock.R.id.expanded_title, View.VISIBLE);
-            remoteViewsExpanded.setTextViewText(org.omnirom.deskclock.R.id.expanded_text, text);
-            remoteViewsExpanded.setViewVisibility(org.omnirom.deskclock.R.id.expanded_text, View.VISIBLE);
-            remoteViewsExpanded.
-                    setImageViewResource(org.omnirom.deskclock.R.id.notification_icon, org.omnirom.deskclock.R.drawable.ic_notify_timer);
-
-            // delete notification button will delete timer
-            PendingIntent deleteNotificationIntent = PendingIntent.getBroadcast(context, timer.mTimerId,
-                    new Intent(Timers.NOTIF_DELETE_TIMER)
-                            .putExtra(Timers.TIMER_INTENT_EXTRA, timer.mTimerId),
-                    PendingIntent.FLAG_UPDATE_CURRENT);
-
-            // reset timer action
-            PendingIntent resetTimerIntent = PendingIntent.getBroadcast(context, timer.mTimerId,
-                    new Intent(Timers.NOTIF_RESET_TIMER)
-                            .putExtra(Timers.TIMER_INTENT_EXTRA, timer.mTimerId),
-                    PendingIntent.FLAG_UPDATE_CURRENT);
-
-            remoteViewsExpanded.setTextViewText(
-                    org.omnirom.deskclock.R.id.left_button, context.getResources().getString(org.omnirom.deskclock.R.string.timer_reset).toUpperCase());
-            remoteViewsExpanded.setOnClickPendingIntent(org.omnirom.deskclock.R.id.left_button,
-                    resetTimerIntent);
-            remoteViewsExpanded.
-                    setTextViewCompoundDrawablesRelative(org.omnirom.deskclock.R.id.left_button,
-                            org.omnirom.deskclock.R.drawable.ic_notify_reset_black, 0, 0, 0);
-
-            if (timer.mState == TimerObj.STATE_RUNNING || timer.mState == TimerObj.STATE_STOPPED) {
-                PendingIntent toggleTimerIntent = PendingIntent.getBroadcast(context, timer.mTimerId,
-                        new Intent(Timers.NOTIF_TOGGLE_STATE)
-                                .putExtra(Timers.TIMER_INTENT_EXTRA, timer.mTimerId),
-                        PendingIntent.FLAG_UPDATE_CURRENT);
-                remoteViewsExpanded.setTextViewText(
-                        org.omnirom.deskclock.R.id.right_button, context.getResources().getString(timer.mState == TimerObj.STATE_RUNNING ?
-                                org.omnirom.deskclock.R.string.sw_pause_button :
-                                org.omnirom.deskclock.R.string.sw_start_button).toUpperCase());
-                remoteViewsExpanded.setOnClickPendingIntent(org.omnirom.deskclock.R.id.right_button,
-                        toggleTimerIntent);
-                remoteViewsExpanded.
-                        setTextViewCompoundDrawablesRelative(org.omnirom.deskclock.R.id.right_button,
-                                timer.mState == TimerObj.STATE_RUNNING ?
-                                        org.omnirom.deskclock.R.drawable.ic_notify_pause_black :
-                                        org.omnirom.deskclock.R.drawable.ic_notify_start_black, 0, 0, 0);
-                if (timer.mState == TimerObj.STATE_STOPPED) {
-                    // Show stopped string.
-                    remoteViewsCollapsed.setViewVisibility(org.omnirom.deskclock.R.id.notif_text, View.GONE);
-                    remoteViewsExpanded.
-                            setTextViewText(org.omnirom.deskclock.R.id.notif_text, context.getResources().getString(org.omnirom.deskclock.R.string.swn_stopped));
-                    remoteViewsCollapsed.setViewVisibility(org.omnirom.deskclock.R.id.notif_text, View.VISIBLE);
-                } else {
-                    remoteViewsCollapsed.setViewVisibility(org.omnirom.deskclock.R.id.notif_text, View.GONE);
-                    remoteViewsCollapsed.setViewVisibility(org.omnirom.deskclock.R.id.notif_text, View.GONE);
-                }
-            }
-            builder.setContent(remoteViewsCollapsed);
-            builder.setOngoing(timer.mState == TimerObj.STATE_RUNNING);
-            builder.setDeleteIntent(deleteNotificationIntent);
-
-            notification = builder.build();
-            notification.bigContentView = remoteViewsExpanded;
-        } else {
-            // show single button to reset all timers
-            PendingIntent resetAllTimerIntent = PendingIntent.getBroadcast(context, RESET_ALL_TIMERS_BROADCAST_ID,
-                    new Intent(Timers.NOTIF_RESET_ALL_TIMER)
-                            .putExtra(Timers.TIMER_INTENT_EXTRA, RESET_ALL_TIMERS_BROADCAST_ID),
-                    PendingIntent.FLAG_UPDATE_CURRENT);
-            builder.addAction(org.omnirom.deskclock.R.drawable.ic_notify_reset_black,
-                    context.getResources().getString(org.omnirom.deskclock.R.string.timer_reset),
-                    resetAllTimerIntent);
-            notification = builder.build();
-        }
-
-        notification.contentIntent = pendingIntent;
-        NotificationManager notificationManager =
-                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-
-        notificationManager.notify(notificationId, notification);
-    }
-
-    private static void showCollapsedNotificationNew(final Context context, TimerObj timer, String title, String text,
-                                                     int priority, PendingIntent pendingIntent, int notificationId, boolean showTicker) {
+    private static void showCollapsedNotification(final Context context, TimerObj timer, String title, String text,
+                                                  int priority, PendingIntent pendingIntent, int notificationId, boolean showTicker,
+                                                  long countdownTo) {
         if (Utils.isNougatOrLater()) {
             Notification.Builder builder = new Notification.Builder(context)
                     .setAutoCancel(false)
@@ -594,6 +490,14 @@ public class TimerReceiver extends BroadcastReceiver {
 
                 notification = builder.build();
             } else {
+                if (countdownTo != -1) {
+                    // The header chronometer works in wall time
+                    builder.setShowWhen(true)
+                            .setUsesChronometer(true)
+                            .setChronometerCountDown(true)
+                            .setWhen(System.currentTimeMillis() + countdownTo - Utils.getTimeNow());
+                }
+
                 // show single button to reset all timers
                 PendingIntent resetAllTimerIntent = PendingIntent.getBroadcast(context, RESET_ALL_TIMERS_BROADCAST_ID,
                         new Intent(Timers.NOTIF_RESET_ALL_TIMER)
@@ -675,13 +579,16 @@ public class TimerReceiver extends BroadcastReceiver {
         notificationManager.cancel(IN_USE_NOTIFICATION_ID);
     }
 
+    // Show the notifications of timers that already went off again, only newly expired
+    // timers alert and take over the screen, see expireDueTimers
     private void showTimesUpNotification(final Context context) {
         for (TimerObj timerObj : Timers.timersInTimesUp(mTimers)) {
-            showTimesUpNotification(context, timerObj);
+            showTimesUpNotification(context, timerObj, false);
         }
     }
 
-    private void showTimesUpNotification(final Context context, TimerObj timerObj) {
+    private void showTimesUpNotification(final Context context, TimerObj timerObj,
+            boolean fullScreen) {
         // Content Intent. When clicked will show the timer full screen
         PendingIntent contentIntent = PendingIntent.getActivity(context, timerObj.mTimerId,
                 new Intent(context, TimerAlertFullScreen.class).putExtra(
@@ -710,8 +617,12 @@ public class TimerReceiver extends BroadcastReceiver {
 
         // Notification creation
         NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
+        if (fullScreen) {
+            builder.setFullScreenIntent(fullScreenIntent, true);
+        }
         builder.setContentIntent(contentIntent)
-                .setFullScreenIntent(fullScreenIntent, true)
+                .setGroup(TIMES_UP_GROUP)
+                .setOnlyAlertOnce(true)
                 .addAction(org.omnirom.deskclock.R.drawable.ic_menu_add,
                         context.getResources().getString(org.omnirom.deskclock.R.string.timer_plus_1_min),
                         addOneMinuteAction)
@@ -746,6 +657,42 @@ public class TimerReceiver extends BroadcastReceiver {
         }
     }
 
+    // Bundle the times-up notifications under a summary while more than one timer is up
+    private void updateTimesUpSummary(final Context context) {
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        int numTimersInTimesUp = Timers.timersInTimesUp(mTimers).size();
+        if (numTimersInTimesUp < 2) {
+            notificationManager.cancel(TIMES_UP_SUMMARY_NOTIFICATION_ID);
+            return;
+        }
+
+        PendingIntent contentIntent = PendingIntent.getActivity(context,
+                TIMES_UP_SUMMARY_NOTIFICATION_ID,
+                new Intent(context, TimerAlertFullScreen.class),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
+        builder.setContentIntent(contentIntent)
+                .setGroup(TIMES_UP_GROUP)
+                .setGroupSummary(true)
+                .setOnlyAlertOnce(true)
+                .setContentTitle(String.format(context.getString(
+                        org.omnirom.deskclock.R.string.timers_times_up), numTimersInTimesUp))
+                .setContentText(context.getResources().getString(org.omnirom.deskclock.R.string.timer_times_up))
+                .setSmallIcon(org.omnirom.deskclock.R.drawable.ic_notify_timer)
+                .setAutoCancel(false)
+                .setPriority(Notification.PRIORITY_MAX)
+                .setCategory(Notification.CATEGORY_ALARM)
+                .setVisibility(Notification.VISIBILITY_PUBLIC)
+                .setColor(context.getResources().getColor(org.omnirom.deskclock.R.color.primary));
+
+        if (!Utils.showWearNotification(context)) {
+            builder.setLocalOnly(true);
+        }
+        notificationManager.notify(TIMES_UP_SUMMARY_NOTIFICATION_ID, builder.build());
+    }
+
     private void cancelTimesUpNotification(final Context context) {
         for (TimerObj timerObj : Timers.timersInTimesUp(mTimers)) {
             cancelTimesUpNotification(context, timerObj);
@@ -769,13 +716,12 @@ public class TimerReceiver extends BroadcastReceiver {
     }
 
     private void resetAllTimers(final Context context, ArrayList<TimerObj> timers) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         Iterator<TimerObj> i = timers.iterator();
         while (i.hasNext()) {
             TimerObj t = i.next();
             t.mState = TimerObj.STATE_RESTART;
             t.mTimeLeft = t.mOriginalLength = t.mSetupLength;
-            t.writeToSharedPref(prefs);
         }
+        TimerModel.getInstance(context).updateTimers(timers);
     }
 }
@@ -0,0 +1,130 @@
+/*
+ *  Copyright (C) 2017 The OmniROM Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.omnirom.deskclock.timer;
+
+import android.view.Choreographer;
+
+import org.omnirom.deskclock.Utils;
+
+/**
+ * Drives the timer views from display frames. Rather than polling, the ticker
+ * sleeps until the earliest time its client reports that a shown digit or blink
+ * phase changes, and stops when there is nothing left to animate.
+ */
+class TimerTicker implements Choreographer.FrameCallback {
+
+    interface Client {
+        /**
+         * Bring the views up to date.
+         *
+         * @param now current {@link Utils#getTimeNow()}
+         * @return the next time any view changes, or {@link #NEVER} to stop ticking
+         */
+        long onTick(long now);
+    }
+
+    static final long NEVER = Long.MAX_VALUE;
+
+    static final long BLINK_PERIOD_MS = 1000;
+    static final long BLINK_SPLIT_MS = BLINK_PERIOD_MS / 2;
+
+    private final Client mClient;
+    private boolean mStarted;
+    private boolean mScheduled;
+
+    TimerTicker(Client client) {
+        mClient = client;
+    }
+
+    /**
+     * Start ticking, or tick again right away if already started. Call after
+     * anything a deadline was based on has changed.
+     */
+    void start() {
+        mStarted = true;
+        cancel();
+        mScheduled = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    void stop() {
+        mStarted = false;
+        cancel();
+    }
+
+    /**
+     * Tick again right away if started.
+     */
+    void update() {
+        if (mStarted) {
+            start();
+        }
+    }
+
+    boolean isStarted() {
+        return mStarted;
+    }
+
+    private void cancel() {
+        if (mScheduled) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            mScheduled = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        if (!mStarted) {
+            return;
+        }
+        final long now = Utils.getTimeNow();
+        final long next = mClient.onTick(now);
+        if (next != NEVER) {
+            mScheduled = true;
+            Choreographer.getInstance().postFrameCallbackDelayed(this, Math.max(0, next - now));
+        }
+    }
+
+    /**
+     * @return whether blinking views are shown at the given time
+     */
+    static boolean isBlinkVisible(long now) {
+        return now % BLINK_PERIOD_MS < BLINK_SPLIT_MS;
+    }
+
+    /**
+     * @return the next time the blink phase toggles
+     */
+    static long nextBlinkToggle(long now) {
+        return now - now % BLINK_SPLIT_MS + BLINK_SPLIT_MS;
+    }
+
+    /**
+     * Timers are shown at whole seconds, truncated towards zero.
+     *
+     * @return the next time the shown seconds of a timer with the given time
+     * left change
+     */
+    static long nextSecondChange(long now, long timeLeft) {
+        if (timeLeft > 0) {
+            return now + timeLeft % 1000 + 1;
+        }
+        return now + 1000 - (-timeLeft) % 1000;
+    }
+}
@@ -37,7 +37,6 @@ public class Timers {
     public static final String NOTIF_IN_USE_SHOW = "notif_in_use_show";
     public static final String NOTIF_IN_USE_CANCEL = "notif_in_use_cancel";
     public static final String NOTIF_APP_OPEN = "notif_app_open";
-    public static final String FROM_NOTIFICATION = "from_notification";
     public static final String NOTIF_TIMES_UP_STOP = "notif_times_up_stop";
     public static final String NOTIF_TIMES_UP_PLUS_ONE = "notif_times_up_plus_one";
     public static final String NOTIF_TIMES_UP_SHOW = "notif_times_up_show";
@@ -46,7 +45,6 @@ public class Timers {
     public static final String NOTIF_RESET_TIMER = "notif_reset_timer";
     public static final String NOTIF_RESET_ALL_TIMER = "notif_reset_all_timer";
 
-    public static final String FROM_ALERT = "from_alert";
     public static final String FIRST_LAUNCH_FROM_API_CALL = "first_launch_from_api_call";
 
     public static final String TIMESUP_MODE = "times_up";